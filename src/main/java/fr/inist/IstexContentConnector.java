@@ -4,6 +4,7 @@ package fr.inist;
 import java.io.*;
 import java.util.*;
 import java.util.Map.*;
+import java.util.function.*;
 
 import org.apache.logging.log4j.*;
 
@@ -11,6 +12,7 @@ import eu.openminted.content.connector.*;
 import eu.openminted.registry.core.domain.*;
 import fr.inist.istex.*;
 import fr.inist.tables.*;
+import toolbox.*;
 import toolbox.json.*;
 
 
@@ -71,6 +73,21 @@ import toolbox.json.*;
  * {@value #OMTD$PUBLICATION_YEAR} / {@value #ISTEX$PUBLICATION_YEAR} ne devrait contenir que des annes sur 4 chiffres.<br>
  * {@value #OMTD$LANGUAGE} / {@value #ISTEX$LANGUAGE} doivent tre convertis par les mthodes de {@link Language}.<br>
  * {@value #OMTD$PUBLICATION_TYPE} / {@value #ISTEX$PUBLICATION_TYPE} doivent tre convertis par les mthodes de {@link PublicationType}.<br>
+ * <br>
+ * L'interface de constitution de corpus appelle {@link #search(Query)}  chaque modification des critres, souvent plusieurs fois avec les mmes. Les rponses d'ISTEX sont donc conserves dans un
+ * cache commun  tous les connecteurs (voir {@link #getSearchCache()}), pendant {@value #SEARCH_CACHE_TIME_TO_LIVE} ms, et pour au plus {@value #SEARCH_CACHE_SIZE} recherches diffrentes. La
+ * requte et les facettes ISTEX, qui servent de cl, sont construites de faon canonique: l'ordre des paramtres et des facettes OMTD n'a pas d'influence.<br>
+ * <br>
+ * {@link #fetchMetadata(Query)} choisit la faon de parcourir les rsultats d'aprs leur nombre: un simple parcours ({@link IstexSimpleIterator}) en dessous d'un seuil (voir
+ * {@link #setSlicingThreshold(int)}), et au del, un parcours parallle par tranches ({@link IstexSlicedIterator}), dont le nombre d'ouvriers augmente avec le nombre de rsultats (voir
+ * {@link #setDocumentsPerWorker(int)} et {@link #setMaxWorkerCount(int)}).<br>
+ * <br>
+ * Toutes les requtes vers ISTEX sont soumises au limiteur de dbit et de concurrence partag {@link RateLimiter#SHARED} (par dfaut 20 requtes par seconde et 16 simultanes), qui ralentit
+ * les moissonnages parallles volumineux. Ses limites peuvent tre ajustes au quota disponible.<br>
+ * <br>
+ * Le moissonnage peut tre incrmental (voir {@link #setHarvestState(HarvestState)}): chaque moissonnage d'une requte dj moissonne entirement se limite alors aux documents ajouts depuis.<br>
+ * <br>
+ * Les textes intgraux peuvent tre conservs dans un cache sur disque (voir {@link #setFulltextCache(FulltextCache)}), pour ne pas les tlcharger  nouveau lors d'utilisations successives.<br>
  * @author Ludovic WALLE
  */
 public class IstexContentConnector implements ContentConnector {
@@ -89,11 +106,14 @@ public class IstexContentConnector implements ContentConnector {
 	 * Il est ncessaire d'avoir le token d'authentification ISTEX.<br>
 	 * En plus de l'identifiant de document, il est ncessaire d'avoir le format des donnes souhait,  moins que l'identifiant du document soit en fait l'URL d'accs au document, qui inclut cette
 	 * information de format, ou d'imposer un format fixe.<br>
+	 * Les textes intgraux sont obtenus depuis le cache sur disque, si il y en a un (voir {@link #setFulltextCache(FulltextCache)}).
 	 * @param documentId Identifiant de la publication.
 	 * @return Un flux du texte intgral d'une publication.
 	 */
 	@Override public InputStream downloadFullText(String documentId) {
-		return Istex.getFulltextStream(null, documentId, "tei"); // TODO obtenir le token d'authentification ISTEX, et le format de document
+		FulltextCache fulltextCache = this.fulltextCache;
+
+		return (fulltextCache != null) ? fulltextCache.get(null, documentId, "tei") : Istex.getFulltextStream(null, documentId, "tei"); // TODO obtenir le token d'authentification ISTEX, et le format de document
 	}
 
 
@@ -114,14 +134,153 @@ public class IstexContentConnector implements ContentConnector {
 	 *     ...
 	 * &lt;/publications&gt;</pre><u>Autres informations</u><br>
 	 * Cette mthode est appele lorsqu'on demande la construction du corpus.<br>
+	 * Le nombre de rsultats est obtenu au pralable (voir {@link #search(Query)}), pour choisir la faon de les parcourir (voir {@link #computeWorkerCount(int)}).<br>
+	 * Si le moissonnage est incrmental (voir {@link #setHarvestState(HarvestState)}), la requte est restreinte aux documents ajouts depuis le dernier moissonnage complet, et le repre de
+	 * moissonnage est avanc lorsque le flux retourn a t lu jusqu'au bout. Le nombre de rsultats de la requte restreinte est alors toujours demand  ISTEX, sans passer par le cache des
+	 * recherches: un nombre prim pourrait faire avancer le repre sans que les documents ajouts depuis aient t moissonns.
 	 * @param omtdQuery Requte OMTD.
 	 * @return Un flux XML avec les mta-donnes de tous les rsultats de la recherche au format OMTD-SHARE.
 	 */
 	@SuppressWarnings("resource") @Override public InputStream fetchMetadata(Query omtdQuery) {
+		HarvestState harvestState = this.harvestState;
+		final HarvestState.Delta delta;
+		InputStream stream;
 		String istexQuery;
+		int total;
+		int workerCount;
+
+		if ((istexQuery = computeIstexQuery(omtdQuery.getKeyword(), omtdQuery.getParams())) == null) {
+			return new IstexContentConnectorInputStream();
+		}
+		if (harvestState != null) {
+			delta = harvestState.begin(istexQuery);
+			istexQuery = delta.getQuery();
+		} else {
+			delta = null;
+		}
+		if ((total = (delta != null) ? new IstexSummary(istexQuery, null).getTotal() : summarize(istexQuery, null).getTotal()) == 0) {
+			stream = new IstexContentConnectorInputStream();
+		} else if ((workerCount = computeWorkerCount(total)) == 0) {
+			stream = new IstexContentConnectorInputStream(istexQuery, null);
+		} else {
+			LOGGER.log(Level.INFO, "Pour la requte \"" + istexQuery + "\", " + total + " rsultats, parcourus par tranches avec " + workerCount + " ouvriers.");
+			stream = new IstexContentConnectorInputStream(new IstexSlicedIterator(istexQuery, "*", null, workerCount));
+		}
+		if (delta == null) {
+			return stream;
+		}
+		return new FilterInputStream(stream) {
+
+
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override public void close() throws IOException {
+				closed = true;
+				super.close();
+			}
+
+
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override public int read() throws IOException {
+				return commitAtEnd(super.read());
+			}
+
+
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override public int read(byte[] bytes, int off, int len) throws IOException {
+				return commitAtEnd(super.read(bytes, off, len));
+			}
+
+
+
+			/**
+			 * Avance le repre de moissonnage si la fin du flux est atteinte avant sa fermeture.
+			 * @param result Rsultat de la lecture.
+			 * @return Le rsultat de la lecture.
+			 */
+			private int commitAtEnd(int result) {
+				if ((result == -1) && !closed && !committed) {
+					committed = true;
+					delta.commit();
+				}
+				return result;
+			}
+
+
+
+			/**
+			 * Indicateur de flux ferm.
+			 */
+			private boolean closed = false;
+
+
+
+			/**
+			 * Indicateur de repre de moissonnage avanc.
+			 */
+			private boolean committed = false;
+
+
+
+		};
+	}
+
+
+
+	/**
+	 * Retourne le nombre de rsultats par ouvrier vis pour un parcours par tranches.
+	 * @return Le nombre de rsultats par ouvrier vis pour un parcours par tranches.
+	 */
+	public final int getDocumentsPerWorker() {
+		return documentsPerWorker;
+	}
 
-		istexQuery = computeIstexQuery(omtdQuery.getKeyword(), omtdQuery.getParams());
-		return (istexQuery == null) ? new IstexContentConnectorInputStream() : new IstexContentConnectorInputStream(istexQuery, null);
+
+
+	/**
+	 * Retourne le cache sur disque des textes intgraux, ou <code>null</code> si il n'y en a pas.
+	 * @return Le cache sur disque des textes intgraux, ou <code>null</code> si il n'y en a pas.
+	 */
+	public final FulltextCache getFulltextCache() {
+		return fulltextCache;
+	}
+
+
+
+	/**
+	 * Retourne l'tat du moissonnage incrmental, ou <code>null</code> si le moissonnage est complet.
+	 * @return L'tat du moissonnage incrmental, ou <code>null</code> si le moissonnage est complet.
+	 */
+	public final HarvestState getHarvestState() {
+		return harvestState;
+	}
+
+
+
+	/**
+	 * Retourne le nombre maximal d'ouvriers pour un parcours par tranches.
+	 * @return Le nombre maximal d'ouvriers pour un parcours par tranches.
+	 */
+	public final int getMaxWorkerCount() {
+		return maxWorkerCount;
+	}
+
+
+
+	/**
+	 * Retourne le nombre de rsultats  partir duquel le parcours se fait par tranches.
+	 * @return Le nombre de rsultats  partir duquel le parcours se fait par tranches.
+	 */
+	public final int getSlicingThreshold() {
+		return slicingThreshold;
 	}
 
 
@@ -159,7 +318,7 @@ public class IstexContentConnector implements ContentConnector {
 	 * @return Une page de rsultats de recherche.
 	 */
 	@Override public SearchResult search(Query omtdQuery) throws IOException {
-		IstexIterator istexIterator;
+		IstexSummary summary;
 		int totalHits = 0;
 		JsonObject istexFacets;
 		List<Facet> omtdFacets = new Vector<>();
@@ -167,9 +326,9 @@ public class IstexContentConnector implements ContentConnector {
 		String istexQuery;
 
 		if ((istexQuery = computeIstexQuery(omtdQuery.getKeyword(), omtdQuery.getParams())) != null) {
-			istexIterator = new IstexSimpleIterator(istexQuery, null, computeIstexFacets(omtdQuery.getFacets()));
-			totalHits = istexIterator.getTotal();
-			istexFacets = istexIterator.getAggregations();
+			summary = summarize(istexQuery, computeIstexFacets(omtdQuery.getFacets()));
+			totalHits = summary.getTotal();
+			istexFacets = summary.getAggregations();
 
 			if ((omtdQuery.getFacets() != null)) {
 				for (String facet : omtdQuery.getFacets()) {
@@ -260,7 +419,84 @@ public class IstexContentConnector implements ContentConnector {
 
 
 	/**
-	 * Prpare le calcul des facettes ISTEX  partir de l'lment <code>facets</code> d'une requte OMTD.
+	 * Retourne le cache des rponses d'ISTEX aux recherches, commun  tous les connecteurs, pour en suivre l'utilisation.
+	 * @return Le cache des rponses d'ISTEX aux recherches.
+	 */
+	public static Cache<String, ?> getSearchCache() {
+		return SEARCH_CACHE;
+	}
+
+
+
+	/**
+	 * Rgle le nombre de rsultats par ouvrier vis pour un parcours par tranches. Le nombre d'ouvriers est le nombre de rsultats divis par cette valeur, arrondi au dessus, sans descendre en
+	 * dessous de 2 ni dpasser le nombre maximal (voir {@link #setMaxWorkerCount(int)}).<br>
+	 * Par dfaut, il est de {@value #DOCUMENTS_PER_WORKER}.
+	 * @param documentsPerWorker Nombre de rsultats par ouvrier vis (doit tre strictement positif).
+	 */
+	public final void setDocumentsPerWorker(int documentsPerWorker) {
+		if (documentsPerWorker <= 0) {
+			throw new IllegalArgumentException("Le nombre de rsultats par ouvrier doit tre strictement positif: " + documentsPerWorker);
+		}
+		this.documentsPerWorker = documentsPerWorker;
+	}
+
+
+
+	/**
+	 * Rgle le cache sur disque des textes intgraux. Il peut tre partag par plusieurs connecteurs.<br>
+	 * Par dfaut, il n'y en a pas.
+	 * @param fulltextCache Cache sur disque des textes intgraux, ou <code>null</code> pour ne pas en utiliser.
+	 */
+	public final void setFulltextCache(FulltextCache fulltextCache) {
+		this.fulltextCache = fulltextCache;
+	}
+
+
+
+	/**
+	 * Rgle l'tat du moissonnage incrmental. Il peut tre partag par plusieurs connecteurs. Son champ de date doit tre une date d'ajout ou d'indexation dans ISTEX (voir {@link HarvestState}).<br>
+	 * Par dfaut, il n'y en a pas, et chaque moissonnage est complet.
+	 * @param harvestState tat du moissonnage incrmental, ou <code>null</code> pour des moissonnages complets.
+	 */
+	public final void setHarvestState(HarvestState harvestState) {
+		this.harvestState = harvestState;
+	}
+
+
+
+	/**
+	 * Rgle le nombre maximal d'ouvriers pour un parcours par tranches.<br>
+	 * Par dfaut, il est de {@value #MAX_WORKER_COUNT}.
+	 * @param maxWorkerCount Nombre maximal d'ouvriers (doit tre suprieur ou gal  2).
+	 */
+	public final void setMaxWorkerCount(int maxWorkerCount) {
+		if (maxWorkerCount < 2) {
+			throw new IllegalArgumentException("Le nombre maximal d'ouvriers doit tre suprieur ou gal  2: " + maxWorkerCount);
+		}
+		this.maxWorkerCount = maxWorkerCount;
+	}
+
+
+
+	/**
+	 * Rgle le nombre de rsultats  partir duquel le parcours se fait par tranches. En dessous, le parcours d'un seul tenant est plus conomique: le dcoupage en tranches ncessite des requtes
+	 * de comptage supplmentaires.<br>
+	 * Par dfaut, il est de {@value #SLICING_THRESHOLD}.
+	 * @param slicingThreshold Nombre de rsultats  partir duquel le parcours se fait par tranches (doit tre strictement positif, {@link Integer#MAX_VALUE} pour ne jamais parcourir par tranches).
+	 */
+	public final void setSlicingThreshold(int slicingThreshold) {
+		if (slicingThreshold <= 0) {
+			throw new IllegalArgumentException("Le nombre de rsultats  partir duquel le parcours se fait par tranches doit tre strictement positif: " + slicingThreshold);
+		}
+		this.slicingThreshold = slicingThreshold;
+	}
+
+
+
+	/**
+	 * Prpare le calcul des facettes ISTEX  partir de l'lment <code>facets</code> d'une requte OMTD.<br>
+	 * Les facettes sont prises en compte dans l'ordre alphabtique, et les doublons sont ignors, pour que le rsultat ne dpende pas de l'ordre dans lequel elles ont t indiques.
 	 * @param facets Champ <code>facets</code> d'une requte OMTD.
 	 * @return La valeur du paramtre <code>facet</code> pour une recherche ISTEX.
 	 */
@@ -270,7 +506,7 @@ public class IstexContentConnector implements ContentConnector {
 
 		if ((facets != null) && !facets.isEmpty()) {
 			istexFacets = "";
-			for (String facet : facets) {
+			for (String facet : new TreeSet<>(facets)) {
 				switch (facet) {
 				case OMTD$DOCUMENT_TYPE: // la valeur est implicitement fulltext pour tous les documents ISTEX
 					istexFacetsFragment = "";
@@ -311,7 +547,8 @@ public class IstexContentConnector implements ContentConnector {
 
 	/**
 	 * Prpare une requte ISTEX  partir des lments <code>keyword</code> et <code>params</code> d'une requte OMTD.<br>
-	 * L'implmentation a t ralise de faon probablement simpliste pour <code>keyword</code>, faute d'informations disponibles.
+	 * L'implmentation a t ralise de faon probablement simpliste pour <code>keyword</code>, faute d'informations disponibles.<br>
+	 * Les paramtres sont pris en compte dans l'ordre alphabtique, pour que le rsultat ne dpende pas de l'ordre dans lequel ils ont t indiqus.
 	 * @param keyword Champ <code>keyword</code> d'une requte OMTD.
 	 * @param params Champ <code>params</code> d'une requte OMTD.
 	 * @return La valeur du paramtre <code>q</code> pour une recherche ISTEX, ou <code>null</code> si les lments <code>keyword</code> et <code>params</code> de la requte OMTD ne permettent pas de
@@ -326,7 +563,7 @@ public class IstexContentConnector implements ContentConnector {
 		                                                                                            // squences qui pourraient poser des problmes (dlimiteurs, oprateurs, &, ', ", ...)
 
 		if (params != null) {
-			for (Iterator<Entry<String, List<String>>> iterator = params.entrySet().iterator(); iterator.hasNext();) {
+			for (Iterator<Entry<String, List<String>>> iterator = new TreeMap<>(params).entrySet().iterator(); iterator.hasNext();) {
 				Entry<String, List<String>> paramEntry = iterator.next();
 				if (paramEntry.getValue().size() > 0) {
 					values = paramEntry.getValue();
@@ -380,6 +617,21 @@ public class IstexContentConnector implements ContentConnector {
 
 
 
+	/**
+	 * Calcule le nombre d'ouvriers pour parcourir par tranches le nombre de rsultats indiqu, ou 0 si ils doivent tre parcourus d'un seul tenant.
+	 * @param total Nombre de rsultats.
+	 * @return Le nombre d'ouvriers, ou 0 pour un parcours d'un seul tenant.
+	 */
+	private int computeWorkerCount(int total) {
+		if (total < slicingThreshold) {
+			return 0;
+		} else {
+			return (int) Math.min(maxWorkerCount, Math.max(2, (((long) total + documentsPerWorker) - 1) / documentsPerWorker));
+		}
+	}
+
+
+
 	/**
 	 * Calcule le fragment de requte correspondant aux valeurs de paramtre indiques dans le champ ISTEX indiqu. Seules les valeurs valides sont prises en compte.<br>
 	 * Le champ editor d'OMTD correspond  un corpus ISTEX.
@@ -425,6 +677,33 @@ public class IstexContentConnector implements ContentConnector {
 
 
 
+	/**
+	 * Retourne le nombre total de rsultats et les agrgations de la recherche ISTEX indique,  partir du cache si possible (voir {@link #getSearchCache()}). Ils sont obtenus par une requte ne
+	 * retournant aucun rsultat (voir {@link IstexSummary}).
+	 * @param istexQuery Requte ISTEX.
+	 * @param istexFacets Facettes ISTEX, ou <code>null</code> si il n'y en a pas.
+	 * @return Le nombre total de rsultats et les agrgations de la recherche ISTEX.
+	 * @throws IstexException En cas d'erreur de la recherche.
+	 */
+	private static IstexSummary summarize(final String istexQuery, final String istexFacets) throws IstexException {
+		return SEARCH_CACHE.get(istexQuery + "\n" + ((istexFacets != null) ? istexFacets : ""), new Function<String, IstexSummary>() {
+
+
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override public IstexSummary apply(String key) {
+				return new IstexSummary(istexQuery, istexFacets);
+			}
+
+
+
+		});
+	}
+
+
+
 	/**
 	 * Calcule le fragment de requte correspondant aux valeurs de paramtre indiques dans le champ ISTEX indiqu. Seules les valeurs valides sont prises en compte.<br>
 	 * @param istexFieldName Nom de champ ISTEX dans lequel les valeurs doivent tre recherches
@@ -448,6 +727,48 @@ public class IstexContentConnector implements ContentConnector {
 
 
 
+	/**
+	 * Nombre de rsultats par ouvrier vis pour un parcours par tranches.
+	 */
+	private volatile int documentsPerWorker = DOCUMENTS_PER_WORKER;
+
+
+
+	/**
+	 * Cache sur disque des textes intgraux, ou <code>null</code> si il n'y en a pas.
+	 */
+	private volatile FulltextCache fulltextCache;
+
+
+
+	/**
+	 * tat du moissonnage incrmental, ou <code>null</code> si le moissonnage est complet.
+	 */
+	private volatile HarvestState harvestState;
+
+
+
+	/**
+	 * Nombre maximal d'ouvriers pour un parcours par tranches.
+	 */
+	private volatile int maxWorkerCount = MAX_WORKER_COUNT;
+
+
+
+	/**
+	 * Nombre de rsultats  partir duquel le parcours se fait par tranches.
+	 */
+	private volatile int slicingThreshold = SLICING_THRESHOLD;
+
+
+
+	/**
+	 * Nombre de rsultats par ouvrier vis par dfaut pour un parcours par tranches.
+	 */
+	public static final int DOCUMENTS_PER_WORKER = 20000;
+
+
+
 	/**
 	 * Nom du champ langue, dans ISTEX.
 	 */
@@ -483,6 +804,13 @@ public class IstexContentConnector implements ContentConnector {
 
 
 
+	/**
+	 * Nombre maximal d'ouvriers par dfaut pour un parcours par tranches.
+	 */
+	public static final int MAX_WORKER_COUNT = 16;
+
+
+
 	/**
 	 * Nom de la facette ou du paramtre type de document, pour OMTD.
 	 */
@@ -539,6 +867,34 @@ public class IstexContentConnector implements ContentConnector {
 
 
 
+	/**
+	 * Nombre maximal de recherches dont les rponses sont conserves dans le cache.
+	 */
+	private static final int SEARCH_CACHE_SIZE = 1000;
+
+
+
+	/**
+	 * Dure de conservation des rponses dans le cache, en millisecondes.
+	 */
+	private static final long SEARCH_CACHE_TIME_TO_LIVE = 300000;
+
+
+
+	/**
+	 * Cache des rponses d'ISTEX aux recherches, indexes par la requte et les facettes ISTEX.
+	 */
+	private static final Cache<String, IstexSummary> SEARCH_CACHE = new Cache<>(SEARCH_CACHE_SIZE, SEARCH_CACHE_TIME_TO_LIVE);
+
+
+
+	/**
+	 * Nombre de rsultats par dfaut  partir duquel le parcours se fait par tranches.
+	 */
+	public static final int SLICING_THRESHOLD = 10000;
+
+
+
 	/**
 	 * Identifiant du connecteur.
 	 */
@@ -34,7 +34,17 @@ public class IstexContentConnectorInputStream extends InputStream {
 	 * @param istexFacets Facettes  retourner, ignor si <code>null</code>. Voir {@link "https://api.istex.fr/documentation/facets/"}.
 	 */
 	public IstexContentConnectorInputStream(String istexQuery, String istexFacets) {
-		istexIterator = new IstexSimpleIterator(istexQuery, "*", istexFacets);
+		this(new IstexSimpleIterator(istexQuery, "*", istexFacets));
+	}
+
+
+
+	/**
+	 * Recherche ISTEX avec potentiellement des rsultats, parcourue par l'itrateur indiqu, qui doit retourner toutes les donnes (<code>output=*</code>).
+	 * @param istexIterator Itrateur sur les mtadonnes ISTEX (ne doit pas tre <code>null</code>).
+	 */
+	public IstexContentConnectorInputStream(@SuppressWarnings("hiding") IstexIterator istexIterator) {
+		this.istexIterator = istexIterator;
 		if (istexIterator.hasNext()) {
 			bytes = "<publications>".getBytes();
 		} else {
@@ -56,9 +66,13 @@ public class IstexContentConnectorInputStream extends InputStream {
 
 
 	/**
-	 * {@inheritDoc}
+	 * {@inheritDoc}<br>
+	 * Un itrateur paralllis est ferm, pour arrter ses ouvriers si les rsultats n'ont pas tous t lus.
 	 */
 	@Override public void close() throws IOException {
+		if (istexIterator instanceof IstexSlicedIterator) {
+			((IstexSlicedIterator) istexIterator).close();
+		}
 		istexIterator = null;
 		bytes = new byte[0];
 		index = 1;
@@ -0,0 +1,437 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+
+import org.apache.logging.log4j.*;
+
+
+
+/**
+ * La classe {@link FulltextCache} implmente un cache sur disque des textes intgraux de documents ISTEX (voir {@link Istex#getFulltextStream(String, String, String)}), utilisable de faon
+ * concurrente.<br>
+ * Chaque texte intgral (un document dans un format) est conserv dans un fichier, nomm d'aprs l'identifiant et le format (ou d'aprs leur empreinte SHA-1 si ils contiennent des caractres
+ * inadapts  un nom de fichier), et rparti dans deux niveaux de sous rpertoires d'aprs les premiers caractres de ce nom, pour que les rpertoires restent de taille raisonnable. Les
+ * identifiants ISTEX tant des empreintes, la rpartition est homogne.<br>
+ * Les donnes sont d'abord tlcharges dans un fichier temporaire, puis dplaces de faon atomique sous leur nom dfinitif: un fichier du cache est toujours complet. Deux demandes simultanes
+ * d'un mme texte intgral absent du cache le tlchargent chacune, la dernire remplaant la premire.<br>
+ * La taille totale des fichiers conservs est borne (voir {@link #FulltextCache(File, long)}): lorsqu'elle est dpasse, les fichiers utiliss le moins rcemment sont supprims. L'index des
+ * fichiers conservs est en mmoire (nom et taille, dans l'ordre d'utilisation); il est reconstitu  la cration du cache  partir du contenu du rpertoire, l'ordre d'utilisation tant
+ * conserv par la date de modification des fichiers, mise  jour  chaque utilisation.<br>
+ * Les donnes d'un fichier du cache sont lues par un {@link FileChannel}, sans accs  ISTEX ni consommation du quota.<br>
+ * Seul l'index est mis  jour en possession du verrou: les accs aux fichiers (ouverture, date de modification, dplacement, suppression) se font hors du verrou, pour que les accs simultans ne
+ * soient pas srialiss par le systme de fichiers. Un fichier index mais supprim entre temps par une viction simultane est simplement tlcharg  nouveau.<br>
+ * Les accs sont comptabiliss (voir {@link #getHitCount()}, {@link #getMissCount()}, {@link #getEvictionCount()}).
+ * @author Ludovic WALLE
+ */
+public class FulltextCache {
+
+
+
+	/**
+	 * @param directory Rpertoire du cache, cr si il n'existe pas. Les fichiers qu'il contient dj sont repris dans le cache.
+	 * @param maxSize Taille totale maximale des fichiers conservs, en octets (doit tre strictement positive).
+	 * @throws IOException Si le rpertoire n'a pas pu tre cr ou parcouru.
+	 */
+	public FulltextCache(File directory, long maxSize) throws IOException {
+		final List<Path> files = new ArrayList<>();
+		List<String> evicted;
+
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("La taille totale maximale des fichiers conservs doit tre strictement positive: " + maxSize);
+		}
+		this.directory = Files.createDirectories(directory.toPath());
+		this.maxSize = maxSize;
+		Files.walkFileTree(this.directory, EnumSet.noneOf(FileVisitOption.class), 3, new SimpleFileVisitor<Path>() {
+
+
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+				if (!attributes.isRegularFile()) {
+					// ce n'est pas un fichier du cache
+				} else if (file.getFileName().toString().endsWith(PART)) {
+					Files.deleteIfExists(file);
+				} else if (FulltextCache.this.directory.relativize(file).getNameCount() == 3) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+
+
+		});
+		Collections.sort(files, new Comparator<Path>() {
+
+
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override public int compare(Path path1, Path path2) {
+				try {
+					return Files.getLastModifiedTime(path1).compareTo(Files.getLastModifiedTime(path2));
+				} catch (IOException exception) {
+					return 0;
+				}
+			}
+
+
+
+		});
+		synchronized (lock) {
+			for (Path file : files) {
+				index(file.getFileName().toString(), Files.size(file));
+			}
+			evicted = evict(null);
+		}
+		delete(evicted);
+		LOGGER.log(Level.INFO, "Cache des textes intgraux " + this.directory + ": " + entries.size() + " fichiers repris, " + size + " octets.");
+	}
+
+
+
+	/**
+	 * Retourne un flux des donnes correspondant  l'identifiant indiqu, dans le format indiqu, depuis le cache si elles y sont, et sinon en les tlchargeant dans le cache au pralable.<br>
+	 * Le fichier reste lisible par le flux retourn mme si il est supprim du cache entre temps (sauf sur les systmes qui interdisent la suppression d'un fichier ouvert).
+	 * @param token Token d'authentification ISTEX, ou <code>null</code> si il n'y en a pas. Il n'est utilis que pour un tlchargement.
+	 * @param id Identifiant ISTEX des donnes.
+	 * @param format Format des donnes (pdf, tei, zip, txt, tiff).
+	 * @return Un flux des donnes.
+	 * @throws IstexException En cas d'erreur de tlchargement ou d'accs au cache.
+	 */
+	@SuppressWarnings("resource") public final InputStream get(String token, String id, String format) throws IstexException {
+		String name = computeName(id, format);
+		Path file = computePath(name);
+		Path part;
+		FileChannel channel = null;
+		List<String> evicted;
+		boolean indexed;
+		Long removed;
+
+		try {
+			synchronized (lock) {
+				indexed = entries.get(name) != null;
+			}
+			if (indexed) {
+				try {
+					channel = FileChannel.open(file, StandardOpenOption.READ);
+					Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+					hitCount.increment();
+					return Channels.newInputStream(channel);
+				} catch (NoSuchFileException exception) {
+					// le fichier a t supprim hors du cache ou par une viction simultane, il est tlcharg  nouveau
+					if (channel != null) {
+						channel.close();
+					}
+					synchronized (lock) {
+						if ((removed = entries.remove(name)) != null) {
+							size -= removed.longValue();
+						}
+					}
+				}
+			}
+			missCount.increment();
+			Files.createDirectories(file.getParent());
+			part = Files.createTempFile(file.getParent(), name + ".", PART);
+			try {
+				try (InputStream input = Istex.getFulltextStream(token, id, format)) {
+					Files.copy(input, part, StandardCopyOption.REPLACE_EXISTING);
+				}
+				Files.move(part, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				channel = FileChannel.open(file, StandardOpenOption.READ);
+				synchronized (lock) {
+					index(name, channel.size());
+					evicted = evict(name);
+				}
+				delete(evicted);
+				return Channels.newInputStream(channel);
+			} finally {
+				Files.deleteIfExists(part);
+			}
+		} catch (IOException exception) {
+			throw new IstexException(LOGGER, Level.ERROR, exception);
+		}
+	}
+
+
+
+	/**
+	 * Retourne le rpertoire du cache.
+	 * @return Le rpertoire du cache.
+	 */
+	public final File getDirectory() {
+		return directory.toFile();
+	}
+
+
+
+	/**
+	 * Retourne le nombre de fichiers supprims du cache parce que la taille totale maximale tait dpasse.
+	 * @return Le nombre de fichiers supprims du cache.
+	 */
+	public final long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre d'accs pour lesquels les donnes taient dans le cache.
+	 * @return Le nombre d'accs pour lesquels les donnes taient dans le cache.
+	 */
+	public final long getHitCount() {
+		return hitCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne la taille totale maximale des fichiers conservs, en octets.
+	 * @return La taille totale maximale des fichiers conservs, en octets.
+	 */
+	public final long getMaxSize() {
+		return maxSize;
+	}
+
+
+
+	/**
+	 * Retourne le nombre d'accs pour lesquels les donnes ont t tlcharges.
+	 * @return Le nombre d'accs pour lesquels les donnes ont t tlcharges.
+	 */
+	public final long getMissCount() {
+		return missCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne la taille totale des fichiers conservs, en octets.
+	 * @return La taille totale des fichiers conservs, en octets.
+	 */
+	public final long getSize() {
+		synchronized (lock) {
+			return size;
+		}
+	}
+
+
+
+	/**
+	 * Retourne le nombre de fichiers conservs.
+	 * @return Le nombre de fichiers conservs.
+	 */
+	public final int size() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public String toString() {
+		long hits = hitCount.sum();
+		long misses = missCount.sum();
+
+		return String.format("%s: %d fichiers, %d octets sur %d, %d accs trouvs, %d accs manqus (%.1f%% trouvs), %d fichiers supprims", directory, size(), getSize(), maxSize, hits, misses, ((hits + misses) == 0) ? 0.0 : (hits * 100.0) / (hits + misses), evictionCount.sum());
+	}
+
+
+
+	/**
+	 * Retourne le chemin du fichier de nom indiqu.
+	 * @param name Nom du fichier.
+	 * @return Le chemin du fichier de nom indiqu.
+	 */
+	private Path computePath(String name) {
+		return directory.resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).resolve(name);
+	}
+
+
+
+	/**
+	 * Supprime les fichiers de noms indiqus, dj retirs de l'index.<br>
+	 * Cette mthode doit tre appele sans possder le verrou {@link #lock}.
+	 * @param names Noms des fichiers.
+	 */
+	private void delete(List<String> names) {
+		for (String name : names) {
+			try {
+				Files.deleteIfExists(computePath(name));
+			} catch (IOException exception) {
+				LOGGER.log(Level.WARN, "Le fichier " + computePath(name) + " n'a pas pu tre supprim du cache: " + exception);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Retire de l'index les fichiers utiliss le moins rcemment tant que la taille totale maximale est dpasse. Les fichiers eux mmes doivent ensuite tre supprims hors du verrou (voir
+	 * {@link #delete(List)}).<br>
+	 * Cette mthode doit tre appele en possession du verrou {@link #lock}.
+	 * @param kept Nom du fichier  retirer en dernier (le fichier qui vient d'tre ajout), ou <code>null</code> si il n'y en a pas.
+	 * @return Les noms des fichiers retirs de l'index.
+	 */
+	private List<String> evict(String kept) {
+		List<String> evicted = new ArrayList<>();
+		Iterator<Map.Entry<String, Long>> iterator;
+		Map.Entry<String, Long> entry;
+		Long keptSize;
+
+		keptSize = (kept != null) ? entries.remove(kept) : null;
+		for (iterator = entries.entrySet().iterator(); (size > maxSize) && iterator.hasNext();) {
+			entry = iterator.next();
+			iterator.remove();
+			size -= entry.getValue().longValue();
+			evicted.add(entry.getKey());
+		}
+		if (keptSize != null) {
+			if (size > maxSize) {
+				size -= keptSize.longValue();
+				evicted.add(kept);
+			} else {
+				entries.put(kept, keptSize);
+			}
+		}
+		evictionCount.add(evicted.size());
+		return evicted;
+	}
+
+
+
+	/**
+	 * Ajoute ou remplace le fichier de nom indiqu dans l'index.<br>
+	 * Cette mthode doit tre appele en possession du verrou {@link #lock}.
+	 * @param name Nom du fichier.
+	 * @param length Taille du fichier.
+	 */
+	private void index(String name, long length) {
+		Long previous;
+
+		if ((previous = entries.put(name, Long.valueOf(length))) != null) {
+			size -= previous.longValue();
+		}
+		size += length;
+	}
+
+
+
+	/**
+	 * Retourne le nom du fichier contenant les donnes correspondant  l'identifiant et au format indiqus.
+	 * @param id Identifiant ISTEX des donnes.
+	 * @param format Format des donnes.
+	 * @return Le nom du fichier.
+	 */
+	private static String computeName(String id, String format) {
+		StringBuilder builder = new StringBuilder();
+
+		if ((id == null) || (format == null)) {
+			throw new NullPointerException();
+		}
+		if ((id.length() >= 4) && SAFE.matcher(id).matches() && SAFE.matcher(format).matches()) {
+			return id + "." + format;
+		}
+		try {
+			for (byte b : MessageDigest.getInstance("SHA-1").digest((id + "/" + format).getBytes(StandardCharsets.UTF_8))) {
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IstexException(LOGGER, Level.ERROR, exception);
+		}
+		return builder.toString();
+	}
+
+
+
+	/**
+	 * Rpertoire du cache.
+	 */
+	private final Path directory;
+
+
+
+	/**
+	 * Fichiers conservs (nom et taille), dans l'ordre de leur dernire utilisation, du plus ancien au plus rcent.
+	 */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+
+
+	/**
+	 * Nombre de fichiers supprims du cache.
+	 */
+	private final LongAdder evictionCount = new LongAdder();
+
+
+
+	/**
+	 * Nombre d'accs pour lesquels les donnes taient dans le cache.
+	 */
+	private final LongAdder hitCount = new LongAdder();
+
+
+
+	/**
+	 * Verrou pour l'index et la taille totale.
+	 */
+	private final Object lock = new Object();
+
+
+
+	/**
+	 * Taille totale maximale des fichiers conservs, en octets.
+	 */
+	private final long maxSize;
+
+
+
+	/**
+	 * Nombre d'accs pour lesquels les donnes ont t tlcharges.
+	 */
+	private final LongAdder missCount = new LongAdder();
+
+
+
+	/**
+	 * Taille totale des fichiers conservs, en octets.
+	 */
+	private long size;
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+	/**
+	 * Extension des fichiers temporaires.
+	 */
+	private static final String PART = ".part";
+
+
+
+	/**
+	 * Modle de syntaxe pour un identifiant ou un format utilisable tel quel dans un nom de fichier. Un identifiant doit en plus avoir au moins 4 caractres, pour la rpartition en sous rpertoires.
+	 */
+	private static final Pattern SAFE = Pattern.compile("[0-9A-Za-z_-]+");
+
+
+
+}
@@ -0,0 +1,576 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+import java.util.zip.*;
+
+import org.apache.logging.log4j.*;
+
+import toolbox.parallel.*;
+
+
+
+/**
+ * La classe {@link FulltextDownloader} tlcharge en masse les textes intgraux de documents ISTEX (voir {@link Istex#getFulltextStream(String, String, String)}), dans un ou plusieurs formats, avec
+ * un paralllisme born.<br>
+ * Chaque tlchargement (un document dans un format) est une mission d'une {@link Enterprise}. Les erreurs transitoires  l'obtention de la rponse sont traites par {@link Readers}, et une erreur
+ * pendant la lecture des donnes reprend la lecture l o elle s'tait arrte (voir {@link ResumableInputStream}), selon la politique {@link RetryPolicy#DEFAULT}. Les nouvelles tentatives n'tant
+ * faites qu' ce niveau, un tlchargement en chec malgr cela (document absent, format indisponible ou identifiant invalide, par exemple) est abandonn sans tre relanc et sans arrter les
+ * autres (voir {@link #getFailedDownloads()}), dans la limite d'un nombre maximal (voir {@link #setMaxFailedDownloads(int)}).<br>
+ * Les donnes tlcharges sont transmises  une destination (voir {@link Sink}): un rpertoire (voir {@link DirectorySink}) ou une archive ZIP crite au fil de l'eau dans un flux (voir
+ * {@link ZipSink}).<br>
+ * L'avancement et le dbit peuvent tre suivis pendant le tlchargement, depuis un autre thread (voir {@link #getDoneCount()}, {@link #getByteCount()}, {@link #getByteRate()} et
+ * {@link #getMetrics()}).<br>
+ * Le tlchargement peut tre lanc en ligne de commande par {@link fr.inist.istex.cli.FulltextDownloaderLauncher}.
+ * @author Ludovic WALLE
+ */
+public class FulltextDownloader {
+
+
+
+	/**
+	 * @param token Token d'authentification ISTEX, ou <code>null</code> si il n'y en a pas.
+	 * @param ids Identifiants ISTEX des documents (ne doit pas tre <code>null</code>). Si c'est une {@link Collection}, le nombre de tlchargements attendus en dcoule (voir
+	 *            {@link #getExpectedCount()}).
+	 * @param formats Formats des donnes (pdf, tei, zip, txt, tiff, ...), chaque document est tlcharg dans chacun d'eux (ne doit tre ni vide ni <code>null</code>).
+	 * @param sink Destination des donnes tlcharges (ne doit pas tre <code>null</code>).
+	 * @param workerCount Nombre de tlchargements simultans (doit tre strictement positif).
+	 */
+	public FulltextDownloader(String token, Iterable<String> ids, List<String> formats, Sink sink, int workerCount) {
+		if ((ids == null) || (formats == null) || (sink == null)) {
+			throw new NullPointerException();
+		}
+		if (formats.isEmpty()) {
+			throw new IllegalArgumentException("Aucun format n'est indiqu.");
+		}
+		this.token = token;
+		this.sink = sink;
+		enterprise = new Enterprise<>("FulltextDownloader", workerCount, new DownloadMissionner(ids, new ArrayList<>(formats)), new DownloadWorker());
+		enterprise.setMaxFailedMissions(Integer.MAX_VALUE);
+	}
+
+
+
+	/**
+	 * Tlcharge les donnes, et retourne lorsque tous les tlchargements sont termins ou abandonns. La destination n'est pas ferme.<br>
+	 * Cette mthode est bloquante, et ne peut tre appele qu'une seule fois.
+	 * @throws IstexException Si le tlchargement a t arrt par une erreur, ou par un nombre de tlchargements abandonns suprieur au maximum.
+	 */
+	public final void download() throws IstexException {
+		enterprise.run();
+		if (enterprise.hasExceptions()) {
+			throw new IstexException(LOGGER, Level.ERROR, "Le tlchargement a t arrt aprs " + enterprise.getDoneCount() + " tlchargements russis et " + enterprise.getFailedCount() + " abandonns.", enterprise.getFirstException());
+		}
+		LOGGER.log(Level.INFO, enterprise.getDoneCount() + " tlchargements russis (" + byteCount.sum() + " octets), " + enterprise.getFailedCount() + " abandonns, en " + enterprise.getElapsedTime() + " ms.");
+	}
+
+
+
+	/**
+	 * Retourne le nombre d'octets tlchargs.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Le nombre d'octets tlchargs.
+	 */
+	public final long getByteCount() {
+		return byteCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le dbit moyen depuis le dbut du tlchargement, en octets par seconde.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Le dbit moyen, en octets par seconde.
+	 */
+	public final double getByteRate() {
+		long elapsed = enterprise.getElapsedTime();
+
+		return (elapsed == 0) ? 0 : (byteCount.sum() * 1000.0) / elapsed;
+	}
+
+
+
+	/**
+	 * Retourne le nombre de tlchargements russis.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Le nombre de tlchargements russis.
+	 */
+	public final int getDoneCount() {
+		return enterprise.getDoneCount();
+	}
+
+
+
+	/**
+	 * Retourne le nombre de tlchargements attendus, ou {@link Missionner#NOT_COMPUTABLE} si les identifiants ne sont pas une {@link Collection}.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Le nombre de tlchargements attendus.
+	 */
+	public final int getExpectedCount() {
+		return enterprise.getExpectedCount(false);
+	}
+
+
+
+	/**
+	 * Retourne les tlchargements abandonns.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Les tlchargements abandonns.
+	 */
+	public final List<FailedMission<Download>> getFailedDownloads() {
+		return enterprise.getFailedMissions();
+	}
+
+
+
+	/**
+	 * Retourne les mesures de fonctionnement des tlchargements (dure, attente, nombre de tlchargements par seconde).<br>
+	 * Cette mthode est non bloquante.
+	 * @return Les mesures de fonctionnement des tlchargements.
+	 */
+	public final Metrics getMetrics() {
+		return enterprise.getMetrics();
+	}
+
+
+
+	/**
+	 * Rgle le nombre maximal de tlchargements pouvant tre abandonns sans arrter le tlchargement (voir {@link Enterprise#setMaxFailedMissions(int)}).<br>
+	 * Par dfaut, il n'est pas limit.
+	 * @param maxFailedDownloads Nombre maximal de tlchargements pouvant tre abandonns (doit tre positif ou nul).
+	 */
+	public final void setMaxFailedDownloads(int maxFailedDownloads) {
+		enterprise.setMaxFailedMissions(maxFailedDownloads);
+	}
+
+
+
+	/**
+	 * Nombre d'octets tlchargs.
+	 */
+	private final LongAdder byteCount = new LongAdder();
+
+
+
+	/**
+	 * Entreprise qui gre les tlchargements.
+	 */
+	private final Enterprise<Download> enterprise;
+
+
+
+	/**
+	 * Destination des donnes tlcharges.
+	 */
+	private final Sink sink;
+
+
+
+	/**
+	 * Token d'authentification ISTEX, ou <code>null</code> si il n'y en a pas.
+	 */
+	private final String token;
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+	/**
+	 * Nombre de tlchargements prpars  l'avance.
+	 */
+	private static final int PREFETCH = 64;
+
+
+
+	/**
+	 * Modle de syntaxe pour un identifiant ou un format utilisable tel quel dans une URL et dans un nom de fichier.
+	 */
+	private static final Pattern SAFE = Pattern.compile("[0-9A-Za-z_-]+");
+
+
+
+	/**
+	 * La classe {@link DirectorySink} enregistre les donnes tlcharges dans un rpertoire,  raison d'un fichier par tlchargement, nomm par l'identifiant du document et le format. Chaque
+	 * fichier est d'abord crit sous un nom temporaire, puis renomm lorsqu'il est complet: un fichier prsent sous son nom dfinitif est toujours complet.<br>
+	 * Les noms qui ne sont pas une suite de mots spars par des points (voir {@link #NAME}) sont refuss, pour qu'aucun fichier ne puisse tre crit hors du rpertoire.
+	 * @author Ludovic WALLE
+	 */
+	public static class DirectorySink implements Sink {
+
+
+
+		/**
+		 * @param directory Rpertoire, cr si il n'existe pas.
+		 * @throws IOException Si le rpertoire n'a pas pu tre cr.
+		 */
+		public DirectorySink(File directory) throws IOException {
+			Files.createDirectories(directory.toPath());
+			this.directory = directory;
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public void close() {}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public long write(String name, InputStream input) throws IOException {
+			File file;
+			File part;
+			long count;
+
+			if (!NAME.matcher(name).matches()) {
+				throw new IOException("Le nom \"" + name + "\" n'est pas utilisable comme nom de fichier dans " + directory + ".");
+			}
+			file = new File(directory, name);
+			part = new File(directory, name + ".part");
+			count = Files.copy(input, part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return count;
+		}
+
+
+
+		/**
+		 * Rpertoire.
+		 */
+		private final File directory;
+
+
+
+		/**
+		 * Modle de syntaxe pour un nom de fichier accept: des mots spars par des points, sans sparateur de rpertoire.
+		 */
+		private static final Pattern NAME = Pattern.compile("[0-9A-Za-z_-]+(\\.[0-9A-Za-z_-]+)*");
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link Download} reprsente le tlchargement d'un document dans un format.
+	 * @author Ludovic WALLE
+	 */
+	public static class Download implements Mission {
+
+
+
+		/**
+		 * @param id Identifiant ISTEX du document.
+		 * @param format Format des donnes.
+		 */
+		public Download(String id, String format) {
+			this.id = id;
+			this.format = format;
+		}
+
+
+
+		/**
+		 * Retourne le nom sous lequel les donnes sont transmises  la destination.
+		 * @return Le nom sous lequel les donnes sont transmises  la destination.
+		 */
+		public final String getName() {
+			return id + "." + format;
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public String toString() {
+			return getName();
+		}
+
+
+
+		/**
+		 * Format des donnes.
+		 */
+		public final String format;
+
+
+
+		/**
+		 * Identifiant ISTEX du document.
+		 */
+		public final String id;
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link DownloadMissionner} distribue les tlchargements de chaque document dans chaque format.
+	 * @author Ludovic WALLE
+	 */
+	private static class DownloadMissionner extends Missionner<Download> {
+
+
+
+		/**
+		 * @param ids Identifiants ISTEX des documents.
+		 * @param formats Formats des donnes.
+		 */
+		public DownloadMissionner(Iterable<String> ids, List<String> formats) {
+			super("DownloadMissionner", PREFETCH);
+			this.ids = ids;
+			this.formats = formats;
+		}
+
+
+
+		/**
+		 * {@inheritDoc} Il est connu si les identifiants sont une {@link Collection}.
+		 */
+		@Override protected int delegateComputeExpectedCount() {
+			return (ids instanceof Collection) ? ((Collection<?>) ids).size() * formats.size() : Missionner.NOT_COMPUTABLE;
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override protected Download delegateGetNext() {
+			if (format == formats.size()) {
+				if (!iterator.hasNext()) {
+					return null;
+				}
+				id = iterator.next();
+				format = 0;
+			}
+			return new Download(id, formats.get(format++));
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override protected void delegateInitialize() {
+			iterator = ids.iterator();
+		}
+
+
+
+		/**
+		 * Numro du prochain format du document en cours.
+		 */
+		private int format = Integer.MAX_VALUE;
+
+
+
+		/**
+		 * Formats des donnes.
+		 */
+		private final List<String> formats;
+
+
+
+		/**
+		 * Identifiant du document en cours.
+		 */
+		private String id = null;
+
+
+
+		/**
+		 * Identifiants ISTEX des documents.
+		 */
+		private final Iterable<String> ids;
+
+
+
+		/**
+		 * Itrateur sur les identifiants ISTEX des documents.
+		 */
+		private Iterator<String> iterator = null;
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link DownloadWorker} effectue un tlchargement.
+	 * @author Ludovic WALLE
+	 */
+	private class DownloadWorker extends Worker<Download> {
+
+
+
+		/**	 */
+		public DownloadWorker() {}
+
+
+
+		/**
+		 * @param other Autre ouvrier.
+		 */
+		public DownloadWorker(DownloadWorker other) {
+			super(other);
+		}
+
+
+
+		/**
+		 * {@inheritDoc} Un identifiant ou un format qui n'est pas utilisable tel quel dans une URL et dans un nom de fichier (voir {@link FulltextDownloader#SAFE}) fait chouer le tlchargement.
+		 */
+		@Override protected int delegateDo(Download mission) throws IOException {
+			if (!SAFE.matcher(mission.id).matches() || !SAFE.matcher(mission.format).matches()) {
+				throw new IOException("L'identifiant \"" + mission.id + "\" ou le format \"" + mission.format + "\" est invalide.");
+			}
+			try (InputStream input = Istex.getFulltextStream(token, mission.id, mission.format)) {
+				byteCount.add(sink.write(mission.getName(), input));
+			}
+			return 1;
+		}
+
+
+
+		/**
+		 * {@inheritDoc} Les tlchargements ne sont jamais relancs, les erreurs transitoires ayant dj t traites par {@link Readers}  l'obtention de la rponse, et par
+		 * {@link ResumableInputStream} pendant la lecture des donnes.
+		 */
+		@Override protected long delegateGetRetryDelay(Download mission, int attempt, Throwable exception) {
+			LOGGER.log(Level.WARN, "Pour " + mission + ", le tlchargement est abandonn.", exception);
+			return -1;
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override protected DownloadWorker newOne() {
+			return new DownloadWorker(this);
+		}
+
+
+
+	}
+
+
+
+	/**
+	 * L'interface {@link Sink} dcrit la destination des donnes tlcharges.
+	 * @author Ludovic WALLE
+	 */
+	public interface Sink extends Closeable {
+
+
+
+		/**
+		 * Enregistre les donnes indiques sous le nom indiqu. Si des donnes ont dj t enregistres sous ce nom, elles sont remplaces.<br>
+		 * Cette mthode est appele simultanment par plusieurs threads. Si elle choue, elle peut tre rappele avec le mme nom: les donnes partiellement enregistres ne doivent pas subsister.
+		 * @param name Nom.
+		 * @param input Flux des donnes.
+		 * @return Le nombre d'octets enregistrs.
+		 * @throws IOException En cas d'erreur de lecture ou d'criture.
+		 */
+		public long write(String name, InputStream input) throws IOException;
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link ZipSink} crit les donnes tlcharges dans une archive ZIP, au fil de l'eau,  raison d'une entre par tlchargement. Les donnes de chaque tlchargement sont d'abord
+	 * crites dans un fichier temporaire, puis recopies dans l'archive, pour que les tlchargements simultans ne se bloquent pas les uns les autres pendant la lecture, qu'une erreur de lecture ne
+	 * laisse pas d'entre incomplte, et que la mmoire utilise ne dpende pas de la taille des donnes.
+	 * L'archive est termine par {@link #close()}.<br>
+	 * Le format TAR n'est pas propos, le JDK ne fournissant pas de quoi l'crire.
+	 * @author Ludovic WALLE
+	 */
+	public static class ZipSink implements Sink {
+
+
+
+		/**
+		 * @param output Flux dans lequel crire l'archive, ferm par {@link #close()}.
+		 */
+		public ZipSink(OutputStream output) {
+			zip = new ZipOutputStream(new BufferedOutputStream(output));
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public void close() throws IOException {
+			synchronized (zip) {
+				zip.close();
+			}
+		}
+
+
+
+		/**
+		 * {@inheritDoc} Une entre dj crite ne pouvant pas tre remplace, un nom dj utilis est complt par un numro d'ordre.
+		 */
+		@Override public long write(String name, InputStream input) throws IOException {
+			Path spool = Files.createTempFile("FulltextDownloader", ".part");
+			String entry = name;
+			long count;
+
+			try {
+				count = Files.copy(input, spool, StandardCopyOption.REPLACE_EXISTING);
+				synchronized (zip) {
+					for (int i = 2; !names.add(entry); i++) {
+						entry = name + "." + i;
+					}
+					zip.putNextEntry(new ZipEntry(entry));
+					Files.copy(spool, zip);
+					zip.closeEntry();
+				}
+				return count;
+			} finally {
+				Files.deleteIfExists(spool);
+			}
+		}
+
+
+
+		/**
+		 * Noms des entres dj crites.
+		 */
+		private final Set<String> names = new HashSet<>();
+
+
+
+		/**
+		 * Archive.
+		 */
+		private final ZipOutputStream zip;
+
+
+
+	}
+
+
+
+}
@@ -0,0 +1,315 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.text.*;
+import java.util.*;
+
+import org.apache.logging.log4j.*;
+
+
+
+/**
+ * La classe {@link HarvestState} conserve dans un fichier, pour chaque requte moissonne, le repre (<i>watermark</i>) du dernier moissonnage complet, pour que les moissonnages suivants de
+ * la mme requte se limitent aux documents ajouts depuis (moissonnage incrmental).<br>
+ * Le repre est la date de dbut du moissonnage, dans le format du champ de date ISTEX utilis (voir {@link #HarvestState(File, String, String)}). Un moissonnage incrmental ajoute  la requte
+ * une contrainte sur ce champ,  partir du repre inclus (voir {@link #begin(String)}): le recouvrement d'une unit de date garantit qu'aucun document n'est perdu, au prix des documents de cette
+ * unit moissonns  nouveau. Le repre n'est avanc qu'une fois le moissonnage termin (voir {@link Delta#commit()}): un moissonnage interrompu sera refait  partir du mme repre.<br>
+ * Le champ doit tre une date d'ajout ou d'indexation dans ISTEX, et non une date de publication: un document du fonds ajout  ISTEX avec une date de publication antrieure au repre ne serait
+ * jamais moissonn. Son format doit tre aussi fin que possible, chaque moissonnage incrmental reprenant toute l'unit de date du repre (toute l'anne en cours avec <code>yyyy</code>). Il n'y a
+ * donc pas de champ par dfaut.<br>
+ * Le fichier est un fichier texte en UTF-8. Chaque ligne contient une requte (encode comme dans une URL) et son repre, spars par une tabulation. Il est rcrit entirement  chaque
+ * modification, dans un fichier temporaire dplac de faon atomique sous son nom dfinitif.<br>
+ * Cette classe est utilisable de faon concurrente.
+ * @author Ludovic WALLE
+ */
+public class HarvestState {
+
+
+
+	/**
+	 * @param file Fichier, lu si il existe.
+	 * @param field Nom du champ de date ISTEX sur lequel porte la contrainte, qui doit tre une date d'ajout ou d'indexation dans ISTEX.
+	 * @param format Format des dates de ce champ (voir {@link SimpleDateFormat}), qui doit tre tel que l'ordre alphabtique des dates soit l'ordre chronologique (ex:
+	 *            <code>yyyy-MM-dd'T'HH:mm:ss</code>, <code>yyyy-MM-dd</code>).
+	 * @throws IstexException Si le fichier ne peut tre lu.
+	 */
+	public HarvestState(File file, String field, String format) throws IstexException {
+		String line;
+		int tab;
+
+		if ((file == null) || (field == null) || (format == null)) {
+			throw new NullPointerException();
+		}
+		this.file = file;
+		this.field = field;
+		this.format = new SimpleDateFormat(format).toPattern();
+		if (file.exists()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+				while ((line = reader.readLine()) != null) {
+					if ((tab = line.indexOf('\t')) <= 0) {
+						LOGGER.log(Level.WARN, "Dans le fichier des repres de moissonnage \"" + file + "\", la ligne \"" + line + "\" est ignore.");
+					} else {
+						watermarks.put(URLDecoder.decode(line.substring(0, tab), "UTF-8"), line.substring(tab + 1));
+					}
+				}
+			} catch (IOException exception) {
+				throw new IstexException(LOGGER, Level.ERROR, "Erreur de lecture du fichier des repres de moissonnage \"" + file + "\".", exception);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Commence un moissonnage de la requte indique. Si un moissonnage complet de cette requte a dj t fait, le moissonnage est incrmental, et la requte est restreinte aux documents
+	 * dont la date est postrieure ou gale au repre. Le nouveau repre est la date courante.
+	 * @param query Requte ISTEX, ne doit tre ni vide ni <code>null</code>.
+	 * @return Le moissonnage.
+	 */
+	public final Delta begin(String query) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat(format);
+
+		if ((query == null) || query.isEmpty()) {
+			throw new IstexException(LOGGER, Level.ERROR, "La requte est vide ou null.");
+		}
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return new Delta(query, getWatermark(query), dateFormat.format(new Date()));
+	}
+
+
+
+	/**
+	 * Retourne le nom du champ de date ISTEX sur lequel porte la contrainte.
+	 * @return Le nom du champ de date ISTEX sur lequel porte la contrainte.
+	 */
+	public final String getField() {
+		return field;
+	}
+
+
+
+	/**
+	 * Retourne le fichier.
+	 * @return Le fichier.
+	 */
+	public final File getFile() {
+		return file;
+	}
+
+
+
+	/**
+	 * Retourne le repre du dernier moissonnage complet de la requte indique, ou <code>null</code> si il n'y en a pas eu.
+	 * @param query Requte ISTEX.
+	 * @return Le repre du dernier moissonnage complet de la requte indique, ou <code>null</code> si il n'y en a pas eu.
+	 */
+	public final String getWatermark(String query) {
+		synchronized (watermarks) {
+			return watermarks.get(query);
+		}
+	}
+
+
+
+	/**
+	 * Oublie le repre de la requte indique: son prochain moissonnage sera complet.
+	 * @param query Requte ISTEX.
+	 * @throws IstexException Si le fichier ne peut tre crit.
+	 */
+	public final void reset(String query) throws IstexException {
+		synchronized (watermarks) {
+			if (watermarks.remove(query) != null) {
+				save();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Enregistre le repre indiqu pour la requte indique, sauf si il est antrieur au repre dj enregistr.
+	 * @param query Requte ISTEX.
+	 * @param watermark Repre.
+	 * @throws IstexException Si le fichier ne peut tre crit.
+	 */
+	private void advance(String query, String watermark) throws IstexException {
+		String previous;
+
+		synchronized (watermarks) {
+			if (((previous = watermarks.get(query)) == null) || (previous.compareTo(watermark) < 0)) {
+				watermarks.put(query, watermark);
+				save();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Rcrit le fichier.<br>
+	 * Cette mthode doit tre appele en possession du verrou {@link #watermarks}.
+	 * @throws IstexException Si le fichier ne peut tre crit.
+	 */
+	private void save() throws IstexException {
+		Path part = null;
+
+		try {
+			part = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".part");
+			try (BufferedWriter writer = Files.newBufferedWriter(part, StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, String> entry : watermarks.entrySet()) {
+					writer.write(URLEncoder.encode(entry.getKey(), "UTF-8") + "\t" + entry.getValue());
+					writer.newLine();
+				}
+			}
+			Files.move(part, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException exception) {
+			throw new IstexException(LOGGER, Level.ERROR, "Erreur d'criture du fichier des repres de moissonnage \"" + file + "\".", exception);
+		} finally {
+			if (part != null) {
+				try {
+					Files.deleteIfExists(part);
+				} catch (IOException exception) {
+					LOGGER.log(Level.WARN, "Le fichier temporaire \"" + part + "\" n'a pas pu tre supprim: " + exception);
+				}
+			}
+		}
+	}
+
+
+
+	/**
+	 * Nom du champ de date ISTEX sur lequel porte la contrainte.
+	 */
+	private final String field;
+
+
+
+	/**
+	 * Fichier.
+	 */
+	private final File file;
+
+
+
+	/**
+	 * Format des dates du champ.
+	 */
+	private final String format;
+
+
+
+	/**
+	 * Repres, indexs par requte.
+	 */
+	private final Map<String, String> watermarks = new TreeMap<>();
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+	/**
+	 * La classe {@link Delta} reprsente un moissonnage, complet ou incrmental, d'une requte.
+	 * @author Ludovic WALLE
+	 */
+	public class Delta {
+
+
+
+		/**
+		 * @param query Requte ISTEX.
+		 * @param previousWatermark Repre du dernier moissonnage complet, ou <code>null</code> si il n'y en a pas eu.
+		 * @param watermark Repre de ce moissonnage.
+		 */
+		Delta(String query, String previousWatermark, String watermark) {
+			this.query = query;
+			this.previousWatermark = previousWatermark;
+			this.watermark = watermark;
+		}
+
+
+
+		/**
+		 * Enregistre le repre de ce moissonnage, qui doit tre termin, comme repre de la requte.
+		 * @throws IstexException Si le fichier ne peut tre crit.
+		 */
+		public final void commit() throws IstexException {
+			advance(query, watermark);
+			LOGGER.log(Level.INFO, "Moissonnage " + (isIncremental() ? "incrmental (depuis " + previousWatermark + ")" : "complet") + " de la requte \"" + query + "\" termin, repre: " + watermark + ".");
+		}
+
+
+
+		/**
+		 * Retourne le repre du dernier moissonnage complet, ou <code>null</code> si il n'y en a pas eu.
+		 * @return Le repre du dernier moissonnage complet, ou <code>null</code> si il n'y en a pas eu.
+		 */
+		public final String getPreviousWatermark() {
+			return previousWatermark;
+		}
+
+
+
+		/**
+		 * Retourne la requte ISTEX  moissonner: la requte d'origine, restreinte aux documents postrieurs au repre du dernier moissonnage complet si il y en a eu un.
+		 * @return La requte ISTEX  moissonner.
+		 */
+		public final String getQuery() {
+			return (previousWatermark == null) ? query : "(" + query + ") AND " + field + ":[" + previousWatermark + " TO *]";
+		}
+
+
+
+		/**
+		 * Retourne le repre de ce moissonnage.
+		 * @return Le repre de ce moissonnage.
+		 */
+		public final String getWatermark() {
+			return watermark;
+		}
+
+
+
+		/**
+		 * Indique si ce moissonnage est incrmental.
+		 * @return <code>true</code> si ce moissonnage est incrmental, <code>false</code> si il est complet.
+		 */
+		public final boolean isIncremental() {
+			return previousWatermark != null;
+		}
+
+
+
+		/**
+		 * Repre du dernier moissonnage complet, ou <code>null</code> si il n'y en a pas eu.
+		 */
+		private final String previousWatermark;
+
+
+
+		/**
+		 * Requte ISTEX d'origine.
+		 */
+		private final String query;
+
+
+
+		/**
+		 * Repre de ce moissonnage.
+		 */
+		private final String watermark;
+
+
+
+	}
+
+
+
+}
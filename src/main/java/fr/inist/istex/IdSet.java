@@ -0,0 +1,290 @@
+package fr.inist.istex;
+
+import java.util.*;
+
+
+
+/**
+ * La classe {@link IdSet} implmente un ensemble compact d'identifiants ISTEX, utilisable de faon concurrente.<br>
+ * Les identifiants ISTEX sont des empreintes de 40 chiffres hexadcimaux, rparties uniformment. Seuls les 32 premiers chiffres sont conservs, sous forme de deux <code>long</code>, ce qui rend
+ * les collisions ngligeables (128 bits). Ils sont rangs dans des tables  adressage ouvert, sans objet intermdiaire: une place occupe 16 octets, et le taux de remplissage maximal est de
+ * {@value #MAX_LOAD}, soit environ 24 octets par identifiant lorsque l'ensemble est dimensionn  partir du nombre d'identifiants attendus et que ce nombre n'est pas dpass. Au del, les
+ * sous ensembles sont agrandis d'une fois et demie, et l'occupation peut atteindre environ 34 octets par identifiant juste aprs un agrandissement. Un {@link HashSet} de {@link String} occupe
+ * plus de 100 octets par identifiant. Ce taux de remplissage limite le sondage linaire  environ 6 places examines en moyenne pour un identifiant absent, contre plus de 20  0,85.<br>
+ * Pour limiter la contention entre threads, l'ensemble est rparti en {@value #STRIPES} sous ensembles indpendants, chacun protg par son propre verrou, choisis selon les premiers chiffres de
+ * l'identifiant.<br>
+ * Les identifiants qui n'ont pas la forme attendue sont conservs tels quels dans un ensemble annexe.
+ * @author Ludovic WALLE
+ */
+public class IdSet {
+
+
+
+	/**
+	 * @param expected Nombre d'identifiants attendus (doit tre positif ou nul). Il sert  dimensionner l'ensemble, qui s'agrandit si ncessaire.
+	 */
+	public IdSet(int expected) {
+		double share;
+		int capacity;
+
+		if (expected < 0) {
+			throw new IllegalArgumentException("Le nombre d'identifiants attendus doit tre positif ou nul: " + expected);
+		}
+		// la rpartition des identifiants entre les sous ensembles est alatoire: une marge de quatre carts types vite que la moiti d'entre eux soient agrandis
+		share = (double) expected / STRIPES;
+		capacity = (int) Math.min(Integer.MAX_VALUE / 2, (long) Math.ceil((share + (4 * Math.sqrt(share)) + 16) / MAX_LOAD));
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(capacity);
+		}
+	}
+
+
+
+	/**
+	 * Ajoute l'identifiant indiqu  l'ensemble.
+	 * @param id Identifiant (ne doit pas tre <code>null</code>).
+	 * @return <code>true</code> si l'identifiant n'tait pas dj prsent, <code>false</code> sinon.
+	 */
+	public boolean add(String id) {
+		long high;
+
+		if (id == null) {
+			throw new NullPointerException("L'identifiant est null.");
+		}
+		if ((id.length() != 40) || !isHexadecimal(id)) {
+			synchronized (others) {
+				return others.add(id);
+			}
+		} else {
+			high = decode(id, 0);
+			return stripes[(int) (high >>> (64 - STRIPE_BITS))].add(high, decode(id, 16));
+		}
+	}
+
+
+
+	/**
+	 * Retourne une estimation de la mmoire occupe par l'ensemble, en octets (hors identifiants de forme inattendue).
+	 * @return Une estimation de la mmoire occupe par l'ensemble, en octets.
+	 */
+	public long getFootprint() {
+		long footprint = 0;
+
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				footprint += stripe.table.length * 8L;
+			}
+		}
+		return footprint;
+	}
+
+
+
+	/**
+	 * Retourne le nombre d'identifiants de l'ensemble.
+	 * @return Le nombre d'identifiants de l'ensemble.
+	 */
+	public long size() {
+		long size;
+
+		synchronized (others) {
+			size = others.size();
+		}
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+
+
+	/**
+	 * Dcode les 16 chiffres hexadcimaux de l'identifiant indiqu  partir de la position indique.
+	 * @param id Identifiant, dont la forme a t vrifie par {@link #isHexadecimal(String)}.
+	 * @param start Position du premier chiffre.
+	 * @return La valeur dcode.
+	 */
+	private static long decode(String id, int start) {
+		long value = 0;
+		char digit;
+
+		for (int i = start; i < (start + 16); i++) {
+			digit = id.charAt(i);
+			value = (value << 4) | ((digit <= '9') ? digit - '0' : ((digit | 0x20) - 'a') + 10);
+		}
+		return value;
+	}
+
+
+
+	/**
+	 * Teste si les 32 premiers caractres de l'identifiant indiqu sont des chiffres hexadcimaux.
+	 * @param id Identifiant.
+	 * @return <code>true</code> si les 32 premiers caractres sont des chiffres hexadcimaux, <code>false</code> sinon.
+	 */
+	private static boolean isHexadecimal(String id) {
+		char digit;
+
+		for (int i = 0; i < 32; i++) {
+			digit = id.charAt(i);
+			if (!(((digit >= '0') && (digit <= '9')) || ((digit >= 'a') && (digit <= 'f')) || ((digit >= 'A') && (digit <= 'F')))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+
+	/**
+	 * Identifiants de forme inattendue.
+	 */
+	private final Set<String> others = new HashSet<>();
+
+
+
+	/**
+	 * Sous ensembles.
+	 */
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+
+
+	/**
+	 * Taux de remplissage maximal d'un sous ensemble, au del duquel il est agrandi.
+	 */
+	private static final double MAX_LOAD = 0.7;
+
+
+
+	/**
+	 * Nombre de bits de l'identifiant servant  choisir le sous ensemble.
+	 */
+	private static final int STRIPE_BITS = 6;
+
+
+
+	/**
+	 * Nombre de sous ensembles.
+	 */
+	private static final int STRIPES = 1 << STRIPE_BITS;
+
+
+
+	/**
+	 * La classe {@link Stripe} implmente un sous ensemble d'identifiants, dans une table  adressage ouvert et sondage linaire. Chaque place occupe deux <code>long</code> conscutifs. La valeur
+	 * (0, 0) marque une place libre, l'identifiant correspondant tant signal par un indicateur  part.
+	 * @author Ludovic WALLE
+	 */
+	private static class Stripe {
+
+
+
+		/**
+		 * @param capacity Nombre de places initial.
+		 */
+		public Stripe(int capacity) {
+			table = new long[capacity * 2];
+		}
+
+
+
+		/**
+		 * Ajoute l'identifiant indiqu.
+		 * @param high Premiers chiffres de l'identifiant.
+		 * @param low Chiffres suivants de l'identifiant.
+		 * @return <code>true</code> si l'identifiant n'tait pas dj prsent, <code>false</code> sinon.
+		 */
+		public synchronized boolean add(long high, long low) {
+			if ((high == 0) && (low == 0)) {
+				if (containsZero) {
+					return false;
+				}
+				containsZero = true;
+				size++;
+				return true;
+			}
+			if (insert(table, high, low)) {
+				if (++size > ((table.length / 2) * MAX_LOAD)) {
+					grow();
+				}
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+
+
+		/**
+		 * Agrandit la table d'une fois et demie.
+		 */
+		private void grow() {
+			long[] grown = new long[(int) Math.min(Integer.MAX_VALUE - 8, ((table.length / 2) + (table.length / 4) + 1) * 2L)];
+
+			for (int i = 0; i < table.length; i += 2) {
+				if ((table[i] != 0) || (table[i + 1] != 0)) {
+					insert(grown, table[i], table[i + 1]);
+				}
+			}
+			table = grown;
+		}
+
+
+
+		/**
+		 * Insre l'identifiant indiqu dans la table indique, si il n'y est pas dj.
+		 * @param table Table.
+		 * @param high Premiers chiffres de l'identifiant.
+		 * @param low Chiffres suivants de l'identifiant.
+		 * @return <code>true</code> si l'identifiant n'tait pas dj prsent, <code>false</code> sinon.
+		 */
+		private static boolean insert(@SuppressWarnings("hiding") long[] table, long high, long low) {
+			int capacity = table.length / 2;
+			int slot;
+
+			// les chiffres tant uniformment rpartis, low donne directement une position uniforme
+			slot = (int) (((low >>> 32) * capacity) >>> 32);
+			for (;;) {
+				if ((table[2 * slot] == 0) && (table[(2 * slot) + 1] == 0)) {
+					table[2 * slot] = high;
+					table[(2 * slot) + 1] = low;
+					return true;
+				} else if ((table[2 * slot] == high) && (table[(2 * slot) + 1] == low)) {
+					return false;
+				} else if (++slot == capacity) {
+					slot = 0;
+				}
+			}
+		}
+
+
+
+		/**
+		 * Indicateur de prsence de l'identifiant (0, 0).
+		 */
+		private boolean containsZero = false;
+
+
+
+		/**
+		 * Nombre d'identifiants.
+		 */
+		private int size = 0;
+
+
+
+		/**
+		 * Table des identifiants.
+		 */
+		private long[] table;
+
+
+
+	}
+
+
+
+}
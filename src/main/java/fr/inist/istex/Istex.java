@@ -146,8 +146,9 @@ public class Istex {
 	/**
 	 * Retourne les donnes correspondant  l'identifiant indiqu, dans le format indiqu.<br>
 	 * Si les donnes sont en plusieurs parties (ex: plusieurs pages TIFF), elles sont renvoyes dans une archive au format ZIP.<br>
+	 * Si la connexion est interrompue pendant la lecture, elle reprend l o elle s'tait arrte (voir {@link ResumableInputStream}).<br>
 	 * Voir {@link "https://api.istex.fr/documentation/files/#acces-aux-fulltext"}.
-	 * @param token Token d'authentification ISTEX.
+	 * @param token Token d'authentification ISTEX, ou <code>null</code> si il n'y en a pas.
 	 * @param url URL des donnes ISTEX.
 	 * @return Les octets reus d'ISTEX.
 	 */
@@ -155,8 +156,10 @@ public class Istex {
 		Map<String, String> headers = new HashMap<>();
 
 		try {
-			headers.put("Authorization", "Bearer " + token);
-			return Readers.getStreamForURL(headers, url);
+			if (token != null) {
+				headers.put("Authorization", "Bearer " + token);
+			}
+			return new ResumableInputStream(headers, url);
 		} catch (IOException exception) {
 			throw new IstexException(LOGGER, Level.ERROR, exception);
 		}
@@ -168,7 +171,7 @@ public class Istex {
 	 * Retourne les donnes correspondant  l'URL indique.<br>
 	 * Si les donnes sont en plusieurs parties (ex: plusieurs pages TIFF), elles sont renvoyes dans une archive au format ZIP.<br>
 	 * Voir {@link "https://api.istex.fr/documentation/files/#acces-aux-fulltext"}.
-	 * @param token Token d'authentification ISTEX.
+	 * @param token Token d'authentification ISTEX, ou <code>null</code> si il n'y en a pas.
 	 * @param id Identifiant ISTEX des donnes.
 	 * @param format Format des donnes (pdf, tei, zip, txt, tiff).
 	 * @return Les octets reus d'ISTEX.
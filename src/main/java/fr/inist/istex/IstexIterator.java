@@ -1,6 +1,7 @@
 package fr.inist.istex;
 
 import java.util.*;
+import java.util.stream.*;
 
 import org.apache.logging.log4j.*;
 
@@ -9,7 +10,8 @@ import toolbox.json.*;
 
 
 /**
- * La classe {@link IstexIterator} implmente un itrateur sur une recherche ISTEX.
+ * La classe {@link IstexIterator} implmente un itrateur sur une recherche ISTEX.<br>
+ * Les rsultats peuvent aussi tre parcourus par un flux java, squentiel ({@link #stream()}) ou parallle ({@link #parallelStream()}), qui consomme cet itrateur.
  * @author Ludovic WALLE
  */
 public abstract class IstexIterator implements Iterator<JsonObject> {
@@ -33,11 +35,61 @@ public abstract class IstexIterator implements Iterator<JsonObject> {
 
 
 
+	/**
+	 * Attend que le nombre total de rsultats soit connu, ou qu'il soit tabli qu'il ne le sera pas (voir {@link #getTotal()}).<br>
+	 * Cette implmentation par dfaut retourne immdiatement, le nombre total de rsultats tant connu ds la construction, si il doit l'tre.
+	 * @throws IstexException Si l'attente a t interrompue.
+	 */
+	@SuppressWarnings("static-method") protected void awaitTotal() throws IstexException {}
+
+
+
+	/**
+	 * Indique si l'itrateur vrifie,  la fin du parcours, que le nombre de rsultats retourns est gal au nombre total de rsultats annonc, ce qui permet d'annoncer ce nombre comme taille exacte
+	 * d'un flux (voir {@link IstexSpliterator}).
+	 * @return <code>true</code> si l'itrateur vrifie le nombre de rsultats retourns, <code>false</code> sinon.
+	 */
+	@SuppressWarnings("static-method") protected boolean checksTotal() {
+		return false;
+	}
+
+
+
+	/**
+	 * Ajoute  la liste indique les rsultats restants de la page en cours, ou de la suivante si elle est puise, dans la limite indique. Les rsultats ajouts sont compts comme retourns.<br>
+	 * Cette implmentation par dfaut ajoute au plus un rsultat.
+	 * @param hits Liste  complter.
+	 * @param max Nombre maximal de rsultats  ajouter.
+	 * @return Le nombre de rsultats ajouts, 0 si il n'y en a plus.
+	 * @throws IstexException En cas d'erreur de parcours des rsultats.
+	 */
+	protected int drainPage(List<JsonObject> hits, int max) throws IstexException {
+		if ((max > 0) && hasNext()) {
+			hits.add(next());
+			return 1;
+		} else {
+			return 0;
+		}
+	}
+
+
+
+	/**
+	 * Retourne une estimation du nombre de rsultats restant  retourner, ou -1 si elle n'est pas possible.
+	 * @return Une estimation du nombre de rsultats restant  retourner, ou -1 si elle n'est pas possible.
+	 */
+	protected long estimateRemaining() {
+		return (total < 0) ? -1 : Math.max(0, total - count);
+	}
+
+
+
 	/**
 	 * Retourne les aggregations correspondantes aux facettes, ou <code>null</code> si aucune facette n'a t demande.
 	 * @return Les aggregations correspondantes aux facettes, ou <code>null</code> si aucune facette n'a t demande.
+	 * @throws IstexException En cas d'erreur d'obtention des agrgations.
 	 */
-	public final JsonObject getAggregations() {
+	public JsonObject getAggregations() throws IstexException {
 		return aggregations;
 	}
 
@@ -53,6 +105,26 @@ public abstract class IstexIterator implements Iterator<JsonObject> {
 
 
 
+	/**
+	 * Retourne les donnes  retourner, ou <code>null</code> si elles n'ont pas t prcises.
+	 * @return Les donnes  retourner, ou <code>null</code> si elles n'ont pas t prcises.
+	 */
+	public final String getOutput() {
+		return output;
+	}
+
+
+
+	/**
+	 * Retourne la requte.
+	 * @return La requte.
+	 */
+	public final String getQuery() {
+		return query;
+	}
+
+
+
 	/**
 	 * Retourne le nombre total de rsultats, ou -1 si il n'est pas connu.
 	 * @return Le nombre total de rsultats, ou -1 si il n'est pas connu.
@@ -79,6 +151,26 @@ public abstract class IstexIterator implements Iterator<JsonObject> {
 
 
 
+	/**
+	 * Retourne un flux parallle sur les rsultats restants. Le flux consomme cet itrateur, qui ne doit plus tre utilis directement.
+	 * @return Un flux parallle sur les rsultats restants.
+	 */
+	public final Stream<JsonObject> parallelStream() {
+		return StreamSupport.stream(new IstexSpliterator(this), true);
+	}
+
+
+
+	/**
+	 * Retourne un flux squentiel sur les rsultats restants. Le flux consomme cet itrateur, qui ne doit plus tre utilis directement.
+	 * @return Un flux squentiel sur les rsultats restants.
+	 */
+	public final Stream<JsonObject> stream() {
+		return StreamSupport.stream(new IstexSpliterator(this), false);
+	}
+
+
+
 	/**
 	 * Normalise la chaine indique pour la comparaison d'URIs.
 	 * @param string Chaine  normaliser.
@@ -127,9 +219,9 @@ public abstract class IstexIterator implements Iterator<JsonObject> {
 
 	/**
 	 * Nombre total de rsultats.<br>
-	 * La valeur est initialement -1, puis elle prend la premire valeur reue.
+	 * La valeur est initialement -1, puis elle prend la premire valeur reue, ventuellement dans un autre thread que celui du consommateur.
 	 */
-	protected int total = -1;
+	protected volatile int total = -1;
 
 
 
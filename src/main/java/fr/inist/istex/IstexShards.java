@@ -0,0 +1,185 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.apache.logging.log4j.*;
+
+import toolbox.json.*;
+import toolbox.json.JsonObject.*;
+
+
+
+/**
+ * La classe {@link IstexShards} enregistre les rsultats d'une part d'une recherche rpartie (voir {@link IstexSlicedIterator.Settings#setShard(int, int)}), et fusionne les rsultats des
+ * diffrentes parts en vrifiant qu'ils sont complets.<br>
+ * Les rsultats d'une part sont enregistrs dans un fichier texte en UTF-8,  raison d'un objet Json par ligne: une entte dcrivant la recherche et la part, les rsultats, et une fin contenant le
+ * nombre de rsultats enregistrs et le nombre total de rsultats de la part. L'absence de fin signale un enregistrement interrompu.<br>
+ * La fusion vrifie que les parts correspondent  la mme recherche, qu'elles sont toutes prsentes et compltes, et que la somme de leurs nombres de rsultats est gale au nombre total de rsultats
+ * de la recherche lors de sa premire excution.<br>
+ * L'enregistrement et la fusion peuvent tre lancs en ligne de commande par {@link fr.inist.istex.cli.IstexShardsLauncher}.
+ * @author Ludovic WALLE
+ */
+public class IstexShards {
+
+
+
+	/**
+	 * Fusionne les rsultats des parts enregistrs dans les fichiers indiqus. Seuls les rsultats sont recopis, un par ligne.<br>
+	 * Les incohrences ne sont dtectes qu'au fur et  mesure de la lecture: en cas d'erreur, le flux fusionn est incomplet et doit tre ignor.
+	 * @param inputs Fichiers des parts, dans un ordre quelconque.
+	 * @param output Flux fusionn.
+	 * @return Le nombre de rsultats fusionns.
+	 * @throws IOException En cas d'erreur de lecture ou d'criture.
+	 * @throws IstexException Si les parts sont incohrentes, incompltes ou manquantes, ou si le nombre de rsultats ne correspond pas.
+	 */
+	public static long merge(List<File> inputs, Writer output) throws IOException, IstexException {
+		BitSet shards = new BitSet();
+		JsonObject reference = null;
+		JsonObject header;
+		JsonObject trailer;
+		String line;
+		String previous;
+		long count = 0;
+		long shardCount;
+		int shardIndex;
+
+		for (File input : inputs) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8))) {
+				if ((line = reader.readLine()) == null) {
+					throw new IstexException(LOGGER, Level.ERROR, "Le fichier de part \"" + input + "\" est vide.");
+				}
+				header = JsonObject.parse(line);
+				if (reference == null) {
+					reference = header;
+				} else if (!Objects.equals(header.getString(QUERY), reference.getString(QUERY)) || !Objects.equals(header.getString(OUTPUT), reference.getString(OUTPUT)) || !Objects.equals(header.getInteger(SHARD_COUNT), reference.getInteger(SHARD_COUNT))) {
+					throw new IstexException(LOGGER, Level.ERROR, "Le fichier de part \"" + input + "\" ne correspond pas  la mme recherche que les prcdents: " + header + " / " + reference);
+				} else if (!Objects.equals(header.getInteger(TOTAL), reference.getInteger(TOTAL))) {
+					throw new IstexException(LOGGER, Level.ERROR, "Le nombre total de rsultats du fichier de part \"" + input + "\" est diffrent de celui des prcdents, ISTEX a volu entre les parts: " + header + " / " + reference);
+				}
+				shardIndex = header.getInteger(SHARD_INDEX, Option.PRESENT_AND_NOT_NULL).intValue();
+				if (shards.get(shardIndex)) {
+					throw new IstexException(LOGGER, Level.ERROR, "La part " + shardIndex + " est prsente plusieurs fois.");
+				}
+				shards.set(shardIndex);
+				shardCount = 0;
+				previous = null;
+				while ((line = reader.readLine()) != null) {
+					if (previous != null) {
+						output.write(previous);
+						output.write('\n');
+						shardCount++;
+					}
+					previous = line;
+				}
+				if ((previous == null) || (trailer = JsonObject.parse(previous)).has("id") || !trailer.has(COUNT)) {
+					throw new IstexException(LOGGER, Level.ERROR, "Le fichier de part \"" + input + "\" est incomplet.");
+				} else if (trailer.getInteger(COUNT).longValue() != shardCount) {
+					throw new IstexException(LOGGER, Level.ERROR, "Le fichier de part \"" + input + "\" contient " + shardCount + " rsultats au lieu de " + trailer.getInteger(COUNT) + ".");
+				}
+				count += shardCount;
+			} catch (JsonException | JsonRuntimeException exception) {
+				throw new IstexException(LOGGER, Level.ERROR, "Le fichier de part \"" + input + "\" est invalide.", exception);
+			}
+		}
+		output.flush();
+		if (reference == null) {
+			throw new IstexException(LOGGER, Level.ERROR, "Aucun fichier de part n'a t indiqu.");
+		} else if (shards.cardinality() != reference.getInteger(SHARD_COUNT).intValue()) {
+			throw new IstexException(LOGGER, Level.ERROR, "Il manque " + (reference.getInteger(SHARD_COUNT).intValue() - shards.cardinality()) + " parts sur " + reference.getInteger(SHARD_COUNT) + ".");
+		} else if (count != reference.getInteger(TOTAL).longValue()) {
+			throw new IstexException(LOGGER, Level.ERROR, "Les parts contiennent " + count + " rsultats au lieu des " + reference.getInteger(TOTAL) + " attendus.");
+		}
+		LOGGER.log(Level.INFO, "Fusion de " + shards.cardinality() + " parts: " + count + " rsultats.");
+		return count;
+	}
+
+
+
+	/**
+	 * Enregistre tous les rsultats de l'itrateur indiqu, prcds d'une entte et suivis d'une fin.
+	 * @param iterator Itrateur sur une part d'une recherche.
+	 * @param output Flux d'enregistrement.
+	 * @return Le nombre de rsultats enregistrs.
+	 * @throws IOException En cas d'erreur d'criture.
+	 * @throws IstexException En cas d'erreur de parcours des rsultats.
+	 */
+	public static long write(IstexSlicedIterator iterator, Writer output) throws IOException, IstexException {
+		long count = 0;
+
+		if (iterator.getResumedCount() > 0) {
+			throw new IstexException(LOGGER, Level.ERROR, "Une part reprise aprs interruption ne peut pas tre enregistre dans un fichier de part, ses premiers rsultats manqueraient.");
+		}
+		output.write(new JsonObject().set(QUERY, iterator.getQuery()).set(OUTPUT, iterator.getOutput()).set(SHARD_INDEX, iterator.getShardIndex()).set(SHARD_COUNT, iterator.getShardCount()).set(TOTAL, iterator.getQueryTotal()).serialize());
+		output.write('\n');
+		while (iterator.hasNext()) {
+			output.write(iterator.next().serialize());
+			output.write('\n');
+			count++;
+		}
+		output.write(new JsonObject().set(COUNT, count).set(SHARD_TOTAL, iterator.getTotal()).serialize());
+		output.write('\n');
+		output.flush();
+		return count;
+	}
+
+
+
+	/**
+	 * Nom du nombre de rsultats enregistrs, dans la fin.
+	 */
+	private static final String COUNT = "count";
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+	/**
+	 * Nom des donnes  retourner, dans l'entte.
+	 */
+	private static final String OUTPUT = "output";
+
+
+
+	/**
+	 * Nom de la requte, dans l'entte.
+	 */
+	private static final String QUERY = "query";
+
+
+
+	/**
+	 * Nom du nombre de parts, dans l'entte.
+	 */
+	private static final String SHARD_COUNT = "shardCount";
+
+
+
+	/**
+	 * Nom du numro de la part, dans l'entte.
+	 */
+	private static final String SHARD_INDEX = "shardIndex";
+
+
+
+	/**
+	 * Nom du nombre total de rsultats de la part, dans la fin (il n'est connu qu'une fois la part dcoupe).
+	 */
+	private static final String SHARD_TOTAL = "shardTotal";
+
+
+
+	/**
+	 * Nom du nombre total de rsultats de la recherche complte, dans l'entte.
+	 */
+	private static final String TOTAL = "total";
+
+
+
+}
@@ -26,8 +26,10 @@ import toolbox.json.JsonObject.*;
  * paramtre <code>q</code> doit tre prsent, avec toujours la mme valeur. Modifier <code>q</code> lance une nouvelle recherche.
  * <li>Les <code>aggregations</code> des facettes ne sont prsentes que sur la premire page.
  * </ul>
- * L'accs  ISTEX se faisant par rseau, des erreurs peuvent survenir, de faon d'autant plus probable que le nombre de rsultat est important. ISTEX n'offrant pas de possibilit de reprise, la
- * recherche doit tre compltement relance.
+ * L'accs  ISTEX se faisant par rseau, des erreurs peuvent survenir, de faon d'autant plus probable que le nombre de rsultat est important. Les erreurs transitoires sont traites par de
+ * nouvelles tentatives de la requte de la page concerne (voir {@link Readers} et {@link RetryPolicy}). ISTEX avanant le parcours ds qu'il a trait une requte, les pages suivantes ne sont
+ * retentes que si la requte n'a pas t traite. Pour toute autre erreur, ou si les erreurs persistent, ISTEX n'offrant pas de possibilit de reprise, une {@link IstexException} est gnre
+ * et la recherche doit tre compltement relance depuis sa premire page ({@link IstexSlicedIterator} le fait pour chaque tranche, en cartant les rsultats dj retourns).
  * @author Ludovic WALLE
  */
 public class IstexSimpleIterator extends IstexIterator {
@@ -41,8 +43,22 @@ public class IstexSimpleIterator extends IstexIterator {
 	 * @throws IstexException En cas d'erreur de parcours des rsultats.
 	 */
 	public IstexSimpleIterator(String query, String output, String facets) throws IstexException {
+		this(query, output, facets, RetryPolicy.DEFAULT);
+	}
+
+
+
+	/**
+	 * @param query Requte, ne doit tre ni vide ni ni <code>null</code>. Voir {@link "https://api.istex.fr/documentation/search/"}.
+	 * @param output Donnes  retourner, ignor si <code>null</code>. Voir {@link "https://api.istex.fr/documentation/results/#selection-des-champs-renvoyes"}.
+	 * @param facets Facettes  retourner, ignor si <code>null</code>. Voir {@link "https://api.istex.fr/documentation/facets/"}.
+	 * @param retryPolicy Politique de nouvelles tentatives des requtes ({@link RetryPolicy#NONE} si elles sont gres par l'appelant).
+	 * @throws IstexException En cas d'erreur de parcours des rsultats.
+	 */
+	public IstexSimpleIterator(String query, String output, String facets, RetryPolicy retryPolicy) throws IstexException {
 		super(query, output, facets);
 
+		this.retryPolicy = retryPolicy;
 		try {
 			nextIterator("https://api.istex.fr/document/?scroll=" + SCROLL + "&size=" + SIZE + "&q=" + URLEncoder.encode(query, "UTF-8") + ((output != null) ? "&output=" + URLEncoder.encode(output, "UTF-8") : "") + ((facets != null) ? "&facet=" + URLEncoder.encode(facets, "UTF-8") : ""));
 		} catch (UnsupportedEncodingException exception) {
@@ -52,6 +68,32 @@ public class IstexSimpleIterator extends IstexIterator {
 
 
 
+	/**
+	 * {@inheritDoc} Le nombre total de rsultats est connu ds la premire page, lue par le constructeur, et il est vrifi  la dernire page.
+	 */
+	@Override protected boolean checksTotal() {
+		return true;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override protected int drainPage(List<JsonObject> hits, int max) throws IstexException {
+		int drained = 0;
+
+		if (hasNext()) {
+			while ((drained < max) && iterator.hasNext()) {
+				hits.add(next());
+				drained++;
+			}
+		}
+		return drained;
+	}
+
+
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -98,7 +140,7 @@ public class IstexSimpleIterator extends IstexIterator {
 		try {
 			iterator = null;
 			if (url != null) {
-				json = JsonObject.parse(new String(Readers.getBytesFromURL(url)).trim());
+				json = JsonObject.parse(new String(Readers.getBytesFromURL(url, retryPolicy)).trim());
 				if (json.has("_error")) {
 					// erreur signale par ISTEX
 					throw new IstexException(LOGGER, Level.ERROR, "Erreur ISTEX: " + json.toString());
@@ -202,6 +244,13 @@ public class IstexSimpleIterator extends IstexIterator {
 
 
 
+	/**
+	 * Politique de nouvelles tentatives des requtes.
+	 */
+	private final RetryPolicy retryPolicy;
+
+
+
 	/**
 	 * Identifiant de balayage. La valeur est initialement <code>null</code>, puis elle prend la premire valeur reue.
 	 */
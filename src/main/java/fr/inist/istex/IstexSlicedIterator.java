@@ -1,13 +1,13 @@
 package fr.inist.istex;
 
 import java.io.*;
-import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import org.apache.logging.log4j.*;
 
 import toolbox.json.*;
-import toolbox.json.JsonObject.*;
 import toolbox.parallel.*;
 
 
@@ -16,9 +16,31 @@ import toolbox.parallel.*;
  * La classe {@link IstexSlicedIterator} implmente un itrateur sur une recherche ISTEX en l'appliquant avec un certain paralllisme  des sous ensembles exclusifs de documents ISTEX (tranches), et
  * en traitant les erreurs.<br>
  * En cas d'erreur sur une tranche, la recherche sera relance sur celle-ci, en ignorant les rsultats dj rcuprs. Les rsultats unifis de toutes les tranches sont rcuprables par
- * {@link IstexSlicedIterator#next()}. Une recherche prliminaire permet d'obtenir le nombre total de rsulats attendus, et les ventuelles agrgations correspondant aux facettes demandes.<br>
+ * {@link IstexSlicedIterator#next()}.<br>
+ * Une tranche en chec malgr les nouvelles tentatives arrte par dfaut toute la recherche. Si un nombre de tranches abandonnes est tolr (voir {@link Settings#setMaxFailedSlices(int)}), les
+ * autres tranches continuent d'tre traites et leurs rsultats retourns, et l'erreur, qui numre les tranches abandonnes, n'est signale qu'aprs le dernier rsultat. Avec un fichier de
+ * reprise, une nouvelle excution ne refait que les tranches abandonnes.<br>
+ * Le constructeur n'attend aucune rponse d'ISTEX, pour que les premiers rsultats soient disponibles le plus tt possible. Le dcoupage commence immdiatement par le comptage en parallle des
+ * prfixes initiaux, dont la somme donne le nombre total de rsultats attendus (voir {@link SlicePlanner}), et les tranches les plus grosses sont distribues en premier. En mme temps, si
+ * des facettes sont demandes, une recherche prliminaire ne retournant aucun rsultat permet d'obtenir les agrgations correspondantes (voir {@link #getAggregations()}) et le nombre total de
+ * rsultats de la recherche complte (voir {@link #getQueryTotal()}). Sans facettes, cette recherche n'est faite que si le nombre total de rsultats de la recherche complte est demand. Tant que
+ * le dcoupage n'a pas commenc, {@link #getTotal()} retourne -1.<br>
  * Cette faon de faire peut aboutir  des incohrences lies  la multiplicit des recherches et  leur excution dcales dans le temps si le contenu d'ISTEX volue pendant le traitement, mais c'est
- * trs peu probable.
+ * trs peu probable.<br>
+ * Les ouvriers transmettent les rsultats par pages entires dans une file borne, dont le consommateur rcupre toutes les pages disponibles d'un coup. La fin des rsultats est signale dans la file
+ * elle-mme lorsque l'entreprise ferme, sans attente priodique. Chaque page regroupant de nombreux rsultats, la file est accde une fois par page par les ouvriers, et une fois par lot de pages par
+ * le consommateur: une file par ouvrier n'y changerait rien, et compliquerait l'attente du consommateur et la prise en compte des ouvriers embauchs ou licencis en cours de traitement.<br>
+ * Si un fichier de reprise est indiqu (voir {@link Settings#setCheckpoint(File)} et {@link SliceCheckpoint}), les tranches dont tous les rsultats ont t retourns y sont enregistres, et une
+ * nouvelle excution de la mme recherche ne les refait pas. Une tranche est considre comme termine lorsque son dernier rsultat a t retourn et que le rsultat suivant a t demand.<br>
+ * Si une part est indique (voir {@link Settings#setShard(int, int)}), seuls les documents de cette part sont retourns (voir {@link SlicePlanner#shard(String, int, int, int, boolean, Set)}), ce qui permet
+ * de rpartir une mme recherche entre plusieurs instances indpendantes. Le nombre total de rsultats est alors celui de la part, et celui de la recherche complte est retourn par
+ * {@link #getQueryTotal()}. Les rsultats des diffrentes parts peuvent tre enregistrs puis fusionns par {@link IstexShards}.<br>
+ * Le mode de livraison (voir {@link Delivery}) dtermine l'ordre des rsultats. En mode {@link Delivery#UNORDERED}, les pages de chaque ouvrier sont livres ds qu'elles sont prtes, et les rsultats
+ * des diffrentes tranches sont entremls. En mode {@link Delivery#ORDERED}, les tranches sont livres l'une aprs l'autre dans l'ordre du dcoupage (l'ordre des prfixes de fin d'ARK), grce  un
+ * tampon de rordonnancement de taille borne: un ouvrier qui n'est pas sur la premire tranche non termine est bloqu lorsque le tampon est plein, alors que celui qui est dessus ne l'est jamais.
+ * Le redcoupage des tranches en cours de traitement et le classement des tranches par taille sont alors dsactivs.<br>
+ * Un itrateur abandonn avant la fin des rsultats doit tre ferm (voir {@link #close()}), pour que les ouvriers, bloqus sinon sur la file pleine avec leur parcours en mode scroll ouvert, soient
+ * arrts.
  * @author Ludovic WALLE
  */
 public class IstexSlicedIterator extends IstexIterator {
@@ -29,211 +51,1258 @@ public class IstexSlicedIterator extends IstexIterator {
 	 * @param query Requte, ne doit tre ni vide ni ni <code>null</code>. Voir {@link "https://api.istex.fr/documentation/search/"}.
 	 * @param output Donnes  retourner, ignor si <code>null</code>. Voir {@link "https://api.istex.fr/documentation/results/#selection-des-champs-renvoyes"}.
 	 * @param facets Facettes  retourner, ignor si <code>null</code>. Voir {@link "https://api.istex.fr/documentation/facets/"}.
-	 * @param count Nombre d'excutions parallles de tranches de requtes.
+	 * @param count Nombre d'excutions parallles de tranches de requtes. Il intervient aussi dans la taille des tranches (voir {@link SlicePlanner}).
 	 */
 	public IstexSlicedIterator(String query, String output, String facets, int count) {
+		this(query, output, facets, count, new Settings());
+	}
+
+
+
+	/**
+	 * @param query Requte, ne doit tre ni vide ni ni <code>null</code>. Voir {@link "https://api.istex.fr/documentation/search/"}.
+	 * @param output Donnes  retourner, ignor si <code>null</code>. Voir {@link "https://api.istex.fr/documentation/results/#selection-des-champs-renvoyes"}.
+	 * @param facets Facettes  retourner, ignor si <code>null</code>. Voir {@link "https://api.istex.fr/documentation/facets/"}.
+	 * @param count Nombre d'excutions parallles de tranches de requtes. Il intervient aussi dans la taille des tranches (voir {@link SlicePlanner}).
+	 * @param settings Rglages complmentaires (ne doit pas tre <code>null</code>).
+	 */
+	public IstexSlicedIterator(String query, String output, String facets, int count, Settings settings) {
 		super(query, output, facets);
 
-		@SuppressWarnings("hiding") JsonObject json;
-		JsonArray hits;
+		this.shardIndex = settings.getShardIndex();
+		this.shardCount = settings.getShardCount();
+		this.delivery = settings.getDelivery();
+		pages = new ArrayBlockingQueue<>(Math.max(1, count) * PAGES_PER_WORKER);
+		reorderCapacity = Math.max(1, count) * REORDER_PAGES_PER_WORKER;
+		if (settings.getCheckpoint() != null) {
+			checkpoint = new SliceCheckpoint(settings.getCheckpoint(), query, shardIndex, shardCount);
+			resumedCount = checkpoint.getResumedCount();
+		} else {
+			checkpoint = null;
+			resumedCount = 0;
+		}
+		if (facets != null) {
+			summary = new Summary();
+			summary.start();
+		}
+		missionner = new SliceMissionner(output, count, delivery == Delivery.ORDERED, (checkpoint != null) ? checkpoint.getDone() : Collections.<String> emptySet());
+		enterprise = new Enterprise<SliceMission>("Enterprise", count, missionner, new SliceWorker(), settings.getExecutor()) {
+
+
+
+			/**
+			 * {@inheritDoc} La fin des rsultats est signale au consommateur lorsque l'entreprise a ferm.
+			 */
+			@Override public void run() {
+				try {
+					super.run();
+				} finally {
+					try {
+						pages.put(END);
+					} catch (InterruptedException exception) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+
+
+
+		};
+		enterprise.setDaemon(true);
+		enterprise.setMaxFailedMissions(settings.getMaxFailedSlices());
+		enterprise.start();
+		if (settings.getMaxWorkerCount() > count) {
+			new Foreman(enterprise, 1, settings.getMaxWorkerCount(), AUTOSCALE_PERIOD) {
+
+
+
+				/**
+				 * {@inheritDoc} Les checs transitoires sont ceux de toutes les requtes de la JVM vers ISTEX, qui partagent le mme quota.
+				 */
+				@Override protected long getFailureCount() {
+					return RateLimiter.SHARED.getFailureCount();
+				}
+
+
+
+				/**
+				 * {@inheritDoc} L'avancement est le nombre de rsultats rcuprs par les ouvriers, les tranches tant trop longues pour que leur fin en donne une mesure rgulire.
+				 */
+				@Override protected long getProgress() {
+					return fetched.sum();
+				}
+
+
+
+				/**
+				 * {@inheritDoc}
+				 */
+				@Override protected long getResponseCount() {
+					return RateLimiter.SHARED.getResponseCount();
+				}
+
+
+
+				/**
+				 * {@inheritDoc}
+				 */
+				@Override protected long getResponseTime() {
+					return RateLimiter.SHARED.getResponseTime();
+				}
+
+
+
+			}.start();
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public synchronized boolean hasNext() {
+		List<FailedMission<SliceMission>> failed;
+
+		if (nextPage()) {
+			return true;
+		} else if (closed || ((count + resumedCount) == total)) {
+			return false;
+		} else if ((failed = enterprise.getFailedMissions()).isEmpty()) {
+			throw new IstexException(LOGGER, Level.ERROR, "Pour la requte \"" + query + "\", le nombre de documents retourns (" + count + ((resumedCount > 0) ? " + " + resumedCount + " lors des excutions prcdentes" : "") + ") est diffrent de celui attendu (" + total + ").", enterprise.getFirstException());
+		} else {
+			throw new IstexException(LOGGER, Level.ERROR, "Pour la requte \"" + query + "\", le nombre de documents retourns (" + count + ((resumedCount > 0) ? " + " + resumedCount + " lors des excutions prcdentes" : "") + ") est diffrent de celui attendu (" + total + "), " + failed.size() + " tranche(s) ayant t abandonne(s): " + failed + ".", failed.get(0).getException());
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc} Le nombre total de rsultats est connu lorsque le dcoupage initial est fait, ou lorsque l'entreprise s'est arrte sans y parvenir.
+	 */
+	@Override protected void awaitTotal() throws IstexException {
+		try {
+			while (!totalKnown.await(AWAIT_PERIOD, TimeUnit.MILLISECONDS) && enterprise.isAlive()) {
+				// l'entreprise pourrait s'arrter avant le dcoupage initial
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IstexException(LOGGER, Level.ERROR, "Pour la requte \"" + query + "\", l'attente du nombre total de rsultats a t interrompue.", exception);
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override protected boolean checksTotal() {
+		return true;
+	}
+
+
+
+	/**
+	 * Abandonne la recherche: la distribution des tranches est arrte, les ouvriers sont interrompus, et les rsultats en attente sont carts. L'itrateur ne retourne ensuite plus aucun rsultat,
+	 * et les tranches en cours ne sont pas enregistres dans le fichier de reprise ventuel.<br>
+	 * Cette mthode peut tre appele depuis n'importe quel thread, plusieurs fois, et n'attend pas l'arrt des ouvriers.
+	 */
+	public final void close() {
+		closed = true;
+		enterprise.closeDownNow();
+		pages.clear();
+		synchronized (reorderLock) {
+			reorder.clear();
+			buffered = 0;
+			reorderLock.notifyAll();
+		}
+		// un consommateur en attente d'une page doit voir la fin des rsultats, mme si elle avait dj t signale puis carte
+		pages.offer(END);
+		if (checkpoint != null) {
+			checkpoint.close();
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override protected synchronized int drainPage(List<JsonObject> hits, int max) throws IstexException {
+		int drained = 0;
+
+		if (hasNext()) {
+			while ((drained < max) && page.hasNext()) {
+				hits.add(page.next());
+				drained++;
+			}
+			count += drained;
+		}
+		return drained;
+	}
+
+
+
+	/**
+	 * {@inheritDoc} Les rsultats retourns lors des excutions prcdentes sont dduits.
+	 */
+	@Override protected long estimateRemaining() {
+		return (total < 0) ? -1 : Math.max(0, total - resumedCount - count);
+	}
+
+
+
+	/**
+	 * {@inheritDoc} Les agrgations sont obtenues par la recherche prliminaire.<br>
+	 * Cette mthode est bloquante tant que la recherche prliminaire n'est pas termine.
+	 */
+	@Override public final JsonObject getAggregations() throws IstexException {
+		awaitSummary();
+		return super.getAggregations();
+	}
+
+
+
+	/**
+	 * Retourne le mode de livraison des rsultats.
+	 * @return Le mode de livraison des rsultats.
+	 */
+	public final Delivery getDelivery() {
+		return delivery;
+	}
+
+
+
+	/**
+	 * Retourne le nombre total de rsultats de la recherche complte, obtenu par la recherche prliminaire, qui est diffrent de {@link #getTotal()} si une part a t indique. Les agrgations
+	 * correspondant aux facettes demandes (voir {@link #getAggregations()}) sont disponibles ds que cette mthode a retourn.<br>
+	 * Cette mthode est bloquante tant que la recherche prliminaire n'est pas termine. Sans facettes, la recherche prliminaire est lance au premier appel.
+	 * @return Le nombre total de rsultats de la recherche complte.
+	 * @throws IstexException En cas d'erreur de la recherche prliminaire.
+	 */
+	public final int getQueryTotal() throws IstexException {
+		awaitSummary();
+		return queryTotal;
+	}
+
+
+
+	/**
+	 * Retourne le nombre de rsultats retourns lors des excutions prcdentes, d'aprs le fichier de reprise.
+	 * @return Le nombre de rsultats retourns lors des excutions prcdentes.
+	 */
+	public final int getResumedCount() {
+		return resumedCount;
+	}
+
+
+
+	/**
+	 * Retourne le nombre de parts (1 si la recherche n'est pas rpartie).
+	 * @return Le nombre de parts.
+	 */
+	public final int getShardCount() {
+		return shardCount;
+	}
+
+
+
+	/**
+	 * Retourne le numro de la part (0 si la recherche n'est pas rpartie).
+	 * @return Le numro de la part.
+	 */
+	public final int getShardIndex() {
+		return shardIndex;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public synchronized JsonObject next() {
+		if (!nextPage()) {
+			throw new NoSuchElementException();
+		}
+		count++;
+		return page.next();
+	}
+
+
+
+	/**
+	 * Attend la fin de la recherche prliminaire, aprs l'avoir lance si elle ne l'a pas t, et transmet son ventuelle erreur.
+	 * @throws IstexException En cas d'erreur de la recherche prliminaire.
+	 */
+	private void awaitSummary() throws IstexException {
+		@SuppressWarnings("hiding") Summary summary;
+
+		synchronized (summaryLock) {
+			if ((summary = this.summary) == null) {
+				this.summary = summary = new Summary();
+				summary.start();
+			}
+		}
+		try {
+			summary.join();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IstexException(LOGGER, Level.ERROR, "Pour la requte \"" + query + "\", l'attente de la recherche prliminaire a t interrompue.", exception);
+		}
+		if (summary.failure != null) {
+			throw summary.failure;
+		}
+	}
+
+
+
+	/**
+	 * Prpare l'itrateur sur la page de rsultats suivante si la page en cours est puise. Toutes les pages dj disponibles sont rcupres d'un coup, pour limiter les accs  la file.<br>
+	 * Si la page puise termine une tranche, celle-ci est enregistre dans le fichier de reprise ventuel.<br>
+	 * Cette mthode est bloquante tant qu'aucun rsultat n'est disponible et que la fin des rsultats n'a pas t signale.
+	 * @return <code>true</code> si il reste au moins un rsultat  retourner, <code>false</code> si tous les rsultats ont t retourns.
+	 */
+	private boolean nextPage() {
+		if (closed) {
+			ended = true;
+			current = null;
+			page = null;
+			drained.clear();
+			return false;
+		}
+		while (((page == null) || !page.hasNext()) && !ended) {
+			if ((checkpoint != null) && (current != null) && (current.slice != null)) {
+				checkpoint.record(current.slice, current.sliceCount);
+				// la page puise est oublie, pour que sa tranche ne soit pas enregistre une seconde fois si l'attente de la page suivante est interrompue
+				current = null;
+			}
+			if ((current = drained.poll()) == null) {
+				try {
+					current = pages.take();
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					throw new IstexException(LOGGER, Level.ERROR, "Pour la requte \"" + query + "\", l'attente de rsultats a t interrompue.", exception);
+				}
+				pages.drainTo(drained);
+			}
+			if (current == END) {
+				ended = true;
+				current = null;
+				page = null;
+				if (checkpoint != null) {
+					checkpoint.close();
+				}
+			} else {
+				page = current.iterator();
+			}
+		}
+		return (page != null) && page.hasNext();
+	}
+
+
+
+	/**
+	 * Transmet une page de rsultats  retourner.<br>
+	 * En mode {@link Delivery#ORDERED}, la page est transmise directement si elle fait partie de la premire mission non termine, et mise en attente dans le tampon de rordonnancement sinon. Lorsque
+	 * la dernire page de la premire mission non termine est transmise, les pages en attente de la mission suivante sont transmises  leur tour.<br>
+	 * Cette mthode est bloquante tant que la file des pages  retourner est pleine, et en mode {@link Delivery#ORDERED}, tant que le tampon de rordonnancement est plein, sauf pour la premire
+	 * mission non termine.
+	 * @param mission Mission dont font partie les rsultats.
+	 * @param hits Rsultats  retourner (ne peut tre vide que si elle termine une mission).
+	 * @throws InterruptedException Si l'attente a t interrompue.
+	 */
+	private void putPage(SliceMission mission, Page hits) throws InterruptedException {
+		List<Page> waiting;
+
+		if (closed) {
+			// l'itrateur a t ferm, plus personne ne consomme les pages
+			return;
+		} else if (delivery == Delivery.UNORDERED) {
+			pages.put(hits);
+			return;
+		}
+		synchronized (reorderLock) {
+			while (!closed && (mission.sequence != head) && (buffered >= reorderCapacity)) {
+				reorderLock.wait();
+			}
+			if (closed) {
+				return;
+			} else if (mission.sequence != head) {
+				if ((waiting = reorder.get(mission.sequence)) == null) {
+					reorder.put(mission.sequence, waiting = new ArrayList<>());
+				}
+				waiting.add(hits);
+				buffered++;
+				return;
+			}
+		}
+		// seul l'ouvrier de la premire mission non termine peut arriver ici, et il n'y a plus de pages en attente pour cette mission
+		pages.put(hits);
+		if (hits.last) {
+			synchronized (reorderLock) {
+				do {
+					head++;
+					if ((waiting = reorder.remove(head)) != null) {
+						buffered -= waiting.size();
+						for (Page page : waiting) {
+							pages.put(page);
+						}
+					}
+				} while ((waiting != null) && waiting.get(waiting.size() - 1).last);
+				reorderLock.notifyAll();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Mode de livraison des rsultats.
+	 */
+	private final Delivery delivery;
+
+
+
+	/**
+	 * Indicateur de fermeture de l'itrateur (voir {@link #close()}).
+	 */
+	private volatile boolean closed = false;
+
+
+
+	/**
+	 * Pages de rsultats rcupres de la file et pas encore parcourues. Elles ne sont accdes que par le consommateur.
+	 */
+	private final Deque<Page> drained = new ArrayDeque<>();
+
+
+
+	/**
+	 * Indicateur de fin des rsultats, positionn lorsque le consommateur rencontre {@link #END}.
+	 */
+	private boolean ended = false;
+
+
+
+	/**
+	 * Nombre de pages en attente dans le tampon de rordonnancement.
+	 */
+	private int buffered = 0;
+
+
+
+	/**
+	 * Fichier de reprise, ou <code>null</code> si il n'y en a pas.
+	 */
+	private final SliceCheckpoint checkpoint;
+
+
+
+	/**
+	 * Page de rsultats en cours, ou <code>null</code> si il n'y en a pas.
+	 */
+	private Page current = null;
+
+
+
+	/**
+	 * Entreprise qui va grer les recherches sur les tranches.
+	 */
+	private final Enterprise<SliceMission> enterprise;
+
+
+
+	/**
+	 * Numro d'ordre de la premire mission non termine, en mode {@link Delivery#ORDERED}.
+	 */
+	private long head = 0;
+
+
+
+	/**
+	 * Nombre de rsultats rcuprs par les ouvriers, toutes tranches confondues.
+	 */
+	private final LongAdder fetched = new LongAdder();
+
+
+
+	/**
+	 * Identifiants des rsultats dj transmis, toutes tranches confondues. L'ensemble est cr par le distributeur des tranches, lorsque le nombre total de rsultats est connu, avant de distribuer
+	 * la premire tranche.
+	 */
+	private IdSet ids = null;
+
+
+
+	/**
+	 * Distributeur des tranches.
+	 */
+	private final SliceMissionner missionner;
+
+
+
+	/**
+	 * Itrateur sur la page de rsultats en cours, ou <code>null</code> si il n'y en a pas.
+	 */
+	private Iterator<JsonObject> page = null;
+
+
+
+	/**
+	 * File borne des pages de rsultats transmises par les ouvriers et pas encore rcupres par le consommateur. Les ouvriers sont bloqus lorsqu'elle est pleine. La fin des rsultats y est
+	 * signale par {@link #END}.
+	 */
+	private final BlockingQueue<Page> pages;
+
+
+
+	/**
+	 * Nombre total de rsultats de la recherche complte, ou -1 si il n'est pas encore connu.
+	 */
+	private volatile int queryTotal = -1;
+
+
+
+	/**
+	 * Pages en attente dans le tampon de rordonnancement, par numro d'ordre de mission, en mode {@link Delivery#ORDERED}.
+	 */
+	private final Map<Long, List<Page>> reorder = new HashMap<>();
+
+
+
+	/**
+	 * Nombre maximal de pages en attente dans le tampon de rordonnancement.
+	 */
+	private final int reorderCapacity;
+
+
+
+	/**
+	 * Verrou pour le tampon de rordonnancement, le nombre de pages qu'il contient, et le numro d'ordre de la premire mission non termine.
+	 */
+	private final Object reorderLock = new Object();
+
+
+
+	/**
+	 * Nombre de rsultats retourns lors des excutions prcdentes, d'aprs le fichier de reprise.
+	 */
+	private final int resumedCount;
+
+
+
+	/**
+	 * Nombre de parts.
+	 */
+	private final int shardCount;
+
+
+
+	/**
+	 * Numro de la part.
+	 */
+	private final int shardIndex;
+
+
+
+	/**
+	 * Recherche prliminaire, ou <code>null</code> si elle n'a pas encore t lance.
+	 */
+	private Summary summary = null;
+
+
+
+	/**
+	 * Verrou pour le lancement de la recherche prliminaire.
+	 */
+	private final Object summaryLock = new Object();
+
+
+
+	/**
+	 * Signal de fin du dcoupage initial, russi ou non (voir {@link #awaitTotal()}).
+	 */
+	private final CountDownLatch totalKnown = new CountDownLatch(1);
+
+
+
+	/**
+	 * Priode de mesure et d'ajustement du nombre d'ouvriers, en millisecondes, lorsqu'il est ajust dynamiquement (voir {@link Settings#setAutoscale(int)}). Une page ISTEX est obtenue en une
+	 * seconde environ, la priode doit en couvrir plusieurs par ouvrier pour que le dbit mesur soit significatif.
+	 */
+	private static final long AUTOSCALE_PERIOD = 15000;
+
+
+
+	/**
+	 * Priode de vrification que l'entreprise est toujours active pendant l'attente du nombre total de rsultats, en millisecondes.
+	 */
+	private static final long AWAIT_PERIOD = 1000;
+
+
+
+	/**
+	 * Marqueur de fin des rsultats, plac dans la file des pages lorsque l'entreprise a ferm.
+	 */
+	private static final Page END = new Page();
+
+
+
+	/**
+	 * Nombre de pages pouvant tre en attente par excution parallle de tranche.
+	 */
+	private static final int PAGES_PER_WORKER = 2;
+
+
+
+	/**
+	 * Nombre de pages pouvant tre en attente de rordonnancement par excution parallle de tranche, en mode {@link Delivery#ORDERED}.
+	 */
+	private static final int REORDER_PAGES_PER_WORKER = 16;
+
+
+
+	/**
+	 * Nombre maximal de rsultats transmis ensemble par un ouvrier.
+	 */
+	private static final int PAGE_SIZE = 100;
+
+
+
+	/**
+	 * L'numration {@link Delivery} recense les modes de livraison des rsultats.
+	 * @author Ludovic WALLE
+	 */
+	public static enum Delivery {
+		/** Les tranches sont livres l'une aprs l'autre, dans l'ordre du dcoupage. */
+		ORDERED,
+		/** Les pages de rsultats sont livres ds qu'elles sont prtes, quelle que soit leur tranche. C'est le mode le plus rapide. */
+		UNORDERED,
+	}
+
+
+
+	/**
+	 * La classe {@link Page} reprsente une page de rsultats transmise par un ouvrier. La dernire page d'une mission est marque, et si la mission a russi, elle indique la tranche qu'elle
+	 * termine.
+	 * @author Ludovic WALLE
+	 */
+	private static class Page extends ArrayList<JsonObject> {
+
+
+
+		/**	 */
+		public Page() {
+			super(PAGE_SIZE);
+		}
+
+
+
+		/**
+		 * Indique que cette page est la dernire de sa mission, et qu'elle termine la tranche indique.
+		 * @param slice Tranche, ou <code>null</code> si la mission a chou.
+		 * @param sliceCount Nombre de rsultats retourns pour la tranche.
+		 * @return Cette page.
+		 */
+		@SuppressWarnings("hiding") public Page terminate(SlicePlanner.Slice slice, int sliceCount) {
+			this.last = true;
+			this.slice = slice;
+			this.sliceCount = sliceCount;
+			return this;
+		}
+
+
+
+		/**
+		 * Indicateur de dernire page d'une mission.
+		 */
+		public boolean last = false;
+
+
+
+		/**
+		 * Tranche termine par cette page, ou <code>null</code> si elle n'en termine pas.
+		 */
+		public SlicePlanner.Slice slice = null;
+
+
+
+		/**
+		 * Nombre de rsultats retourns pour la tranche termine par cette page.
+		 */
+		public int sliceCount = 0;
+
+
+
+		/**
+		 * Numro de version pour la srialisation.
+		 */
+		private static final long serialVersionUID = 1L;
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link SliceMission} contient les informations ncessaires  l'excution d'une recherche sur une tranche par un {@link SliceWorker}.
+	 * @author Ludovic WALLE
+	 */
+	private static class SliceMission implements Mission {
+
+
+
+		/**
+		 * @param slice Tranche.
+		 * @param output Donnes  retourner.
+		 * @param sequence Numro d'ordre de distribution.
+		 */
+		public SliceMission(SlicePlanner.Slice slice, String output, long sequence) {
+			this.slice = slice;
+			this.sliceQuery = slice.query;
+			this.output = output;
+			this.sequence = sequence;
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public String toString() {
+			return sliceQuery;
+		}
+
+
+
+		/**
+		 * Nombre de rsultats transmis pour la tranche, cumul sur les tentatives.
+		 */
+		public int count = 0;
+
+
+
+		/**
+		 * Indicateur de redcoupage dcid, lors de la premire tentative.
+		 */
+		public boolean decided = false;
+
+
+
+		/**
+		 * Donnes  retourner.
+		 */
+		public final String output;
+
+
+
+		/**
+		 * Numro d'ordre de distribution.
+		 */
+		public final long sequence;
+
+
+
+		/**
+		 * Tranche.
+		 */
+		public final SlicePlanner.Slice slice;
+
+
+
+		/**
+		 * Requte.
+		 */
+		public final String sliceQuery;
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link SliceMissionner} distribue des requtes sur des sous ensembles de documents, dont le dcoupage est fait par un {@link SlicePlanner}.<br>
+	 * Le dcoupage se faisait auparavant en fixant systmatiquement deux caractres de la fin de l'ARK, soit 30x30 = 900 tranches quel que soit le nombre de rsultats: une petite recherche ncessitait
+	 * 900 requtes presque toutes vides, et les tranches d'une grande recherche avaient des tailles trs variables. Le dcoupage est maintenant adapt au nombre de documents de chaque prfixe.<br>
+	 * Une tranche trop grosse au moment o un ouvrier la prend en charge (voir {@link #getSplitSize(SlicePlanner.Slice)}) est redcoupe par cet ouvrier, et les morceaux sont distribus en priorit
+	 * aux ouvriers disponibles. La taille acceptable diminue avec le nombre de documents restant  distribuer, de sorte qu'en fin de traitement, les tranches sont partages entre les ouvriers au lieu
+	 * que quelques ouvriers traitent seuls de grosses tranches pendant que les autres sont inoccups. Pour que les morceaux puissent tre distribus, la fin de la distribution attend que tous les
+	 * ouvriers aient dcid de redcouper ou non leur tranche.
+	 * @author Ludovic WALLE
+	 */
+	private class SliceMissionner extends Missionner<SliceMission> {
+
+
+
+		/**
+		 * @param output Donnes  retourner.
+		 * @param parallelism Nombre d'excutions parallles de tranches de requtes.
+		 * @param ordered Indicateur de livraison ordonne. Les tranches sont alors distribues dans l'ordre du dcoupage, et ne sont pas redcoupes.
+		 * @param done Prfixes dj traits lors des excutions prcdentes.
+		 */
+		public SliceMissionner(String output, int parallelism, boolean ordered, Set<String> done) {
+			this.output = output;
+			this.parallelism = parallelism;
+			this.ordered = ordered;
+			this.done = done;
+		}
+
+
+
+		/**
+		 * Signale qu'un ouvrier a dcid de redcouper ou non la tranche indique, et transmet les ventuels morceaux  distribuer en priorit.
+		 * @param slice Tranche.
+		 * @param slices Morceaux  distribuer, dans l'ordre, ou <code>null</code> si la tranche n'a pas t redcoupe.
+		 */
+		public void decided(SlicePlanner.Slice slice, List<SlicePlanner.Slice> slices) {
+			synchronized (splitsLock) {
+				if (slices != null) {
+					for (ListIterator<SlicePlanner.Slice> iterator = slices.listIterator(slices.size()); iterator.hasPrevious();) {
+						splits.addFirst(iterator.previous());
+					}
+					distributed -= slice.count;
+				}
+				undecided--;
+				splitsLock.notifyAll();
+			}
+		}
+
+
+
+		/**
+		 * {@inheritDoc} Le dcoupeur est cr ici, pour que le constructeur de l'itrateur n'attende pas les comptages initiaux. Le nombre total de rsultats attendus en dcoule.
+		 */
+		@Override protected void delegateInitialize() throws Throwable {
+			try {
+				if (shardCount > 1) {
+					planner = SlicePlanner.shard(query, parallelism, shardIndex, shardCount, !ordered, done);
+				} else {
+					planner = SlicePlanner.whole(query, parallelism, !ordered, done);
+				}
+				remaining = Math.max(0, planner.getTotal() - resumedCount);
+				// quelques pourcents de marge, le nombre total pouvant fluctuer
+				ids = new IdSet(remaining + (planner.getTotal() / 20));
+				total = planner.getTotal();
+			} finally {
+				totalKnown.countDown();
+			}
+		}
+
 
-		try {
-			json = JsonObject.parse(new String(Readers.getBytesFromURL("https://api.istex.fr/document/?size=0&q=" + URLEncoder.encode(query, "UTF-8") + ((facets != null) ? "&facets=" + URLEncoder.encode(facets, "UTF-8") : ""))).trim());
-			if (json.has("_error")) {
-				throw new IstexException(LOGGER, Level.ERROR, "Erreur ISTEX: " + json.toString());
-			} else {
-				total = json.cutInteger("total", Option.PRESENT_AND_NOT_NULL_AND_NOT_EMPTY).intValue();
-				aggregations = json.cutJsonObject("aggregations");
-				hits = json.cutJsonArray("hits", Option.PRESENT_AND_NOT_NULL);
-				if (hits.isNotEmpty()) {
-					throw new IstexException(LOGGER, Level.WARN, "Pour la requte initiale de \"" + query + "\", il y a des rponses: " + json.toString());
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override protected SliceMission delegateGetNext() throws Throwable {
+			SlicePlanner.Slice slice;
+
+			for (;;) {
+				synchronized (splitsLock) {
+					if (stopped) {
+						// les missions dj distribues ou prpares ne dcideront pas toutes, undecided ne peut plus tre attendu
+						return null;
+					} else if ((slice = splits.pollFirst()) == null) {
+						if (exhausted) {
+							if (undecided == 0) {
+								return null;
+							}
+							splitsLock.wait();
+							continue;
+						}
+					} else {
+						return distribute(slice);
+					}
 				}
-				if (json.isNotEmpty()) {
-					throw new IstexException(LOGGER, Level.WARN, "Pour la requte initiale de \"" + query + "\", des lments de la rponse ISTEX ne sont pas pris en compte: " + json.toString());
+				// le dcoupage fait des requtes de comptage, il ne doit pas bloquer les ouvriers qui signalent leurs dcisions
+				slice = planner.next();
+				synchronized (splitsLock) {
+					if (slice == null) {
+						exhausted = true;
+					} else {
+						return distribute(slice);
+					}
 				}
 			}
-			enterprise = new Enterprise<>(count, new SliceMissionner(query, output), new SliceWorker());
-			enterprise.setDaemon(true);
-			enterprise.start();
-		} catch (JsonException | IOException exception) {
-			throw new IstexException(LOGGER, Level.ERROR, exception);
 		}
-	}
 
 
 
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override public synchronized boolean hasNext() {
-		while ((this.json == null) && !enterprise.hasClosedDown()) {
-			try {
-				// A la fin de l'entreprise, il y a un petit moment o tout est termin mais o l'entreprise n'a pas encore ferm. Il n'y aura donc plus d'appel  setJson, donc pas de notifyAll pour
-				// interrompre le wait => limiter l'attente
-				wait(100);
-			} catch (InterruptedException exception) {
+		/**
+		 * {@inheritDoc} Les missions prpares abandonnes ne dcideront jamais de leur redcoupage: l'attente de ces dcisions est interrompue.
+		 */
+		@Override protected void delegateStopDispensing() {
+			synchronized (splitsLock) {
+				stopped = true;
+				splitsLock.notifyAll();
 			}
 		}
-		if (this.json != null) {
-			return true;
-		} else if (count == total) {
-			return false;
-		} else {
-			throw new IstexException(LOGGER, Level.ERROR, "Pour la requte \"" + query + "\", le nombre de documents retourns (" + count + ") est diffrent de celui attendu (" + total + ").");
+
+
+
+		/**
+		 * Enregistre la distribution de la tranche indique, et retourne la mission correspondante.<br>
+		 * Cette mthode doit tre appele en possession du verrou {@link #splitsLock}.
+		 * @param slice Tranche.
+		 * @return La mission correspondante.
+		 */
+		private SliceMission distribute(SlicePlanner.Slice slice) {
+			undecided++;
+			distributed += slice.count;
+			return new SliceMission(slice, output, sequence++);
 		}
-	}
 
 
 
-	/**
-	 * {@inheritDoc}
-	 */
-	@Override public synchronized JsonObject next() {
-		@SuppressWarnings("hiding") JsonObject json;
+		/**
+		 * Retourne le dcoupeur en tranches.
+		 * @return Le dcoupeur en tranches.
+		 */
+		public SlicePlanner getPlanner() {
+			return planner;
+		}
 
-		while ((this.json == null) && !enterprise.hasClosedDown()) {
-			try {
-				// A la fin de l'entreprise, il y a un petit moment o tout est termin mais o l'entreprise n'a pas encore ferm. Il n'y aura donc plus d'appel  setJson, donc pas de notifyAll pour
-				// interrompre le wait => limiter l'attente
-				wait(100);
-			} catch (InterruptedException exception) {
+
+
+		/**
+		 * Retourne la taille vise pour les morceaux de la tranche indique, qui vient d'tre distribue, si elle doit tre redcoupe, ou 0 sinon.<br>
+		 * Une tranche doit tre redcoupe si le redcoupage est autoris (livraison non ordonne, et pas de stockage des rponses, voir {@link ResponseStore}), si elle est dcoupable, et si elle dpasse nettement la taille vise par le dcoupage initial (le nombre de documents a volu depuis son comptage), ou la part
+		 * quitable par ouvrier des documents restant  traiter (ceux de cette tranche et ceux qui n'ont pas encore t distribus). Dans ce dernier cas, la taille vise pour les morceaux est cette part
+		 * quitable, sans descendre en dessous de {@link SlicePlanner#MIN_SLICE_SIZE}.
+		 * @param slice Tranche.
+		 * @return La taille vise pour les morceaux de la tranche indique si elle doit tre redcoupe, ou 0 sinon.
+		 */
+		public int getSplitSize(SlicePlanner.Slice slice) {
+			long share;
+
+			synchronized (splitsLock) {
+				share = Math.max(SlicePlanner.MIN_SLICE_SIZE, ((Math.max(0, remaining - distributed) + slice.count) / parallelism));
+			}
+			if (ordered || (Readers.getResponseStore() != null) || !SlicePlanner.isSplittable(slice)) {
+				// le redcoupage dpend du moment, il rendrait les rponses enregistres inutilisables au rejeu
+				return 0;
+			} else if (slice.count > (2 * planner.getTarget())) {
+				return planner.getTarget();
+			} else if (slice.count > (2 * share)) {
+				return (int) share;
+			} else {
+				return 0;
 			}
 		}
-		if (this.json == null) {
-			throw new NoSuchElementException();
-		}
-		json = this.json;
-		this.json = null;
-		count++;
-		notifyAll();
-		return json;
+
+
+
+		/**
+		 * Nombre de documents attendus des tranches distribues (hors tranches redcoupes).
+		 */
+		private long distributed = 0;
+
+
+
+		/**
+		 * Indicateur d'puisement du dcoupage initial.
+		 */
+		private boolean exhausted = false;
+
+
+
+		/**
+		 * Donnes  retourner.
+		 */
+		public final String output;
+
+
+
+		/**
+		 * Nombre d'excutions parallles de tranches de requtes.
+		 */
+		private final int parallelism;
+
+
+
+		/**
+		 * Indicateur de livraison ordonne.
+		 */
+		private final boolean ordered;
+
+
+
+		/**
+		 * Dcoupeur en tranches, cr par {@link #delegateInitialize()}.
+		 */
+		private SlicePlanner planner = null;
+
+
+
+		/**
+		 * Numro d'ordre de la prochaine mission distribue.
+		 */
+		private long sequence = 0;
+
+
+
+		/**
+		 * Prfixes dj traits lors des excutions prcdentes.
+		 */
+		private final Set<String> done;
+
+
+
+		/**
+		 * Morceaux de tranches redcoupes,  distribuer en priorit.
+		 */
+		private final Deque<SlicePlanner.Slice> splits = new ArrayDeque<>();
+
+
+
+		/**
+		 * Verrou pour les morceaux de tranches redcoupes, le nombre de documents distribus et le nombre de tranches distribues sans dcision de redcoupage.
+		 */
+		private final Object splitsLock = new Object();
+
+
+
+		/**
+		 * Indicateur d'arrt de la distribution.
+		 */
+		private boolean stopped = false;
+
+
+
+		/**
+		 * Nombre total de rsultats de la requte restant  retourner, hors rsultats retourns lors des excutions prcdentes.
+		 */
+		private int remaining = 0;
+
+
+
+		/**
+		 * Nombre de tranches distribues pour lesquelles l'ouvrier n'a pas encore dcid de redcouper ou non.
+		 */
+		private int undecided = 0;
+
+
+
 	}
 
 
 
 	/**
-	 * Spcifie le prochain rsultat  retourner.
-	 * @param json Le prochain rsultat  retourner.
+	 * La classe {@link Settings} regroupe les rglages complmentaires d'un {@link IstexSlicedIterator}. Les mthodes de rglage retournent les rglages, pour pouvoir chainer les appels.
+	 * @author Ludovic WALLE
 	 */
-	private synchronized void setJson(JsonObject json) {
-		while (this.json != null) {
-			try {
-				wait();
-			} catch (InterruptedException exception) {
+	public static class Settings {
+
+
+
+		/**
+		 * Retourne le fichier de reprise, ou <code>null</code> si il n'y en a pas.
+		 * @return Le fichier de reprise, ou <code>null</code> si il n'y en a pas.
+		 */
+		public final File getCheckpoint() {
+			return checkpoint;
+		}
+
+
+
+		/**
+		 * Rgle l'ajustement dynamique du nombre d'ouvriers (voir {@link Foreman}). Le nombre d'ouvriers indiqu au constructeur de l'itrateur n'est alors que le nombre initial, qui varie ensuite
+		 * entre 1 et le nombre maximal indiqu pour maximiser le dbit, en se rduisant lorsque ISTEX renvoie des erreurs transitoires ou que son temps de rponse augmente.
+		 * @param maxWorkerCount Nombre maximal d'ouvriers, ou 0 pour ne pas ajuster dynamiquement le nombre d'ouvriers. Il est sans effet si il n'est pas suprieur au nombre initial.
+		 * @return Ces rglages.
+		 */
+		public final Settings setAutoscale(@SuppressWarnings("hiding") int maxWorkerCount) {
+			if (maxWorkerCount < 0) {
+				throw new IllegalArgumentException("Le nombre maximal d'ouvriers doit tre positif ou nul: " + maxWorkerCount);
 			}
+			this.maxWorkerCount = maxWorkerCount;
+			return this;
 		}
-		this.json = json;
-		notifyAll();
-	}
 
 
 
-	/**
-	 * Entreprise qui va grer les recherches sur les tranches.
-	 */
-	private final Enterprise<SliceMission> enterprise;
+		/**
+		 * Rgle le fichier de reprise. Si il existe, il doit avoir t cr pour la mme requte, et les tranches qui y sont enregistres ne sont pas refaites. Sinon, il est cr.
+		 * @param checkpoint Fichier de reprise, ou <code>null</code> pour ne pas en utiliser.
+		 * @return Ces rglages.
+		 */
+		public final Settings setCheckpoint(@SuppressWarnings("hiding") File checkpoint) {
+			this.checkpoint = checkpoint;
+			return this;
+		}
 
 
 
-	/**
-	 * Le prochain rsultat  retourner, ou <code>null</code> si il n'y en a pas.
-	 */
-	private volatile JsonObject json = null;
+		/**
+		 * Retourne le mode de livraison des rsultats.
+		 * @return Le mode de livraison des rsultats.
+		 */
+		public final Delivery getDelivery() {
+			return delivery;
+		}
 
 
 
-	/**
-	 * La classe {@link SliceMission} contient les informations ncessaires  l'excution d'une recherche sur une tranche par un {@link SliceWorker}.
-	 * @author Ludovic WALLE
-	 */
-	private static class SliceMission implements Mission {
+		/**
+		 * Retourne l'{@link ExecutorService} pour lequel travaillent les ouvriers, ou <code>null</code> si chaque ouvrier travaille dans son propre thread.
+		 * @return L'{@link ExecutorService} pour lequel travaillent les ouvriers, ou <code>null</code> si chaque ouvrier travaille dans son propre thread.
+		 */
+		public final ExecutorService getExecutor() {
+			return executor;
+		}
 
 
 
 		/**
-		 * @param sliceQuery Requte.
-		 * @param output Donnes  retourner.
+		 * Retourne le nombre maximal de tranches pouvant tre abandonnes sans arrter la recherche.
+		 * @return Le nombre maximal de tranches pouvant tre abandonnes sans arrter la recherche.
 		 */
-		public SliceMission(String sliceQuery, String output) {
-			this.sliceQuery = sliceQuery;
-			this.output = output;
+		public final int getMaxFailedSlices() {
+			return maxFailedSlices;
 		}
 
 
 
 		/**
-		 * Donnes  retourner.
+		 * Retourne le nombre maximal d'ouvriers lorsque leur nombre est ajust dynamiquement, ou 0 si il ne l'est pas.
+		 * @return Le nombre maximal d'ouvriers lorsque leur nombre est ajust dynamiquement, ou 0 si il ne l'est pas.
 		 */
-		public final String output;
+		public final int getMaxWorkerCount() {
+			return maxWorkerCount;
+		}
 
 
 
 		/**
-		 * Requte.
+		 * Retourne le nombre de parts.
+		 * @return Le nombre de parts.
 		 */
-		public final String sliceQuery;
+		public final int getShardCount() {
+			return shardCount;
+		}
 
 
 
-	}
+		/**
+		 * Retourne le numro de la part.
+		 * @return Le numro de la part.
+		 */
+		public final int getShardIndex() {
+			return shardIndex;
+		}
 
 
 
-	/**
-	 * La classe {@link SliceMissionner} distribue des requtes sur des sous ensembles de documents. Le dcoupage en sous ensembles se fait sur l'ARK ISTEX, prsent dans tous les documents.<br>
-	 * Seule la fin de l'ARK (<code>[0-9BCDFGHJKLMNPQRSTVWXZ]{8}-[0-9BCDFGHJKLMNPQRSTVWXZ]</code>, voir {@link Istex.Hit#arkIstex}) est utilisable comme cl de dcoupage car les caractres semblent
-	 * avoir une frquence uniforme.<br>
-	 * Le dcoupage se fait en fixant deux de ces caractres. Il y a 30 possibilits pour ces caractres ([0-9BCDFGHJKLMNPQRSTVWXZ]), ce qui fait 30x30 = 900 tranches de taille raisonnable.<br>
-	 * Un dcoupage en fixant un seul caractre donne 30 tranches de taille importante. La probabilit d'avoir une erreur est donc importante aussi, ainsi que le temps ncessaire pour une nouvelle
-	 * tentative, sans compter qu'il en faudra peut-tre plusieurs.<br>
-	 * Un dcoupage en fixant plus de deux caractres donne beaucoup de tranches (30x30x30 = 27000 pour 3 caractres). Le temps de traitement de tant de requtes devient trop important.
-	 * @author Ludovic WALLE
-	 */
-	private static class SliceMissionner extends Missionner<SliceMission> {
+		/**
+		 * Rgle le mode de livraison des rsultats.
+		 * @param delivery Mode de livraison des rsultats (ne doit pas tre <code>null</code>).
+		 * @return Ces rglages.
+		 */
+		public final Settings setDelivery(@SuppressWarnings("hiding") Delivery delivery) {
+			if (delivery == null) {
+				throw new IllegalArgumentException("Le mode de livraison est null.");
+			}
+			this.delivery = delivery;
+			return this;
+		}
 
 
 
 		/**
-		 * @param query Requte.
-		 * @param output Donnes  retourner.
+		 * Rgle l'{@link ExecutorService} pour lequel travaillent les ouvriers (voir {@link Enterprise#Enterprise(String, int, Missionner, Worker, ExecutorService)}). Plusieurs recherches
+		 * simultanes peuvent ainsi se partager un nombre limit de threads. Un ouvrier en attente de la consommation de ses rsultats occupe son thread: le nombre de threads doit tenir compte des
+		 * recherches dont les rsultats sont consomms lentement.
+		 * @param executor {@link ExecutorService}, ou <code>null</code> pour que chaque ouvrier travaille dans son propre thread.
+		 * @return Ces rglages.
 		 */
-		public SliceMissionner(String query, String output) {
-			String chars = "0123456789BCDFGHJKLMNPQRSTVWXZ";
+		public final Settings setExecutor(@SuppressWarnings("hiding") ExecutorService executor) {
+			this.executor = executor;
+			return this;
+		}
 
-			for (int i = 0; i < chars.length(); i++) {
-				for (int j = 0; j < chars.length(); j++) {
-					slicesQueries.add("arkIstex:ark\\:\\/67375\\/???-" + chars.charAt(i) + chars.charAt(j) + "*" + " AND (" + query + ")");
-				}
+
+
+		/**
+		 * Rgle le nombre maximal de tranches pouvant tre abandonnes, aprs puisement de leurs nouvelles tentatives, sans arrter la recherche (voir {@link Enterprise#setMaxFailedMissions(int)}).
+		 * Les rsultats des autres tranches sont alors tous retourns avant que l'erreur ne soit signale.
+		 * @param maxFailedSlices Nombre maximal de tranches pouvant tre abandonnes (doit tre positif ou nul, 0 pour arrter la recherche ds le premier abandon).
+		 * @return Ces rglages.
+		 */
+		public final Settings setMaxFailedSlices(@SuppressWarnings("hiding") int maxFailedSlices) {
+			if (maxFailedSlices < 0) {
+				throw new IllegalArgumentException("Le nombre maximal de tranches abandonnes doit tre positif ou nul: " + maxFailedSlices);
 			}
-			this.output = output;
+			this.maxFailedSlices = maxFailedSlices;
+			return this;
 		}
 
 
 
 		/**
-		 * {@inheritDoc}
+		 * Rgle la part de la recherche  traiter (voir {@link SlicePlanner#shard(String, int, int, int, boolean, Set)}). Plusieurs instances indpendantes, rgles avec le mme nombre de parts et des numros
+		 * de part diffrents, traitent des parties disjointes de la recherche.
+		 * @param shardIndex Numro de la part (de 0  <code>shardCount - 1</code>).
+		 * @param shardCount Nombre de parts (de 1  {@value SlicePlanner#CELLS}, 1 pour ne pas rpartir la recherche).
+		 * @return Ces rglages.
 		 */
-		@Override protected SliceMission delegateGetNext() throws Throwable {
-			if (slicesQueries.isEmpty()) {
-				return null;
-			} else {
-				return new SliceMission(slicesQueries.remove(0), output);
+		public final Settings setShard(@SuppressWarnings("hiding") int shardIndex, @SuppressWarnings("hiding") int shardCount) {
+			if ((shardCount < 1) || (shardCount > SlicePlanner.CELLS) || (shardIndex < 0) || (shardIndex >= shardCount)) {
+				throw new IllegalArgumentException("La part est invalide: " + shardIndex + "/" + shardCount);
 			}
+			this.shardIndex = shardIndex;
+			this.shardCount = shardCount;
+			return this;
 		}
 
 
 
 		/**
-		 * Donnes  retourner.
+		 * Fichier de reprise, ou <code>null</code> si il n'y en a pas.
 		 */
-		public final String output;
+		private File checkpoint = null;
+
+
+
+		/**
+		 * Mode de livraison des rsultats.
+		 */
+		private Delivery delivery = Delivery.UNORDERED;
+
+
+
+		/**
+		 * {@link ExecutorService} pour lequel travaillent les ouvriers, ou <code>null</code> si chaque ouvrier travaille dans son propre thread.
+		 */
+		private ExecutorService executor = null;
+
+
+
+		/**
+		 * Nombre maximal de tranches pouvant tre abandonnes sans arrter la recherche.
+		 */
+		private int maxFailedSlices = 0;
+
+
+
+		/**
+		 * Nombre maximal d'ouvriers lorsque leur nombre est ajust dynamiquement, ou 0 si il ne l'est pas.
+		 */
+		private int maxWorkerCount = 0;
+
+
+
+		/**
+		 * Nombre de parts.
+		 */
+		private int shardCount = 1;
 
 
 
 		/**
-		 * Tranches de requtes  traiter.
+		 * Numro de la part.
 		 */
-		public final Vector<String> slicesQueries = new Vector<>();
+		private int shardIndex = 0;
 
 
 
@@ -242,8 +1311,8 @@ public class IstexSlicedIterator extends IstexIterator {
 
 
 	/**
-	 * La classe {@link SliceWorker} implmente la rcupration des rsultats d'une tranche de recherche, en recommenant autant de fois que ncessaire, et sans renvoyer plusieurs fois le mme
-	 * rsultat.
+	 * La classe {@link SliceWorker} implmente la rcupration des rsultats d'une tranche de recherche, retente selon la politique {@link RetryPolicy#SLICE}, et sans renvoyer plusieurs fois
+	 * le mme rsultat. Les identifiants des rsultats transmis sont enregistrs dans un {@link IdSet} commun  toutes les tranches.
 	 * @author Ludovic WALLE
 	 */
 	private class SliceWorker extends Worker<SliceMission> {
@@ -268,31 +1337,77 @@ public class IstexSlicedIterator extends IstexIterator {
 
 
 		/**
-		 * {@inheritDoc} La mission est une valeur du champ <code>q</code> d'une requte ISTEX.
+		 * {@inheritDoc} La mission est une valeur du champ <code>q</code> d'une requte ISTEX. Elle n'est redcoupe qu' sa premire tentative.
 		 */
 		@Override protected int delegateDo(SliceMission mission) throws Throwable {
-			Set<String> ids = new HashSet<>();
-			String id;
 			IstexIterator istexIterator;
-			@SuppressWarnings("hiding") JsonObject json;
+			JsonObject json;
+			Page hits = new Page();
+			List<SlicePlanner.Slice> slices = null;
+			int splitSize;
 
-			LOGGER.log(Level.INFO, mission.sliceQuery);
-			for (;;) {
+			if (!mission.decided) {
+				mission.decided = true;
 				try {
-					for (istexIterator = new IstexSimpleIterator(mission.sliceQuery, mission.output, null); istexIterator.hasNext();) {
-						json = istexIterator.next();
-						id = json.getString("id");
-						if (!ids.contains(id)) {
-							setJson(json);
-							ids.add(id);
+					if ((splitSize = missionner.getSplitSize(mission.slice)) > 0) {
+						slices = missionner.getPlanner().split(mission.slice, splitSize);
+					}
+				} catch (IstexException exception) {
+					// le redcoupage n'est qu'une optimisation, la tranche sera traite telle quelle
+					LOGGER.log(Level.INFO, "Pour la tranche \"" + mission.sliceQuery + "\", le redcoupage a chou.", exception);
+				} finally {
+					missionner.decided(mission.slice, slices);
+				}
+				if (slices != null) {
+					LOGGER.log(Level.INFO, mission.sliceQuery + " => redcoupe en " + slices.size() + " tranches.");
+					return 0;
+				}
+			}
+			LOGGER.log(Level.INFO, mission.sliceQuery);
+			try {
+				for (istexIterator = new IstexSimpleIterator(mission.sliceQuery, mission.output, null, RetryPolicy.NONE); istexIterator.hasNext();) {
+					json = istexIterator.next();
+					if (ids.add(json.getString("id"))) {
+						hits.add(json);
+						mission.count++;
+						fetched.increment();
+						if (hits.size() == PAGE_SIZE) {
+							putPage(mission, hits);
+							hits = new Page();
 						}
 					}
-					LOGGER.log(Level.INFO, mission.sliceQuery + " => " + ids.size());
-					return ids.size();
-				} catch (Throwable exception) {
-					LOGGER.log(Level.INFO, mission.sliceQuery);
 				}
+				putPage(mission, hits.terminate(mission.slice, mission.count));
+				RetryPolicy.SLICE.reportSuccess();
+				LOGGER.log(Level.INFO, mission.sliceQuery + " => " + mission.count + " (" + mission.slice.count + " attendus)");
+				return mission.count;
+			} catch (Throwable exception) {
+				// les rsultats dj enregistrs dans ids doivent tre transmis, y compris en cas d'erreur
+				if (!hits.isEmpty()) {
+					putPage(mission, hits);
+				}
+				if ((exception instanceof InterruptedException) || (exception instanceof Error) || Thread.currentThread().isInterrupted()) {
+					// la mission ne sera pas retente (voir Worker#perform), sa fin doit quand mme tre signale
+					putPage(mission, new Page().terminate(null, 0));
+				}
+				throw exception;
+			}
+		}
+
+
+
+		/**
+		 * {@inheritDoc} Les erreurs d'accs  ISTEX sont retentes selon la politique {@link RetryPolicy#SLICE}, seul niveau de nouvelles tentatives, les requtes de la tranche n'tant pas retentes
+		 * individuellement. La tranche est alors reprise depuis sa premire page, les rsultats dj transmis tant carts. Si la mission est abandonne, sa fin est quand mme signale pour que les missions
+		 * suivantes puissent tre livres en mode ordonn.
+		 */
+		@Override protected long delegateGetRetryDelay(SliceMission mission, int attempt, Throwable exception) throws Throwable {
+			if ((exception instanceof IstexException) && RetryPolicy.SLICE.allowsRetry(attempt)) {
+				LOGGER.log(Level.INFO, "Pour la tranche \"" + mission.sliceQuery + "\", la tentative " + attempt + " a chou, nouvelle tentative.", exception);
+				return RetryPolicy.SLICE.computeDelay(attempt, -1);
 			}
+			putPage(mission, new Page().terminate(null, 0));
+			return -1;
 		}
 
 
@@ -310,4 +1425,49 @@ public class IstexSlicedIterator extends IstexIterator {
 
 
 
+	/**
+	 * La classe {@link Summary} implmente la recherche prliminaire (voir {@link IstexSummary}), qui ne retourne aucun rsultat mais le nombre total de rsultats de la recherche complte et les ventuelles agrgations
+	 * correspondant aux facettes demandes. Elle est excute en parallle du dcoupage et des premires tranches.
+	 * @author Ludovic WALLE
+	 */
+	private class Summary extends Thread {
+
+
+
+		/**	 */
+		public Summary() {
+			super("Summary");
+			setDaemon(true);
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public void run() {
+			IstexSummary summary;
+
+			try {
+				summary = new IstexSummary(query, facets);
+				queryTotal = summary.getTotal();
+				aggregations = summary.getAggregations();
+			} catch (IstexException exception) {
+				failure = exception;
+			}
+		}
+
+
+
+		/**
+		 * Erreur de la recherche prliminaire, ou <code>null</code> si il n'y en a pas eu.
+		 */
+		private IstexException failure = null;
+
+
+
+	}
+
+
+
 }
@@ -0,0 +1,131 @@
+package fr.inist.istex;
+
+import java.util.*;
+import java.util.function.*;
+
+import toolbox.json.*;
+
+
+
+/**
+ * La classe {@link IstexSpliterator} adapte un {@link IstexIterator} aux flux java (voir {@link IstexIterator#stream()} et {@link IstexIterator#parallelStream()}).<br>
+ * Le parcours des rsultats ISTEX est squentiel: le dcoupage consiste  prlever les rsultats suivants, par pages entires (voir {@link IstexIterator#drainPage(List, int)}), dans un lot qui peut
+ * tre trait en parallle du reste. La taille des lots augmente d'une page  chaque dcoupage, dans une certaine limite, pour que les premiers rsultats soient rapidement disponibles tout en
+ * limitant le nombre de lots d'un long parcours.<br>
+ * La taille est annonce exacte ({@link #SIZED}) si l'itrateur connait le nombre total de rsultats et vrifie qu'il est atteint (voir {@link IstexIterator#checksTotal()}). Elle n'est sinon qu'une
+ * estimation. Les caractristiques sont dtermines lors de leur premire consultation, aprs avoir attendu que le nombre total de rsultats soit connu (voir
+ * {@link IstexIterator#awaitTotal()}), puis elles ne changent plus.
+ * @author Ludovic WALLE
+ */
+class IstexSpliterator implements Spliterator<JsonObject> {
+
+
+
+	/**
+	 * @param iterator Itrateur sur les rsultats.
+	 */
+	public IstexSpliterator(IstexIterator iterator) {
+		this.iterator = iterator;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int characteristics() {
+		if (characteristics == -1) {
+			iterator.awaitTotal();
+			characteristics = ORDERED | NONNULL | ((iterator.checksTotal() && (iterator.estimateRemaining() >= 0)) ? SIZED | SUBSIZED : 0);
+		}
+		return characteristics;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public long estimateSize() {
+		long remaining;
+
+		return ((remaining = iterator.estimateRemaining()) < 0) ? Long.MAX_VALUE : remaining;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public void forEachRemaining(Consumer<? super JsonObject> action) {
+		while (iterator.hasNext()) {
+			action.accept(iterator.next());
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public boolean tryAdvance(Consumer<? super JsonObject> action) {
+		if (iterator.hasNext()) {
+			action.accept(iterator.next());
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc} Le lot retourn contient les rsultats suivants, par pages entires sauf si la taille maximale du lot est atteinte.
+	 */
+	@Override public Spliterator<JsonObject> trySplit() {
+		List<JsonObject> hits;
+
+		batch = Math.min(batch + BATCH_UNIT, MAX_BATCH);
+		hits = new ArrayList<>(batch);
+		while ((hits.size() < batch) && (iterator.drainPage(hits, batch - hits.size()) > 0)) {}
+		return hits.isEmpty() ? null : Spliterators.spliterator(hits, characteristics() | SIZED | SUBSIZED);
+	}
+
+
+
+	/**
+	 * Taille maximale du prochain lot.
+	 */
+	private int batch = 0;
+
+
+
+	/**
+	 * Caractristiques, ou -1 si elles n'ont pas encore t dtermines.
+	 */
+	private int characteristics = -1;
+
+
+
+	/**
+	 * Itrateur sur les rsultats.
+	 */
+	private final IstexIterator iterator;
+
+
+
+	/**
+	 * Augmentation de la taille maximale des lots  chaque dcoupage, gale  la taille des pages ISTEX.
+	 */
+	private static final int BATCH_UNIT = 100;
+
+
+
+	/**
+	 * Taille maximale des lots.
+	 */
+	private static final int MAX_BATCH = 10000;
+
+
+
+}
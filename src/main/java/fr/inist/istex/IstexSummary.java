@@ -0,0 +1,134 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.net.*;
+
+import org.apache.logging.log4j.*;
+
+import toolbox.json.*;
+import toolbox.json.JsonObject.*;
+
+
+
+/**
+ * La classe {@link IstexSummary} reprsente le nombre total de rsultats et les agrgations correspondant aux facettes demandes d'une recherche ISTEX, sans aucun de ses rsultats.<br>
+ * Elle est obtenue par une seule requte ne retournant aucun rsultat (<code>size=0</code>), donc peu couteuse: contrairement  un {@link IstexSimpleIterator}, elle n'ouvre pas de contexte de
+ * parcours (<code>scroll</code>) sur le serveur, et ne transfre pas la premire page de rsultats.<br>
+ * Elle n'est pas modifie une fois cre, et peut tre partage.
+ * @author Ludovic WALLE
+ */
+public class IstexSummary {
+
+
+
+	/**
+	 * @param query Requte, ne doit tre ni vide ni ni <code>null</code>. Voir {@link "https://api.istex.fr/documentation/search/"}.
+	 * @param facets Facettes  retourner, ignor si <code>null</code>. Voir {@link "https://api.istex.fr/documentation/facets/"}.
+	 * @throws IstexException En cas d'erreur de la recherche.
+	 */
+	public IstexSummary(String query, String facets) throws IstexException {
+		JsonObject json;
+		JsonArray hits;
+
+		if ((query == null) || query.isEmpty()) {
+			throw new IstexException(LOGGER, Level.ERROR, "La requte est vide ou null.");
+		}
+		this.query = query;
+		this.facets = facets;
+		try {
+			json = JsonObject.parse(new String(Readers.getBytesFromURL("https://api.istex.fr/document/?size=0&q=" + URLEncoder.encode(query, "UTF-8") + ((facets != null) ? "&facet=" + URLEncoder.encode(facets, "UTF-8") : ""))).trim());
+			if (json.has("_error")) {
+				throw new IstexException(LOGGER, Level.ERROR, "Erreur ISTEX: " + json.toString());
+			}
+			total = json.cutInteger("total", Option.PRESENT_AND_NOT_NULL_AND_NOT_EMPTY).intValue();
+			aggregations = json.cutJsonObject("aggregations");
+			hits = json.cutJsonArray("hits", Option.PRESENT_AND_NOT_NULL);
+			if (hits.isNotEmpty()) {
+				throw new IstexException(LOGGER, Level.WARN, "Pour la requte \"" + query + "\", il y a des rponses: " + json.toString());
+			}
+			if (json.isNotEmpty()) {
+				throw new IstexException(LOGGER, Level.WARN, "Pour la requte \"" + query + "\", des lments de la rponse ISTEX ne sont pas pris en compte: " + json.toString());
+			}
+		} catch (JsonException | JsonRuntimeException | IOException exception) {
+			throw new IstexException(LOGGER, Level.ERROR, exception);
+		}
+	}
+
+
+
+	/**
+	 * Retourne les agrgations correspondant aux facettes demandes, ou <code>null</code> si il n'y en a pas.
+	 * @return Les agrgations correspondant aux facettes demandes, ou <code>null</code> si il n'y en a pas.
+	 */
+	public final JsonObject getAggregations() {
+		return aggregations;
+	}
+
+
+
+	/**
+	 * Retourne les facettes demandes, ou <code>null</code> si il n'y en a pas.
+	 * @return Les facettes demandes, ou <code>null</code> si il n'y en a pas.
+	 */
+	public final String getFacets() {
+		return facets;
+	}
+
+
+
+	/**
+	 * Retourne la requte.
+	 * @return La requte.
+	 */
+	public final String getQuery() {
+		return query;
+	}
+
+
+
+	/**
+	 * Retourne le nombre total de rsultats.
+	 * @return Le nombre total de rsultats.
+	 */
+	public final int getTotal() {
+		return total;
+	}
+
+
+
+	/**
+	 * Agrgations correspondant aux facettes demandes, ou <code>null</code> si il n'y en a pas.
+	 */
+	private final JsonObject aggregations;
+
+
+
+	/**
+	 * Facettes demandes, ou <code>null</code> si il n'y en a pas.
+	 */
+	private final String facets;
+
+
+
+	/**
+	 * Requte.
+	 */
+	private final String query;
+
+
+
+	/**
+	 * Nombre total de rsultats.
+	 */
+	private final int total;
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+}
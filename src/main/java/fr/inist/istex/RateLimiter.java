@@ -0,0 +1,400 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+
+
+/**
+ * La classe {@link RateLimiter} limite le dbit et la concurrence des requtes vers ISTEX.<br>
+ * Le dbit est limit par un seau  jetons: chaque requte consomme un jeton, les jetons se rgnrent au dbit indiqu, et le seau en contient au plus le nombre indiqu (rafale). La concurrence
+ * est limite par un nombre maximal de requtes simultanes. Les deux limites s'appliquent  toutes les requtes utilisant le mme limiteur, quel que soit le thread ou l'itrateur  leur origine.<br>
+ * Le limiteur {@link #SHARED} est utilis par {@link Readers} pour toutes les requtes HTTP de la JVM. Ses limites peuvent tre ajustes dynamiquement pour exploiter le quota disponible sans le
+ * dpasser.<br>
+ * Le temps pass  attendre un jeton ou une place est cumul, ce qui permet de savoir si un traitement est ralenti par le limiteur. Les temps de rponse et les checs transitoires signals par
+ * les utilisateurs du limiteur (voir {@link #reportResponse(long, boolean)}) sont aussi cumuls, ce qui permet de savoir si ISTEX commence  saturer.
+ * @author Ludovic WALLE
+ */
+public class RateLimiter {
+
+
+
+	/**
+	 * @param rate Dbit maximal, en requtes par seconde (doit tre strictement positif).
+	 * @param burst Nombre maximal de requtes pouvant tre mises en rafale (doit tre strictement positif).
+	 * @param maxInFlight Nombre maximal de requtes simultanes (doit tre strictement positif).
+	 */
+	public RateLimiter(double rate, int burst, int maxInFlight) {
+		inFlightAvailable = inFlightLock.newCondition();
+		setRate(rate);
+		setBurst(burst);
+		setMaxInFlight(maxInFlight);
+		tokens = burst;
+		lastRefill = System.nanoTime();
+	}
+
+
+
+	/**
+	 * Attend qu'une requte puisse tre mise (jeton disponible et place libre), et rserve une place.<br>
+	 * Le jeton est rserv et attendu avant la place, pour qu'un thread ralenti par le dbit n'occupe pas une place pendant son attente.<br>
+	 * Chaque appel  cette mthode doit tre suivi d'un appel  {@link #release()} lorsque la requte est termine.
+	 * @throws InterruptedIOException Si l'attente a t interrompue.
+	 */
+	public final void acquire() throws InterruptedIOException {
+		long start;
+		long delay;
+
+		try {
+			if ((delay = reserveToken()) > 0) {
+				TimeUnit.NANOSECONDS.sleep(delay);
+				rateWaitTime.add(delay);
+			}
+			start = System.nanoTime();
+			inFlightLock.lockInterruptibly();
+			try {
+				while (inFlight >= maxInFlight) {
+					inFlightAvailable.await();
+				}
+				inFlight++;
+			} finally {
+				inFlightLock.unlock();
+			}
+			concurrencyWaitTime.add(System.nanoTime() - start);
+			requestCount.increment();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw (InterruptedIOException) new InterruptedIOException("L'attente d'autorisation d'mettre une requte a t interrompue.").initCause(exception);
+		}
+	}
+
+
+
+	/**
+	 * Retourne le nombre maximal de requtes pouvant tre mises en rafale.
+	 * @return Le nombre maximal de requtes pouvant tre mises en rafale.
+	 */
+	public final int getBurst() {
+		return burst;
+	}
+
+
+
+	/**
+	 * Retourne le temps cumul pass  attendre qu'une place se libre, en millisecondes.
+	 * @return Le temps cumul pass  attendre qu'une place se libre, en millisecondes.
+	 */
+	public final long getConcurrencyWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(concurrencyWaitTime.sum());
+	}
+
+
+
+	/**
+	 * Retourne le nombre de requtes en cours.
+	 * @return Le nombre de requtes en cours.
+	 */
+	public final int getInFlight() {
+		return inFlight;
+	}
+
+
+
+	/**
+	 * Retourne le nombre de rponses signalant une erreur transitoire (erreur rseau ou rponse HTTP justifiant une nouvelle tentative).
+	 * @return Le nombre de rponses signalant une erreur transitoire.
+	 */
+	public final long getFailureCount() {
+		return failureCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre maximal de requtes simultanes.
+	 * @return Le nombre maximal de requtes simultanes.
+	 */
+	public final int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+
+
+	/**
+	 * Retourne le dbit maximal, en requtes par seconde.
+	 * @return Le dbit maximal, en requtes par seconde.
+	 */
+	public final double getRate() {
+		return rate;
+	}
+
+
+
+	/**
+	 * Retourne le temps cumul pass  attendre un jeton, en millisecondes.
+	 * @return Le temps cumul pass  attendre un jeton, en millisecondes.
+	 */
+	public final long getRateWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(rateWaitTime.sum());
+	}
+
+
+
+	/**
+	 * Retourne le nombre de requtes autorises.
+	 * @return Le nombre de requtes autorises.
+	 */
+	public final long getRequestCount() {
+		return requestCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre de rponses signales.
+	 * @return Le nombre de rponses signales.
+	 */
+	public final long getResponseCount() {
+		return responseCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le temps de rponse cumul des rponses signales, en millisecondes.
+	 * @return Le temps de rponse cumul des rponses signales, en millisecondes.
+	 */
+	public final long getResponseTime() {
+		return TimeUnit.NANOSECONDS.toMillis(responseTime.sum());
+	}
+
+
+
+	/**
+	 * Retourne le temps cumul pass  attendre une autorisation d'mettre une requte (jeton ou place), en millisecondes.
+	 * @return Le temps cumul pass  attendre une autorisation d'mettre une requte, en millisecondes.
+	 */
+	public final long getThrottledTime() {
+		return TimeUnit.NANOSECONDS.toMillis(concurrencyWaitTime.sum() + rateWaitTime.sum());
+	}
+
+
+
+	/**
+	 * Libre la place rserve par {@link #acquire()}.
+	 */
+	public final void release() {
+		inFlightLock.lock();
+		try {
+			inFlight--;
+			inFlightAvailable.signal();
+		} finally {
+			inFlightLock.unlock();
+		}
+	}
+
+
+
+	/**
+	 * Signale une rponse  une requte autorise par ce limiteur.<br>
+	 * Cette mthode est non bloquante.
+	 * @param time Temps de rponse, en nanosecondes.
+	 * @param failed Indicateur d'erreur transitoire (erreur rseau ou rponse HTTP justifiant une nouvelle tentative).
+	 */
+	public final void reportResponse(long time, boolean failed) {
+		responseCount.increment();
+		responseTime.add(time);
+		if (failed) {
+			failureCount.increment();
+		}
+	}
+
+
+
+	/**
+	 * Rserve un jeton, ventuellement par anticipation si le seau est vide.
+	 * @return L'attente ncessaire avant de pouvoir utiliser le jeton rserv, en nanosecondes.
+	 */
+	private long reserveToken() {
+		long now;
+
+		synchronized (tokensLock) {
+			now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (((now - lastRefill) * rate) / 1e9));
+			lastRefill = now;
+			tokens--;
+			return (tokens >= 0) ? 0 : (long) ((-tokens * 1e9) / rate);
+		}
+	}
+
+
+
+	/**
+	 * Ajuste le nombre maximal de requtes pouvant tre mises en rafale.
+	 * @param burst Nombre maximal de requtes pouvant tre mises en rafale (doit tre strictement positif).
+	 * @return Ce limiteur, pour pouvoir chainer les appels de mthode.
+	 */
+	public final RateLimiter setBurst(@SuppressWarnings("hiding") int burst) {
+		if (burst <= 0) {
+			throw new IllegalArgumentException("Le nombre de requtes en rafale doit tre strictement positif: " + burst);
+		}
+		this.burst = burst;
+		return this;
+	}
+
+
+
+	/**
+	 * Ajuste le nombre maximal de requtes simultanes.
+	 * @param maxInFlight Nombre maximal de requtes simultanes (doit tre strictement positif).
+	 * @return Ce limiteur, pour pouvoir chainer les appels de mthode.
+	 */
+	public final RateLimiter setMaxInFlight(@SuppressWarnings("hiding") int maxInFlight) {
+		if (maxInFlight <= 0) {
+			throw new IllegalArgumentException("Le nombre de requtes simultanes doit tre strictement positif: " + maxInFlight);
+		}
+		inFlightLock.lock();
+		try {
+			this.maxInFlight = maxInFlight;
+			inFlightAvailable.signalAll();
+		} finally {
+			inFlightLock.unlock();
+		}
+		return this;
+	}
+
+
+
+	/**
+	 * Ajuste le dbit maximal.
+	 * @param rate Dbit maximal, en requtes par seconde (doit tre strictement positif).
+	 * @return Ce limiteur, pour pouvoir chainer les appels de mthode.
+	 */
+	public final RateLimiter setRate(@SuppressWarnings("hiding") double rate) {
+		if (!(rate > 0)) {
+			throw new IllegalArgumentException("Le dbit doit tre strictement positif: " + rate);
+		}
+		synchronized (tokensLock) {
+			this.rate = rate;
+		}
+		return this;
+	}
+
+
+
+	/**
+	 * Nombre maximal de requtes pouvant tre mises en rafale.
+	 */
+	private volatile int burst;
+
+
+
+	/**
+	 * Temps cumul pass  attendre qu'une place se libre, en nanosecondes.
+	 */
+	private final LongAdder concurrencyWaitTime = new LongAdder();
+
+
+
+	/**
+	 * Nombre de rponses signalant une erreur transitoire.
+	 */
+	private final LongAdder failureCount = new LongAdder();
+
+
+
+	/**
+	 * Nombre de requtes en cours.
+	 */
+	private volatile int inFlight = 0;
+
+
+
+	/**
+	 * Condition signalant qu'une place s'est libre.
+	 */
+	private final Condition inFlightAvailable;
+
+
+
+	/**
+	 * Verrou pour le nombre de requtes en cours.
+	 */
+	private final ReentrantLock inFlightLock = new ReentrantLock();
+
+
+
+	/**
+	 * Date de dernire rgnration des jetons, en nanosecondes.
+	 */
+	private long lastRefill;
+
+
+
+	/**
+	 * Nombre maximal de requtes simultanes.
+	 */
+	private volatile int maxInFlight;
+
+
+
+	/**
+	 * Dbit maximal, en requtes par seconde.
+	 */
+	private volatile double rate;
+
+
+
+	/**
+	 * Temps cumul pass  attendre un jeton, en nanosecondes.
+	 */
+	private final LongAdder rateWaitTime = new LongAdder();
+
+
+
+	/**
+	 * Nombre de requtes autorises.
+	 */
+	private final LongAdder requestCount = new LongAdder();
+
+
+
+	/**
+	 * Nombre de rponses signales.
+	 */
+	private final LongAdder responseCount = new LongAdder();
+
+
+
+	/**
+	 * Temps de rponse cumul des rponses signales, en nanosecondes.
+	 */
+	private final LongAdder responseTime = new LongAdder();
+
+
+
+	/**
+	 * Nombre de jetons disponibles. Il peut tre ngatif si des jetons ont t rservs par anticipation.
+	 */
+	private double tokens;
+
+
+
+	/**
+	 * Verrou pour les jetons.
+	 */
+	private final Object tokensLock = new Object();
+
+
+
+	/**
+	 * Limiteur partag par toutes les requtes HTTP de la JVM vers ISTEX (voir {@link Readers}): 20 requtes par seconde, en rafale de 20 au plus, et 16 requtes simultanes au plus.<br>
+	 * Ces limites s'appliquent par dfaut  tous les utilisateurs de {@link Readers}, y compris ceux qui n'en ont pas connaissance. Elles peuvent tre modifies (voir {@link #setRate(double)},
+	 * {@link #setBurst(int)} et {@link #setMaxInFlight(int)}).
+	 */
+	public static final RateLimiter SHARED = new RateLimiter(20, 20, 16);
+
+
+}
@@ -8,7 +8,17 @@ import java.util.Map.*;
 
 
 /**
- * La classe {@link Readers} des mthodes permettant de lire des donnes.
+ * La classe {@link Readers} des mthodes permettant de lire des donnes.<br>
+ * Les requtes HTTP sont soumises  une politique de nouvelles tentatives ({@link RetryPolicy}): les erreurs rseau et les rponses signalant une surcharge ou une erreur transitoire du serveur
+ * (voir {@link RetryPolicy#isRetryable(int)}) sont suivies d'une nouvelle tentative de la mme requte aprs une attente. Les pages suivantes d'un parcours en mode scroll font exception: ISTEX
+ * avance le parcours ds qu'il a trait la requte, de sorte qu'une nouvelle tentative de la mme URL (contenant le <code>scrollId</code>) retournerait la page d'aprs. Elles ne sont donc retentes
+ * que si la requte n'a pas t traite (voir {@link RetryPolicy#isUnsent(IOException)} et {@link RetryPolicy#isRejected(int)}), toute autre erreur tant transmise  l'appelant, qui doit
+ * reprendre le parcours depuis sa premire page.<br>
+ * Chaque tentative est de plus soumise au limiteur de dbit et de concurrence partag {@link RateLimiter#SHARED}, qui limite par dfaut toutes les requtes de la JVM  20 par seconde et 16
+ * simultanes (limites modifiables, voir {@link RateLimiter}). Pour une lecture d'octets, la place est occupe jusqu' la fin de la lecture. Pour un
+ * flux, elle est libre ds la rception de la rponse, la lecture du flux tant sous le controle de l'appelant. Le temps de rponse de chaque tentative, et son ventuel chec transitoire, sont
+ * signals au limiteur (voir {@link RateLimiter#reportResponse(long, boolean)}).<br>
+ * Les rponses lues en octets peuvent tre enregistres sur disque, puis rejoues sans accs  ISTEX (voir {@link #setResponseStore(ResponseStore)}).
  * @author Ludovic WALLE
  */
 public class Readers {
@@ -38,59 +48,256 @@ public class Readers {
 
 
 	/**
-	 * Retourne les octets provenant de l'url indique.
+	 * Retourne les octets provenant de l'url indique, en appliquant la politique de nouvelles tentatives par dfaut ({@link RetryPolicy#DEFAULT}).
 	 * @param url URL.
 	 * @return Les octets reus.
 	 * @throws IOException
 	 */
 	public static byte[] getBytesFromURL(String url) throws IOException {
-		try (InputStream input = getConnection(url).getInputStream()) {
-			return Readers.getBytesFromStream(input);
+		return getBytesFromURL(url, RetryPolicy.DEFAULT);
+	}
+
+
+
+	/**
+	 * Retourne les octets provenant de l'url indique, en appliquant la politique de nouvelles tentatives indique.<br>
+	 * Une erreur survenant pendant la lecture de la rponse provoque aussi une nouvelle tentative, sauf pour une page suivante d'un parcours en mode scroll (voir {@link Readers}).<br>
+	 * Si il y a un stockage des rponses (voir {@link #setResponseStore(ResponseStore)}), la rponse y est lue ou enregistre selon son mode de fonctionnement.
+	 * @param url URL.
+	 * @param retryPolicy Politique de nouvelles tentatives.
+	 * @return Les octets reus.
+	 * @throws IOException
+	 */
+	public static byte[] getBytesFromURL(String url, RetryPolicy retryPolicy) throws IOException {
+		ResponseStore responseStore = Readers.responseStore;
+		byte[] bytes;
+		String key;
+
+		if (responseStore == null) {
+			return fetchBytesFromURL(url, retryPolicy);
+		}
+		key = responseStore.computeKey(url);
+		if ((bytes = responseStore.read(key)) == null) {
+			bytes = fetchBytesFromURL(url, retryPolicy);
+			responseStore.write(key, bytes);
 		}
+		responseStore.register(url, key, bytes);
+		return bytes;
 	}
 
 
 
 	/**
-	 * Retourne les octets provenant de l'url indique.
+	 * Retourne le stockage des rponses, ou <code>null</code> si il n'y en a pas.
+	 * @return Le stockage des rponses, ou <code>null</code> si il n'y en a pas.
+	 */
+	public static ResponseStore getResponseStore() {
+		return responseStore;
+	}
+
+
+
+	/**
+	 * Rgle le stockage des rponses lues en octets (voir {@link #getBytesFromURL(String, RetryPolicy)}), commun  tous les accs. Il permet d'enregistrer un moissonnage puis de le rejouer depuis
+	 * le disque, pour la mise au point ou pour des mesures de performances reproductibles.<br>
+	 * Par dfaut, il n'y en a pas.
+	 * @param responseStore Stockage des rponses, ou <code>null</code> pour ne pas en utiliser.
+	 */
+	public static void setResponseStore(ResponseStore responseStore) {
+		Readers.responseStore = responseStore;
+	}
+
+
+
+	/**
+	 * Retourne les octets provenant de l'url indique, demands  ISTEX en appliquant la politique de nouvelles tentatives indique.
 	 * @param url URL.
+	 * @param retryPolicy Politique de nouvelles tentatives.
 	 * @return Les octets reus.
 	 * @throws IOException
 	 */
+	private static byte[] fetchBytesFromURL(String url, RetryPolicy retryPolicy) throws IOException {
+		boolean continuation = url.contains("?scrollId=") || url.contains("&scrollId=");
+		byte[] bytes;
+		HttpURLConnection connection;
+		IOException failure;
+		long retryAfter;
+		long start;
+		int status;
+
+		for (int attempt = 1;; attempt++) {
+			status = -1;
+			retryAfter = -1;
+			RateLimiter.SHARED.acquire();
+			start = System.nanoTime();
+			try {
+				connection = getConnection(null, url);
+				if ((status = connection.getResponseCode()) < 400) {
+					try (InputStream input = connection.getInputStream()) {
+						bytes = getBytesFromStream(input);
+						retryPolicy.reportSuccess();
+						return bytes;
+					}
+				}
+				retryAfter = RetryPolicy.parseRetryAfter(connection.getHeaderField("Retry-After"));
+				connection.disconnect();
+				failure = new IOException("Rponse HTTP " + status + " pour " + url);
+			} catch (IOException exception) {
+				failure = exception;
+			} finally {
+				RateLimiter.SHARED.release();
+				RateLimiter.SHARED.reportResponse(System.nanoTime() - start, (status == -1) || RetryPolicy.isRetryable(status));
+			}
+			if (((status >= 400) && !RetryPolicy.isRetryable(status)) || (continuation && !((status == -1) ? RetryPolicy.isUnsent(failure) : RetryPolicy.isRejected(status))) || !retryPolicy.allowsRetry(attempt)) {
+				// une page suivante d'un parcours en mode scroll n'est retente que si la requte n'a pas t traite, ISTEX ayant sinon dj avanc le parcours
+				throw failure;
+			}
+			retryPolicy.pause(attempt, retryAfter);
+		}
+	}
+
+
+
+	/**
+	 * Retourne une connexion  l'url indique, aprs avoir suivi les ventuelles redirections.
+	 * @param url URL.
+	 * @return La connexion.
+	 * @throws IOException
+	 */
 	public static HttpURLConnection getConnection(String url) throws IOException {
+		return getConnection(null, url);
+	}
+
+
+
+	/**
+	 * Retourne une connexion  l'url indique, aprs avoir suivi les ventuelles redirections. Les enttes indiqus sont transmis  chaque requte, y compris aux redirections.
+	 * @param headers Enttes ventuels (peut tre <code>null</code>).
+	 * @param url URL.
+	 * @return La connexion.
+	 * @throws IOException
+	 */
+	public static HttpURLConnection getConnection(Map<String, String> headers, String url) throws IOException {
 		HttpURLConnection connection;
 		int retry = 10;
 
-		while ((((connection = (HttpURLConnection) new URL(url).openConnection()).getResponseCode() / 100) == 3) && ((url = connection.getHeaderField("Location")) != null)) {
+		for (;;) {
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			if (headers != null) {
+				for (Iterator<Entry<String, String>> headersIterator = headers.entrySet().iterator(); headersIterator.hasNext();) {
+					Entry<String, String> header = headersIterator.next();
+					connection.setRequestProperty(header.getKey(), header.getValue());
+				}
+			}
+			if (((connection.getResponseCode() / 100) != 3) || ((url = connection.getHeaderField("Location")) == null)) {
+				return connection;
+			}
 			if (retry-- == 0) {
 				throw new IOException("Trop de redirections.");
 			}
 		}
-		return connection;
 	}
 
 
 
 	/**
-	 * Retourne les octets provenant de l'url indique.
+	 * Retourne une connexion  l'url indique dont la rponse a t obtenue, en appliquant la politique de nouvelles tentatives par dfaut ({@link RetryPolicy#DEFAULT}) jusqu' l'obtention d'une
+	 * rponse. Son statut, ses enttes et son flux (voir {@link HttpURLConnection#getInputStream()}) sont disponibles.<br>
+	 * Les erreurs survenant pendant la lecture du flux ne provoquent pas de nouvelle tentative.
 	 * @param headers Enttes ventuels (peut tre <code>null</code>).
 	 * @param url URL.
-	 * @return Le flux provenant de l'url indique.
+	 * @return La connexion.
 	 * @throws IOException
 	 */
-	public static InputStream getStreamForURL(Map<String, String> headers, String url) throws IOException {
+	public static HttpURLConnection getConnectionForURL(Map<String, String> headers, String url) throws IOException {
+		return getConnectionForURL(headers, url, RetryPolicy.DEFAULT);
+	}
+
+
+
+	/**
+	 * Retourne une connexion  l'url indique dont la rponse a t obtenue, en appliquant la politique de nouvelles tentatives indique jusqu' l'obtention d'une rponse. Son statut, ses enttes et
+	 * son flux (voir {@link HttpURLConnection#getInputStream()}) sont disponibles.<br>
+	 * Les erreurs survenant pendant la lecture du flux ne provoquent pas de nouvelle tentative.
+	 * @param headers Enttes ventuels (peut tre <code>null</code>).
+	 * @param url URL.
+	 * @param retryPolicy Politique de nouvelles tentatives ({@link RetryPolicy#NONE} pour une seule tentative).
+	 * @return La connexion.
+	 * @throws IOException
+	 */
+	public static HttpURLConnection getConnectionForURL(Map<String, String> headers, String url, RetryPolicy retryPolicy) throws IOException {
 		HttpURLConnection connection;
+		IOException failure;
+		long retryAfter;
+		long start;
+		int status;
 
-		connection = getConnection(url);
-		if (headers != null) {
-			for (Iterator<Entry<String, String>> headersIterator = headers.entrySet().iterator(); headersIterator.hasNext();) {
-				Entry<String, String> header = headersIterator.next();
-				connection.setRequestProperty(header.getKey(), header.getValue());
+		for (int attempt = 1;; attempt++) {
+			status = -1;
+			retryAfter = -1;
+			RateLimiter.SHARED.acquire();
+			start = System.nanoTime();
+			try {
+				connection = getConnection(headers, url);
+				if ((status = connection.getResponseCode()) < 400) {
+					connection.getInputStream();
+					retryPolicy.reportSuccess();
+					return connection;
+				}
+				retryAfter = RetryPolicy.parseRetryAfter(connection.getHeaderField("Retry-After"));
+				connection.disconnect();
+				failure = new IOException("Rponse HTTP " + status + " pour " + url);
+			} catch (IOException exception) {
+				failure = exception;
+			} finally {
+				RateLimiter.SHARED.release();
+				RateLimiter.SHARED.reportResponse(System.nanoTime() - start, (status == -1) || RetryPolicy.isRetryable(status));
+			}
+			if (((status >= 400) && !RetryPolicy.isRetryable(status)) || !retryPolicy.allowsRetry(attempt)) {
+				throw failure;
 			}
+			retryPolicy.pause(attempt, retryAfter);
 		}
-		return connection.getInputStream();
 	}
 
 
 
+	/**
+	 * Retourne le flux provenant de l'url indique, en appliquant la politique de nouvelles tentatives par dfaut ({@link RetryPolicy#DEFAULT}) jusqu' l'obtention d'une rponse.<br>
+	 * Les erreurs survenant pendant la lecture du flux retourn ne provoquent pas de nouvelle tentative (voir {@link ResumableInputStream} pour un flux qui reprend la lecture).
+	 * @param headers Enttes ventuels (peut tre <code>null</code>).
+	 * @param url URL.
+	 * @return Le flux provenant de l'url indique.
+	 * @throws IOException
+	 */
+	public static InputStream getStreamForURL(Map<String, String> headers, String url) throws IOException {
+		return getConnectionForURL(headers, url).getInputStream();
+	}
+
+
+
+	/**
+	 * Stockage des rponses, ou <code>null</code> si il n'y en a pas.
+	 */
+	private static volatile ResponseStore responseStore;
+
+
+
+	/**
+	 * Dlai maximal d'tablissement d'une connexion, en millisecondes.
+	 */
+	private static final int CONNECT_TIMEOUT = 30000;
+
+
+
+	/**
+	 * Dlai maximal d'attente de donnes sur une connexion tablie, en millisecondes. Sans ce dlai, une connexion bloque bloquerait indfiniment la lecture, sans qu'une nouvelle tentative ne soit
+	 * possible.
+	 */
+	private static final int READ_TIMEOUT = 120000;
+
+
+
 }
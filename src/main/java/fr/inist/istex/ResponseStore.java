@@ -0,0 +1,387 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+import java.util.zip.*;
+
+import org.apache.logging.log4j.*;
+
+
+
+/**
+ * La classe {@link ResponseStore} implmente un stockage sur disque des rponses HTTP lues en octets par {@link Readers} (pages de rsultats, comptages, ...), permettant d'enregistrer un
+ * moissonnage puis de le rejouer sans accs  ISTEX (voir {@link Readers#setResponseStore(ResponseStore)}). Les flux (textes intgraux) ne sont pas concerns.<br>
+ * Chaque rponse est conserve compresse (GZIP) dans un fichier nomm d'aprs l'empreinte SHA-1 de sa cl, rparti dans un sous rpertoire d'aprs les premiers caractres de ce nom. La cl est
+ * l'URL normalise: paramtres tris, sans le <code>scrollId</code>, qui change  chaque moissonnage. Toutes les pages d'un parcours en mode scroll ayant le mme <code>scrollId</code>, la cl
+ * d'une page suivante est celle de la premire page du parcours, complte par le numro de la page. Le <code>scrollId</code> de chaque parcours est pour cela relev dans la rponse de sa premire
+ * page. En rejeu, ce sont les <code>scrollId</code> enregistrs qui sont retourns, puis demands, de sorte que les parcours sont reconstitus  l'identique.<br>
+ * Deux parcours simultans de la mme requte ne peuvent pas tre distingus: leurs pages seraient mlanges. Une nouvelle tentative d'un parcours reprend  sa premire page, dont le relev
+ * remet la numrotation des pages  zro.<br>
+ * Pour un parcours parallle par tranches ({@link IstexSlicedIterator}), chaque tranche porte sur une requte diffrente. Le dcoupage initial ne dpend que des comptages, eux aussi enregistrs, mais
+ * le redcoupage en cours de traitement dpend de l'avancement des ouvriers, et donc du moment: il est dsactiv tant qu'un stockage des rponses est utilis, pour que les mmes tranches soient
+ * demandes  l'enregistrement et au rejeu.<br>
+ * Les modes de fonctionnement sont dcrits par {@link Mode}.
+ * @author Ludovic WALLE
+ */
+public class ResponseStore {
+
+
+
+	/**
+	 * @param directory Rpertoire des rponses, cr si il n'existe pas.
+	 * @param mode Mode de fonctionnement (ne doit pas tre <code>null</code>).
+	 * @throws IOException Si le rpertoire n'a pas pu tre cr.
+	 */
+	public ResponseStore(File directory, Mode mode) throws IOException {
+		if (mode == null) {
+			throw new NullPointerException();
+		}
+		this.directory = Files.createDirectories(directory.toPath());
+		this.mode = mode;
+	}
+
+
+
+	/**
+	 * Retourne le rpertoire des rponses.
+	 * @return Le rpertoire des rponses.
+	 */
+	public final File getDirectory() {
+		return directory.toFile();
+	}
+
+
+
+	/**
+	 * Retourne le nombre de rponses lues sur le disque.
+	 * @return Le nombre de rponses lues sur le disque.
+	 */
+	public final long getHitCount() {
+		return hitCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre de rponses demandes  ISTEX.
+	 * @return Le nombre de rponses demandes  ISTEX.
+	 */
+	public final long getMissCount() {
+		return missCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le mode de fonctionnement.
+	 * @return Le mode de fonctionnement.
+	 */
+	public final Mode getMode() {
+		return mode;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public String toString() {
+		return directory + " (" + mode + "): " + hitCount.sum() + " rponses lues sur le disque, " + missCount.sum() + " demandes  ISTEX";
+	}
+
+
+
+	/**
+	 * Retourne la cl de la rponse  l'URL indique. Pour une page suivante d'un parcours en mode scroll, chaque appel retourne la cl de la page suivante.
+	 * @param url URL.
+	 * @return La cl de la rponse  l'URL indique.
+	 */
+	final String computeKey(String url) {
+		String normalized = normalize(url);
+		String scrollId;
+		Scroll scroll;
+
+		if ((scrollId = getParameter(url, "scrollId")) == null) {
+			return normalized;
+		}
+		synchronized (scrolls) {
+			if ((scroll = scrolls.get(scrollId)) == null) {
+				scrolls.put(scrollId, scroll = new Scroll(normalized));
+			}
+			return scroll.base + "#" + (++scroll.page);
+		}
+	}
+
+
+
+	/**
+	 * Retourne la rponse de cl indique si elle doit tre lue sur le disque, ou <code>null</code> si elle doit tre demande  ISTEX.
+	 * @param key Cl.
+	 * @return La rponse de cl indique, ou <code>null</code> si elle doit tre demande  ISTEX.
+	 * @throws IOException Si la rponse n'a pas pu tre lue, ou si elle n'a pas t enregistre en mode {@link Mode#REPLAY}.
+	 */
+	final byte[] read(String key) throws IOException {
+		Path file = computePath(key);
+
+		if ((mode == Mode.RECORD) || ((mode == Mode.CACHE) && !Files.exists(file))) {
+			missCount.increment();
+			return null;
+		}
+		try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+			hitCount.increment();
+			return Readers.getBytesFromStream(input);
+		} catch (NoSuchFileException exception) {
+			throw new IOException("Aucune rponse enregistre dans " + directory + " pour " + key, exception);
+		}
+	}
+
+
+
+	/**
+	 * Relve le <code>scrollId</code> de la rponse indique si c'est la premire page d'un parcours en mode scroll, pour pouvoir calculer la cl des pages suivantes.
+	 * @param url URL.
+	 * @param key Cl de la rponse.
+	 * @param bytes Rponse.
+	 */
+	final void register(String url, String key, byte[] bytes) {
+		Matcher matcher;
+
+		if ((getParameter(url, "scroll") != null) && (getParameter(url, "scrollId") == null) && (matcher = SCROLL_ID.matcher(new String(bytes, StandardCharsets.UTF_8))).find()) {
+			synchronized (scrolls) {
+				scrolls.put(matcher.group(1), new Scroll(key));
+			}
+		}
+	}
+
+
+
+	/**
+	 * Enregistre la rponse de cl indique, si le mode de fonctionnement le prvoit. L'criture se fait dans un fichier temporaire, dplac de faon atomique sous son nom dfinitif.
+	 * @param key Cl.
+	 * @param bytes Rponse.
+	 * @throws IOException
+	 */
+	final void write(String key, byte[] bytes) throws IOException {
+		Path file;
+		Path part;
+
+		if (mode != Mode.REPLAY) {
+			file = computePath(key);
+			Files.createDirectories(file.getParent());
+			part = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".part");
+			try {
+				try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(part))) {
+					output.write(bytes);
+				}
+				Files.move(part, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(part);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Retourne le chemin du fichier de la rponse de cl indique.
+	 * @param key Cl.
+	 * @return Le chemin du fichier.
+	 */
+	private Path computePath(String key) {
+		StringBuilder builder = new StringBuilder();
+
+		try {
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8))) {
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+		} catch (NoSuchAlgorithmException exception) {
+			throw new IstexException(LOGGER, Level.ERROR, exception);
+		}
+		return directory.resolve(builder.substring(0, 2)).resolve(builder.append(".gz").toString());
+	}
+
+
+
+	/**
+	 * Retourne la valeur (encode) du paramtre indiqu de l'URL indique, ou <code>null</code> si il n'y est pas.
+	 * @param url URL.
+	 * @param name Nom du paramtre.
+	 * @return La valeur du paramtre indiqu, ou <code>null</code> si il n'y est pas.
+	 */
+	private static String getParameter(String url, String name) {
+		int index;
+
+		if ((index = url.indexOf('?')) != -1) {
+			for (String parameter : url.substring(index + 1).split("&")) {
+				if (parameter.startsWith(name + "=")) {
+					return parameter.substring(name.length() + 1);
+				}
+			}
+		}
+		return null;
+	}
+
+
+
+	/**
+	 * Normalise l'URL indique: les paramtres sont tris, et le <code>scrollId</code> est retir.
+	 * @param url URL.
+	 * @return L'URL normalise.
+	 */
+	private static String normalize(String url) {
+		StringBuilder builder;
+		List<String> parameters;
+		int index;
+
+		if ((index = url.indexOf('?')) == -1) {
+			return url;
+		}
+		parameters = new ArrayList<>(Arrays.asList(url.substring(index + 1).split("&")));
+		for (Iterator<String> iterator = parameters.iterator(); iterator.hasNext();) {
+			String parameter = iterator.next();
+			if (parameter.isEmpty() || parameter.startsWith("scrollId=")) {
+				iterator.remove();
+			}
+		}
+		Collections.sort(parameters);
+		builder = new StringBuilder(url.substring(0, index + 1));
+		for (String parameter : parameters) {
+			builder.append(parameter).append('&');
+		}
+		return builder.substring(0, builder.length() - 1);
+	}
+
+
+
+	/**
+	 * Rpertoire des rponses.
+	 */
+	private final Path directory;
+
+
+
+	/**
+	 * Nombre de rponses lues sur le disque.
+	 */
+	private final LongAdder hitCount = new LongAdder();
+
+
+
+	/**
+	 * Nombre de rponses demandes  ISTEX.
+	 */
+	private final LongAdder missCount = new LongAdder();
+
+
+
+	/**
+	 * Mode de fonctionnement.
+	 */
+	private final Mode mode;
+
+
+
+	/**
+	 * Parcours en mode scroll, indexs par leur <code>scrollId</code>. Seuls les plus rcents sont conservs.
+	 */
+	private final Map<String, Scroll> scrolls = new LinkedHashMap<String, Scroll>() {
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override protected boolean removeEldestEntry(Map.Entry<String, Scroll> eldest) {
+			return size() > MAX_SCROLLS;
+		}
+
+
+
+		/**
+		 * Numro de version pour la srialisation.
+		 */
+		private static final long serialVersionUID = 1L;
+
+
+
+	};
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+	/**
+	 * Nombre maximal de parcours en mode scroll suivis simultanment.
+	 */
+	private static final int MAX_SCROLLS = 10000;
+
+
+
+	/**
+	 * Modle de syntaxe pour le <code>scrollId</code> d'une rponse ISTEX.
+	 */
+	private static final Pattern SCROLL_ID = Pattern.compile("\"scrollId\"\\s*:\\s*\"([^\"]+)\"");
+
+
+
+	/**
+	 * L'numration {@link Mode} recense les modes de fonctionnement d'un {@link ResponseStore}.
+	 * @author Ludovic WALLE
+	 */
+	public static enum Mode {
+		/** Les rponses enregistres sont lues sur le disque, les autres sont demandes  ISTEX et enregistres. */
+		CACHE,
+		/** Toutes les rponses sont demandes  ISTEX et enregistres, en remplaant les ventuelles rponses dj enregistres. */
+		RECORD,
+		/** Toutes les rponses sont lues sur le disque, sans aucun accs  ISTEX. Une rponse non enregistre provoque une erreur. */
+		REPLAY,
+	}
+
+
+
+	/**
+	 * La classe {@link Scroll} reprsente un parcours en mode scroll.
+	 * @author Ludovic WALLE
+	 */
+	private static class Scroll {
+
+
+
+		/**
+		 * @param base Cl de la premire page.
+		 */
+		public Scroll(String base) {
+			this.base = base;
+		}
+
+
+
+		/**
+		 * Cl de la premire page.
+		 */
+		public final String base;
+
+
+
+		/**
+		 * Numro de la dernire page demande (la premire page a le numro 0).
+		 */
+		public int page;
+
+
+
+	}
+
+
+
+}
@@ -0,0 +1,323 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import org.apache.logging.log4j.*;
+
+
+
+/**
+ * La classe {@link ResumableInputStream} reprsente le flux provenant d'une url, qui reprend la lecture l o elle s'tait arrte lorsque la connexion est interrompue.<br>
+ * Le nombre d'octets reus est suivi. Si une erreur survient pendant la lecture, ou si le flux se termine avant la longueur annonce par le serveur, une nouvelle connexion est tablie, demandant
+ * uniquement les octets restants (entte <code>Range</code>). Si le serveur a fourni un validateur (entte <code>ETag</code> fort, ou  dfaut <code>Last-Modified</code>), il est transmis (entte
+ * <code>If-Range</code>), de sorte que les octets restants ne sont accepts que si la ressource n'a pas chang.<br>
+ * Si le serveur ignore la demande partielle et renvoie la ressource complte, les octets dj reus sont sauts, sauf si un validateur avait t transmis, auquel cas la ressource a chang et
+ * la lecture choue.<br>
+ * Les reprises suivent la politique de nouvelles tentatives indique, le nombre de tentatives tant remis  zro ds que des octets sont reus. Chaque reprise ne fait qu'une tentative de connexion,
+ * dont l'chec compte comme une tentative de reprise.<br>
+ * Cette classe n'est pas utilisable de faon concurrente.
+ * @author Ludovic WALLE
+ */
+public class ResumableInputStream extends InputStream {
+
+
+
+	/**
+	 * Ouvre le flux avec la politique de nouvelles tentatives par dfaut ({@link RetryPolicy#DEFAULT}).
+	 * @param headers Enttes ventuels (peut tre <code>null</code>).
+	 * @param url URL.
+	 * @throws IOException
+	 */
+	public ResumableInputStream(Map<String, String> headers, String url) throws IOException {
+		this(headers, url, RetryPolicy.DEFAULT);
+	}
+
+
+
+	/**
+	 * @param headers Enttes ventuels (peut tre <code>null</code>).
+	 * @param url URL.
+	 * @param retryPolicy Politique de nouvelles tentatives pour les reprises.
+	 * @throws IOException
+	 */
+	public ResumableInputStream(Map<String, String> headers, String url, RetryPolicy retryPolicy) throws IOException {
+		String etag;
+
+		this.headers = (headers != null) ? new HashMap<>(headers) : new HashMap<>();
+		this.url = url;
+		this.retryPolicy = retryPolicy;
+		connection = Readers.getConnectionForURL(this.headers, url);
+		input = connection.getInputStream();
+		length = connection.getContentLengthLong();
+		if (((etag = connection.getHeaderField("ETag")) != null) && !etag.startsWith("W/")) {
+			validator = etag;
+		} else {
+			validator = connection.getHeaderField("Last-Modified");
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int available() throws IOException {
+		if (input == null) {
+			throw new IOException("Le flux est ferm.");
+		}
+		try {
+			return input.available();
+		} catch (IOException exception) {
+			return 0;
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public void close() throws IOException {
+		if (input != null) {
+			try {
+				input.close();
+			} finally {
+				input = null;
+				connection.disconnect();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Retourne la longueur annonce par le serveur, ou -1 si elle n'est pas connue.
+	 * @return La longueur annonce par le serveur, ou -1 si elle n'est pas connue.
+	 */
+	public final long getLength() {
+		return length;
+	}
+
+
+
+	/**
+	 * Retourne le nombre d'octets lus.
+	 * @return Le nombre d'octets lus.
+	 */
+	public final long getPosition() {
+		return position;
+	}
+
+
+
+	/**
+	 * Retourne le nombre de reprises effectues.
+	 * @return Le nombre de reprises effectues.
+	 */
+	public final int getResumeCount() {
+		return resumeCount;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int read() throws IOException {
+		byte[] buffer = new byte[1];
+		int count;
+
+		while ((count = read(buffer, 0, 1)) == 0) {
+			// un flux bloquant ne retourne 0 octets que si 0 octets sont demands
+		}
+		return (count == -1) ? -1 : buffer[0] & 0xFF;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int read(byte[] buffer, int offset, int count) throws IOException {
+		int read;
+
+		if (input == null) {
+			throw new IOException("Le flux est ferm.");
+		}
+		if (count == 0) {
+			return 0;
+		}
+		for (;;) {
+			try {
+				if ((read = input.read(buffer, offset, count)) >= 0) {
+					position += read;
+					attempt = 0;
+					return read;
+				} else if ((length < 0) || (position >= length)) {
+					return -1;
+				}
+				resume(new EOFException("Fin prmature du flux provenant de " + url + " aprs " + position + " octets sur " + length + "."));
+			} catch (InterruptedIOException exception) {
+				throw exception;
+			} catch (IOException exception) {
+				resume(exception);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Reprend la lecture  la position courante par une nouvelle connexion, aprs la pause prvue par la politique de nouvelles tentatives. Une connexion qui choue est suivie d'une nouvelle
+	 * tentative de reprise, dans la limite de cette politique.
+	 * @param failure Erreur ayant interrompu la lecture, transmise si la politique de nouvelles tentatives n'autorise pas de reprise.
+	 * @throws IOException
+	 */
+	private void resume(IOException failure) throws IOException {
+		Map<String, String> headers;
+		String range;
+		int status;
+
+		try {
+			input.close();
+		} catch (IOException exception) {
+			// la connexion est dj interrompue
+		}
+		connection.disconnect();
+		headers = new HashMap<>(this.headers);
+		if (position > 0) {
+			headers.put("Range", "bytes=" + position + "-");
+			if (validator != null) {
+				headers.put("If-Range", validator);
+			}
+		}
+		for (;;) {
+			if (!retryPolicy.allowsRetry(++attempt)) {
+				throw failure;
+			}
+			LOGGER.log(Level.WARN, "Reprise (" + attempt + ") de la lecture de " + url + "  l'octet " + position + " aprs l'erreur: " + failure);
+			retryPolicy.pause(attempt, -1);
+			try {
+				connection = Readers.getConnectionForURL(headers, url, RetryPolicy.NONE);
+				input = connection.getInputStream();
+				break;
+			} catch (InterruptedIOException exception) {
+				throw exception;
+			} catch (IOException exception) {
+				failure = exception;
+			}
+		}
+		resumeCount++;
+		if ((status = connection.getResponseCode()) == HttpURLConnection.HTTP_PARTIAL) {
+			if (((range = connection.getHeaderField("Content-Range")) == null) || !range.trim().startsWith("bytes " + position + "-")) {
+				throw new IOException("Reprise de la lecture de " + url + "  l'octet " + position + " refuse: plage reue " + range + ".");
+			}
+		} else if ((position > 0) && (validator != null)) {
+			throw new IOException("La ressource " + url + " a chang pendant la lecture (rponse HTTP " + status + "  la reprise  l'octet " + position + ").");
+		} else {
+			skip(input, position);
+		}
+	}
+
+
+
+	/**
+	 * Saute le nombre d'octets indiqu du flux indiqu, lorsque le serveur a renvoy la ressource complte.
+	 * @param input Flux.
+	 * @param count Nombre d'octets  sauter.
+	 * @throws IOException
+	 */
+	private void skip(InputStream input, long count) throws IOException {
+		byte[] buffer = new byte[8192];
+		long remaining;
+		int read;
+
+		for (remaining = count; remaining > 0; remaining -= read) {
+			if ((read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining))) == -1) {
+				throw new EOFException("Fin prmature du flux provenant de " + url + " en sautant les " + count + " octets dj reus.");
+			}
+		}
+	}
+
+
+
+	/**
+	 * Nombre de tentatives de reprise conscutives sans octet reu.
+	 */
+	private int attempt;
+
+
+
+	/**
+	 * Connexion courante.
+	 */
+	private HttpURLConnection connection;
+
+
+
+	/**
+	 * Enttes de la requte initiale.
+	 */
+	private final Map<String, String> headers;
+
+
+
+	/**
+	 * Flux de la connexion courante, ou <code>null</code> si le flux est ferm.
+	 */
+	private InputStream input;
+
+
+
+	/**
+	 * Longueur annonce par le serveur, ou -1 si elle n'est pas connue.
+	 */
+	private final long length;
+
+
+
+	/**
+	 * Nombre d'octets lus.
+	 */
+	private long position;
+
+
+
+	/**
+	 * Nombre de reprises effectues.
+	 */
+	private int resumeCount;
+
+
+
+	/**
+	 * Politique de nouvelles tentatives pour les reprises.
+	 */
+	private final RetryPolicy retryPolicy;
+
+
+
+	/**
+	 * URL.
+	 */
+	private final String url;
+
+
+
+	/**
+	 * Validateur de la ressource (<code>ETag</code> fort ou <code>Last-Modified</code>), ou <code>null</code> si le serveur n'en a pas fourni.
+	 */
+	private final String validator;
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+}
@@ -0,0 +1,280 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.net.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+
+/**
+ * La classe {@link RetryPolicy} dfinit une politique de nouvelles tentatives pour les requtes vers ISTEX.<br>
+ * Les tentatives successives d'une mme requte sont espaces d'une attente exponentielle (double  chaque tentative et plafonne), tire alatoirement entre zro et cette valeur (gigue), pour
+ * viter que des requtes parallles chouant en mme temps ne soient relances en mme temps. Si ISTEX indique une attente par l'entte <code>Retry-After</code>, elle est respecte, dans la limite de l'attente maximale.<br>
+ * Le nombre de tentatives d'une requte est plafonn. Le nombre total de nouvelles tentatives est de plus limit par un budget partag par toutes les requtes utilisant la politique: chaque nouvelle
+ * tentative consomme une unit du budget, et chaque succs en restitue une fraction. Un API ISTEX durablement en erreur puise le budget, et les requtes chouent alors ds la premire erreur au
+ * lieu de la surcharger davantage.
+ * @author Ludovic WALLE
+ */
+public class RetryPolicy {
+
+
+
+	/**
+	 * @param maxAttempts Nombre maximal de tentatives pour une requte (doit tre strictement positif).
+	 * @param initialDelay Attente maximale avant la deuxime tentative, en millisecondes (doit tre positif ou nul).
+	 * @param maxDelay Plafond de l'attente entre deux tentatives, en millisecondes (doit tre suprieur ou gal  <code>initialDelay</code>).
+	 * @param budget Nombre maximal de nouvelles tentatives pouvant tre faites sans succs intermdiaire (doit tre strictement positif).
+	 * @param refill Fraction de nouvelle tentative restitue au budget  chaque succs (doit tre positive ou nulle).
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, int budget, double refill) {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("Le nombre maximal de tentatives doit tre strictement positif: " + maxAttempts);
+		}
+		if ((initialDelay < 0) || (maxDelay < initialDelay)) {
+			throw new IllegalArgumentException("Les attentes sont incohrentes: " + initialDelay + ", " + maxDelay);
+		}
+		if ((budget <= 0) || (refill < 0)) {
+			throw new IllegalArgumentException("Le budget est incohrent: " + budget + ", " + refill);
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.budget = budget;
+		this.refill = refill;
+		this.tokens = budget;
+	}
+
+
+
+	/**
+	 * Teste si une nouvelle tentative est autorise aprs l'chec de la tentative indique, et si c'est le cas, la dcompte du budget.
+	 * @param attempt Numro de la tentative qui a chou ( partir de 1).
+	 * @return <code>true</code> si une nouvelle tentative est autorise, <code>false</code> sinon.
+	 */
+	public final boolean allowsRetry(int attempt) {
+		if (attempt >= maxAttempts) {
+			return false;
+		}
+		synchronized (tokensLock) {
+			if (tokens < 1) {
+				return false;
+			}
+			tokens--;
+			return true;
+		}
+	}
+
+
+
+	/**
+	 * Calcule l'attente avant la tentative suivant celle indique, en millisecondes. Elle ne dpasse jamais l'attente maximale, mme si ISTEX demande une attente plus longue.
+	 * @param attempt Numro de la tentative qui a chou ( partir de 1).
+	 * @param retryAfter Attente demande par ISTEX en millisecondes, ou -1 si il n'y en a pas.
+	 * @return L'attente avant la tentative suivante, en millisecondes.
+	 */
+	public final long computeDelay(int attempt, long retryAfter) {
+		long ceiling;
+		int shift;
+
+		if ((shift = Math.max(0, attempt - 1)) >= (Long.numberOfLeadingZeros(initialDelay) - 1)) {
+			// le doublement dpasserait la capacit d'un long
+			ceiling = maxDelay;
+		} else {
+			ceiling = Math.min(maxDelay, initialDelay << shift);
+		}
+		return Math.min(maxDelay, Math.max(retryAfter, (ceiling == 0) ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1)));
+	}
+
+
+
+	/**
+	 * Retourne le nombre de nouvelles tentatives encore disponibles dans le budget.
+	 * @return Le nombre de nouvelles tentatives encore disponibles dans le budget.
+	 */
+	public final double getAvailableBudget() {
+		synchronized (tokensLock) {
+			return tokens;
+		}
+	}
+
+
+
+	/**
+	 * Attend avant la tentative suivant celle indique.
+	 * @param attempt Numro de la tentative qui a chou ( partir de 1).
+	 * @param retryAfter Attente demande par ISTEX en millisecondes, ou -1 si il n'y en a pas.
+	 * @throws InterruptedIOException Si l'attente a t interrompue.
+	 */
+	public final void pause(int attempt, long retryAfter) throws InterruptedIOException {
+		try {
+			Thread.sleep(computeDelay(attempt, retryAfter));
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw (InterruptedIOException) new InterruptedIOException("L'attente avant une nouvelle tentative a t interrompue.").initCause(exception);
+		}
+	}
+
+
+
+	/**
+	 * Signale le succs d'une requte, ce qui restitue une fraction de nouvelle tentative au budget.
+	 */
+	public final void reportSuccess() {
+		synchronized (tokensLock) {
+			tokens = Math.min(budget, tokens + refill);
+		}
+	}
+
+
+
+	/**
+	 * Teste si une rponse HTTP ayant le statut indiqu signale une requte refuse sans avoir t traite (surcharge), qui peut donc tre retente mme si elle n'est pas idempotente.
+	 * @param status Statut HTTP.
+	 * @return <code>true</code> si la requte a t refuse sans avoir t traite, <code>false</code> sinon.
+	 */
+	public static boolean isRejected(int status) {
+		switch (status) {
+		case 429: // Too Many Requests
+		case 503: // Service Unavailable
+			return true;
+		default:
+			return false;
+		}
+	}
+
+
+
+	/**
+	 * Teste si une rponse HTTP ayant le statut indiqu justifie une nouvelle tentative (surcharge ou erreur transitoire du serveur).
+	 * @param status Statut HTTP.
+	 * @return <code>true</code> si une nouvelle tentative est justifie, <code>false</code> sinon.
+	 */
+	public static boolean isRetryable(int status) {
+		switch (status) {
+		case 408: // Request Timeout
+		case 429: // Too Many Requests
+		case 500: // Internal Server Error
+		case 502: // Bad Gateway
+		case 503: // Service Unavailable
+		case 504: // Gateway Timeout
+			return true;
+		default:
+			return false;
+		}
+	}
+
+
+
+	/**
+	 * Teste si l'erreur indique est survenue avant que la requte n'ait t transmise (chec d'tablissement de la connexion), qui peut donc tre retente mme si elle n'est pas idempotente. Un
+	 * dpassement de dlai n'en fait pas partie, la requte ayant pu tre transmise.
+	 * @param exception Erreur.
+	 * @return <code>true</code> si la requte n'a pas t transmise, <code>false</code> sinon.
+	 */
+	public static boolean isUnsent(IOException exception) {
+		return (exception instanceof ConnectException) || (exception instanceof NoRouteToHostException) || (exception instanceof UnknownHostException);
+	}
+
+
+
+	/**
+	 * Interprte la valeur de l'entte HTTP <code>Retry-After</code>, qui est soit un nombre de secondes, soit une date HTTP.
+	 * @param value Valeur de l'entte (peut tre <code>null</code>).
+	 * @return L'attente demande en millisecondes, ou -1 si il n'y en a pas ou si elle n'est pas interprtable.
+	 */
+	public static long parseRetryAfter(String value) {
+		SimpleDateFormat format;
+
+		if ((value == null) || (value = value.trim()).isEmpty()) {
+			return -1;
+		} else if (value.matches("[0-9]{1,9}")) {
+			return Long.parseLong(value) * 1000;
+		} else {
+			format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			try {
+				return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+			} catch (ParseException exception) {
+				return -1;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Nombre maximal de nouvelles tentatives pouvant tre faites sans succs intermdiaire.
+	 */
+	private final int budget;
+
+
+
+	/**
+	 * Attente maximale avant la deuxime tentative, en millisecondes.
+	 */
+	private final long initialDelay;
+
+
+
+	/**
+	 * Nombre maximal de tentatives pour une requte.
+	 */
+	private final int maxAttempts;
+
+
+
+	/**
+	 * Plafond de l'attente entre deux tentatives, en millisecondes.
+	 */
+	private final long maxDelay;
+
+
+
+	/**
+	 * Fraction de nouvelle tentative restitue au budget  chaque succs.
+	 */
+	private final double refill;
+
+
+
+	/**
+	 * Nouvelles tentatives encore disponibles dans le budget.
+	 */
+	private double tokens;
+
+
+
+	/**
+	 * Verrou pour les nouvelles tentatives encore disponibles dans le budget.
+	 */
+	private final Object tokensLock = new Object();
+
+
+
+	/**
+	 * Politique utilise par dfaut pour les requtes HTTP vers ISTEX: 8 tentatives par requte, attente initiale de 500ms plafonne  une minute, budget de 100 nouvelles tentatives, avec une
+	 * restitution d'un dixime de tentative par succs.
+	 */
+	public static final RetryPolicy DEFAULT = new RetryPolicy(8, 500, 60000, 100, 0.1);
+
+
+
+	/**
+	 * Politique sans nouvelle tentative: une seule tentative est faite. Elle est destine aux requtes dont les nouvelles tentatives sont gres par l'appelant (voir {@link ResumableInputStream}
+	 * et {@link IstexSlicedIterator}).
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 1, 0);
+
+
+
+	/**
+	 * Politique utilise pour relancer la recherche sur une tranche de {@link IstexSlicedIterator} aprs une erreur, les requtes d'une tranche n'tant pas retentes individuellement (elles suivent
+	 * {@link #NONE}): 10 tentatives par tranche, attente initiale de 5s plafonne  cinq minutes, budget de 50 nouvelles tentatives, avec une restitution d'une tentative par tranche termine.
+	 */
+	public static final RetryPolicy SLICE = new RetryPolicy(10, 5000, 300000, 50, 1);
+
+
+
+}
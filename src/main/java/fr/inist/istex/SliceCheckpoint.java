@@ -0,0 +1,254 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.logging.log4j.*;
+
+
+
+/**
+ * La classe {@link SliceCheckpoint} enregistre dans un fichier les tranches d'un {@link IstexSlicedIterator} dont tous les rsultats ont t retourns, pour qu'une nouvelle excution de la mme
+ * recherche, aprs un arrt de la JVM, ne refasse pas ces tranches.<br>
+ * Le fichier est un fichier texte en UTF-8. La premire ligne contient la requte (encode comme dans une URL), suivie de la part en mode rparti, et chacune des lignes suivantes la cl d'une tranche termine (voir
+ * {@link SlicePlanner.Slice#getKey()}) et le nombre de rsultats retourns pour cette tranche, spars par une tabulation. Une dernire ligne qui n'est pas termine par une fin de
+ * ligne (arrt pendant l'criture) est ignore, mme si elle semble valide. Une tranche enregistre plusieurs fois n'est compte qu'une fois.<br>
+ * Les critures sont faites par un thread ddi, de sorte que l'enregistrement d'une tranche ne ralentit pas le parcours des rsultats. Chaque lot de lignes est vid vers le fichier ds qu'il est
+ * crit. Une erreur d'criture est signale dans le log et arrte l'enregistrement, sans interrompre le parcours.<br>
+ * Les positions de parcours des tranches en cours ne sont pas enregistres: ISTEX abandonne un parcours en mode scroll inutilis aprs quelques minutes (voir {@link IstexSimpleIterator}), ce qui les
+ * rendrait inutilisables lors d'une reprise. Les tranches en cours lors de l'arrt sont donc refaites entirement.
+ * @author Ludovic WALLE
+ */
+class SliceCheckpoint {
+
+
+
+	/**
+	 * Lit le fichier indiqu si il existe, et dmarre l'enregistrement.
+	 * @param file Fichier.
+	 * @param query Requte.
+	 * @param shardIndex Numro de la part.
+	 * @param shardCount Nombre de parts (1 si la recherche n'est pas rpartie).
+	 * @throws IstexException Si le fichier ne peut tre lu ou crit, ou si il correspond  une autre requte ou  une autre part.
+	 */
+	public SliceCheckpoint(File file, String query, int shardIndex, int shardCount) throws IstexException {
+		List<String> previousLines = new ArrayList<>();
+		Set<String> keys = new HashSet<>();
+		boolean complete;
+		String header;
+		String line;
+		int tab;
+
+		this.file = file;
+		try {
+			header = URLEncoder.encode(query, "UTF-8") + ((shardCount > 1) ? "\t" + shardIndex + "/" + shardCount : "");
+			if (file.exists()) {
+				try (RandomAccessFile random = new RandomAccessFile(file, "r")) {
+					if (random.length() == 0) {
+						complete = true;
+					} else {
+						random.seek(random.length() - 1);
+						complete = random.read() == '\n';
+					}
+				}
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+					if (!header.equals(reader.readLine())) {
+						throw new IstexException(LOGGER, Level.ERROR, "Le fichier de reprise \"" + file + "\" ne correspond pas  la requte \"" + query + "\"" + ((shardCount > 1) ? " (part " + shardIndex + "/" + shardCount + ")" : "") + ".");
+					}
+					while ((line = reader.readLine()) != null) {
+						previousLines.add(line);
+					}
+				}
+				if (!complete && !previousLines.isEmpty()) {
+					// la dernire ligne est incomplte (arrt pendant l'criture), mme si elle semble valide: elle est retire du fichier pour ne pas tre prolonge
+					line = previousLines.remove(previousLines.size() - 1);
+					LOGGER.log(Level.WARN, "Dans le fichier de reprise \"" + file + "\", la dernire ligne \"" + line + "\" est incomplte, elle est ignore.");
+					try (RandomAccessFile random = new RandomAccessFile(file, "rw")) {
+						random.setLength(random.length() - line.getBytes(StandardCharsets.UTF_8).length);
+					}
+					complete = true;
+				}
+				for (String previousLine : previousLines) {
+					if (((tab = previousLine.indexOf('\t')) <= 0) || !previousLine.substring(tab + 1).matches("[0-9]{1,9}")) {
+						LOGGER.log(Level.WARN, "Dans le fichier de reprise \"" + file + "\", la ligne \"" + previousLine + "\" est ignore.");
+					} else if (keys.add(previousLine.substring(0, tab))) {
+						// une tranche enregistre plusieurs fois n'est compte qu'une fois
+						done.addAll(Arrays.asList(previousLine.substring(0, tab).split(",")));
+						resumedCount += Integer.parseInt(previousLine.substring(tab + 1));
+					}
+				}
+				LOGGER.log(Level.INFO, "Reprise de la requte \"" + query + "\"  partir de \"" + file + "\": " + resumedCount + " rsultats dj retourns.");
+				output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+				if (!complete) {
+					// seul l'entte est prsent, sans fin de ligne
+					output.newLine();
+				}
+			} else {
+				output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+				output.write(header);
+				output.newLine();
+				output.flush();
+			}
+		} catch (IOException exception) {
+			throw new IstexException(LOGGER, Level.ERROR, "Erreur d'accs au fichier de reprise \"" + file + "\".", exception);
+		}
+		writer = new Writer();
+		writer.start();
+	}
+
+
+
+	/**
+	 * Termine l'enregistrement, aprs avoir crit les tranches dj signales.
+	 */
+	public void close() {
+		lines.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+
+	/**
+	 * Retourne les prfixes de fin d'ARK des tranches termines lors des excutions prcdentes.
+	 * @return Les prfixes de fin d'ARK des tranches termines lors des excutions prcdentes.
+	 */
+	public Set<String> getDone() {
+		return Collections.unmodifiableSet(done);
+	}
+
+
+
+	/**
+	 * Retourne le nombre de rsultats retourns lors des excutions prcdentes.
+	 * @return Le nombre de rsultats retourns lors des excutions prcdentes.
+	 */
+	public int getResumedCount() {
+		return resumedCount;
+	}
+
+
+
+	/**
+	 * Signale que tous les rsultats de la tranche indique ont t retourns. L'criture est faite ultrieurement, cette mthode n'est pas bloquante.
+	 * @param slice Tranche.
+	 * @param count Nombre de rsultats retourns pour cette tranche.
+	 */
+	public void record(SlicePlanner.Slice slice, int count) {
+		lines.add(slice.getKey() + "\t" + count);
+	}
+
+
+
+	/**
+	 * Prfixes de fin d'ARK des tranches termines lors des excutions prcdentes.
+	 */
+	private final Set<String> done = new HashSet<>();
+
+
+
+	/**
+	 * Fichier.
+	 */
+	private final File file;
+
+
+
+	/**
+	 * Lignes  crire.
+	 */
+	private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+
+
+	/**
+	 * Flux d'criture dans le fichier.
+	 */
+	private final BufferedWriter output;
+
+
+
+	/**
+	 * Nombre de rsultats retourns lors des excutions prcdentes.
+	 */
+	private int resumedCount = 0;
+
+
+
+	/**
+	 * Thread d'criture.
+	 */
+	private final Writer writer;
+
+
+
+	/**
+	 * Marqueur de fin d'enregistrement, plac dans la file des lignes  crire.
+	 */
+	private static final String END = new String();
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+	/**
+	 * La classe {@link Writer} crit dans le fichier les lignes signales, par lots.
+	 * @author Ludovic WALLE
+	 */
+	private final class Writer extends Thread {
+
+
+
+		/**	*/
+		private Writer() {
+			super("SliceCheckpoint");
+			setDaemon(true);
+		}
+
+
+
+		/** {@inheritDoc} */
+		@Override public void run() {
+			List<String> batch = new ArrayList<>();
+			boolean ended = false;
+
+			try (BufferedWriter writer = output) {
+				while (!ended) {
+					batch.add(lines.take());
+					lines.drainTo(batch);
+					for (String line : batch) {
+						if (line == END) {
+							ended = true;
+						} else {
+							writer.write(line);
+							writer.newLine();
+						}
+					}
+					writer.flush();
+					batch.clear();
+				}
+			} catch (IOException exception) {
+				LOGGER.log(Level.ERROR, "Erreur d'criture dans le fichier de reprise \"" + file + "\", les tranches termines ne sont plus enregistres.", exception);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+
+
+	}
+
+
+
+}
@@ -0,0 +1,640 @@
+package fr.inist.istex;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.logging.log4j.*;
+
+import toolbox.json.*;
+import toolbox.json.JsonObject.*;
+
+
+
+/**
+ * La classe {@link SlicePlanner} dcoupe une recherche ISTEX en tranches de tailles voisines, pour {@link IstexSlicedIterator}.<br>
+ * Le dcoupage se fait sur la fin de l'ARK ISTEX (<code>[0-9BCDFGHJKLMNPQRSTVWXZ]{8}-[0-9BCDFGHJKLMNPQRSTVWXZ]</code>, voir {@link Istex.Hit#arkIstex}), dont les caractres semblent avoir une
+ * frquence uniforme. Un prfixe de cette fin d'ARK dsigne un sous ensemble de documents, et ses 30 prolongements d'un caractre le partitionnent.<br>
+ * Le nombre de documents de chaque prfixe est obtenu par une requte ne retournant aucun rsultat (<code>size=0</code>), donc peu couteuse. Les prfixes vides sont ignors, ceux contenant trop
+ * de documents sont remplacs par leurs prolongements, et les prfixes conscutifs contenant peu de documents sont regroups dans une mme tranche. La taille vise pour les tranches dpend du nombre
+ * total de rsultats et du nombre d'excutions parallles, dans des limites qui vitent  la fois les tranches trop petites, dont le cot est domin par les requtes, et les tranches trop grandes,
+ * dont l'chec est couteux.<br>
+ * Les prfixes initiaux (les 30 prfixes d'un caractre, ou ceux de la part en mode rparti) sont compts en parallle  la cration du dcoupeur, et la somme de leurs nombres de documents donne le
+ * nombre total de documents, sans attendre une requte prliminaire sur la recherche complte. Ils peuvent tre classs par nombre de documents dcroissant, pour que les tranches les plus grosses,
+ * dont les premiers rsultats arrivent le plus vite et qui sont les plus longues  traiter, soient distribues en premier. Une recherche dont le nombre total de rsultats ne dpasse pas la taille
+ * vise n'est pas dcoupe: elle constitue une tranche unique.<br>
+ * Le dcoupage est ensuite progressif: les comptages complmentaires sont faits au fur et  mesure des demandes de tranches, ce qui permet de commencer  traiter les premires tranches sans attendre
+ * que tout le dcoupage soit fait.<br>
+ * En mode rparti (voir {@link #shard(String, int, int, int, boolean, Set)}), le dcoupage est limit  une partie des prfixes de deux caractres, dtermine par le numro de la part et le nombre de parts,
+ * ce qui permet  plusieurs instances indpendantes de traiter chacune une partie disjointe d'une mme recherche.<br>
+ * Lors d'une reprise (voir {@link SliceCheckpoint}), les prfixes dj traits sont ignors, et les prfixes dont une partie a dj t traite sont remplacs par leurs prolongements, quelle que soit
+ * leur taille.
+ * @author Ludovic WALLE
+ */
+class SlicePlanner {
+
+
+
+	/**
+	 * @param query Requte.
+	 * @param roots Prfixes  dcouper, dans l'ordre.
+	 * @param target Taille vise pour les tranches.
+	 * @param total Nombre total de documents des prfixes  dcouper, ou -1 si il n'est pas connu.
+	 * @param done Prfixes dj traits lors d'une excution prcdente.
+	 */
+	private SlicePlanner(String query, Collection<Prefix> roots, int target, int total, Set<String> done) {
+		this.query = query;
+		this.target = target;
+		this.total = total;
+		this.done = done;
+		pending.addAll(roots);
+	}
+
+
+
+	/**
+	 * Compte en parallle les documents des prfixes indiqus, et enregistre les comptages dans les prfixes.
+	 * @param query Requte.
+	 * @param prefixes Prfixes.
+	 * @param parallelism Nombre maximal de requtes de comptage simultanes.
+	 * @throws IstexException En cas d'erreur de comptage.
+	 */
+	private static void count(final String query, List<Prefix> prefixes, int parallelism) throws IstexException {
+		ExecutorService executor;
+		List<Future<Integer>> counts = new ArrayList<>(prefixes.size());
+
+		executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, prefixes.size())), new ThreadFactory() {
+
+
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SlicePlanner");
+
+				thread.setDaemon(true);
+				return thread;
+			}
+
+
+
+		});
+		try {
+			for (final Prefix prefix : prefixes) {
+				counts.add(executor.submit(new Callable<Integer>() {
+
+
+
+					/**
+					 * {@inheritDoc}
+					 */
+					@Override public Integer call() throws IstexException {
+						return count(prefix.query(query));
+					}
+
+
+
+				}));
+			}
+			for (int i = 0; i < prefixes.size(); i++) {
+				prefixes.get(i).count = counts.get(i).get().intValue();
+			}
+		} catch (ExecutionException exception) {
+			throw (exception.getCause() instanceof IstexException) ? (IstexException) exception.getCause() : new IstexException(LOGGER, Level.ERROR, exception.getCause());
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IstexException(LOGGER, Level.ERROR, "Pour la requte \"" + query + "\", les comptages ont t interrompus.", exception);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+
+	/**
+	 * Calcule la taille vise pour les tranches.
+	 * @param total Nombre total de rsultats  dcouper.
+	 * @param parallelism Nombre d'excutions parallles de tranches de requtes.
+	 * @return La taille vise pour les tranches.
+	 */
+	private static int computeTarget(long total, int parallelism) {
+		return (int) Math.min(MAX_SLICE_SIZE, Math.max(MIN_SLICE_SIZE, (total + ((long) parallelism * SLICES_PER_WORKER) - 1) / ((long) parallelism * SLICES_PER_WORKER)));
+	}
+
+
+
+	/**
+	 * Compte les documents correspondant  la requte indique, par une requte ne retournant aucun rsultat.
+	 * @param query Requte.
+	 * @return Le nombre de documents correspondant  la requte indique.
+	 * @throws IstexException En cas d'erreur de comptage.
+	 */
+	private static int count(@SuppressWarnings("hiding") String query) throws IstexException {
+		JsonObject json;
+
+		try {
+			json = JsonObject.parse(new String(Readers.getBytesFromURL("https://api.istex.fr/document/?size=0&q=" + URLEncoder.encode(query, "UTF-8"))).trim());
+			if (json.has("_error")) {
+				throw new IstexException(LOGGER, Level.ERROR, "Erreur ISTEX: " + json.toString());
+			}
+			return json.cutInteger("total", Option.PRESENT_AND_NOT_NULL_AND_NOT_EMPTY).intValue();
+		} catch (JsonException | JsonRuntimeException | IOException exception) {
+			throw new IstexException(LOGGER, Level.ERROR, exception);
+		}
+	}
+
+
+
+	/**
+	 * Retourne la taille vise pour les tranches.
+	 * @return La taille vise pour les tranches.
+	 */
+	public final int getTarget() {
+		return target;
+	}
+
+
+
+	/**
+	 * Retourne le nombre total de documents des prfixes  dcouper, ou -1 si il n'est pas connu.
+	 * @return Le nombre total de documents des prfixes  dcouper, ou -1 si il n'est pas connu.
+	 */
+	public final int getTotal() {
+		return total;
+	}
+
+
+
+	/**
+	 * Teste si la tranche indique est dcoupable par {@link #split(Slice, int)}.
+	 * @param slice Tranche.
+	 * @return <code>true</code> si la tranche indique est dcoupable, <code>false</code> sinon.
+	 */
+	public static boolean isSplittable(Slice slice) {
+		return (slice.prefixes.length > 1) || (slice.prefixes[0].length() < MAX_DEPTH);
+	}
+
+
+
+	/**
+	 * Teste si le prfixe indiqu a dj t trait lors d'une excution prcdente, lui mme ou par un prfixe plus court.
+	 * @param value Valeur du prfixe.
+	 * @return <code>true</code> si le prfixe indiqu a dj t trait, <code>false</code> sinon.
+	 */
+	private boolean isDone(String value) {
+		for (int i = 0; i <= value.length(); i++) {
+			if (done.contains(value.substring(0, i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+
+	/**
+	 * Teste si une partie du prfixe indiqu a dj t traite lors d'une excution prcdente, par un prfixe plus long.
+	 * @param value Valeur du prfixe.
+	 * @return <code>true</code> si une partie du prfixe indiqu a dj t traite, <code>false</code> sinon.
+	 */
+	private boolean isPartlyDone(String value) {
+		for (String prefix : done) {
+			if ((prefix.length() > value.length()) && prefix.startsWith(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+
+	/**
+	 * Retourne la tranche suivante, ou <code>null</code> si il n'y en a plus.<br>
+	 * Cette mthode peut faire des requtes de comptage, et n'est pas synchronise.
+	 * @return La tranche suivante, ou <code>null</code> si il n'y en a plus.
+	 * @throws IstexException En cas d'erreur de comptage.
+	 */
+	public final Slice next() throws IstexException {
+		List<String> prefixes = new ArrayList<>();
+		int count = 0;
+		Prefix prefix;
+
+		while ((prefix = pending.peekFirst()) != null) {
+			if (isDone(prefix.value)) {
+				// prfixe dj trait
+				pending.removeFirst();
+				continue;
+			} else if (isPartlyDone(prefix.value)) {
+				// prfixe partiellement trait,  remplacer par ses prolongements
+				replaceFirst();
+				continue;
+			}
+			if (prefix.count < 0) {
+				prefix.count = count(prefix.query(query));
+				probeCount++;
+			}
+			if (prefix.count == 0) {
+				// prfixe vide
+				pending.removeFirst();
+			} else if ((prefix.count > (SPLIT_RATIO * target)) && (prefix.value.length() < MAX_DEPTH)) {
+				// prfixe trop gros,  remplacer par ses prolongements
+				replaceFirst();
+			} else if (!prefixes.isEmpty() && ((count + prefix.count) > target)) {
+				// la tranche est pleine
+				break;
+			} else {
+				pending.removeFirst();
+				prefixes.add(prefix.value);
+				count += prefix.count;
+			}
+		}
+		if (prefixes.isEmpty()) {
+			LOGGER.log(Level.INFO, "Pour la requte \"" + query + "\", le dcoupage a ncessit " + probeCount + " requtes de comptage.");
+			return null;
+		} else {
+			return new Slice(query, prefixes.toArray(new String[prefixes.size()]), count);
+		}
+	}
+
+
+
+	/**
+	 * Remplace le premier prfixe restant  traiter par ses prolongements.
+	 */
+	private void replaceFirst() {
+		List<Prefix> children = pending.removeFirst().children();
+
+		for (ListIterator<Prefix> iterator = children.listIterator(children.size()); iterator.hasPrevious();) {
+			pending.addFirst(iterator.previous());
+		}
+	}
+
+
+
+	/**
+	 * Cre un dcoupeur pour les prfixes initiaux indiqus, aprs les avoir compts en parallle.
+	 * @param query Requte.
+	 * @param roots Prfixes initiaux, dans l'ordre.
+	 * @param parallelism Nombre d'excutions parallles de tranches de requtes, qui est aussi le nombre maximal de requtes de comptage simultanes.
+	 * @param sorted Indicateur de classement des prfixes initiaux par nombre de documents dcroissant.
+	 * @param done Prfixes dj traits lors d'une excution prcdente.
+	 * @param collapsible Indicateur de remplacement des prfixes initiaux par le prfixe vide (recherche non dcoupe) si le nombre total de documents ne dpasse pas la taille vise.
+	 * @return Le dcoupeur.
+	 * @throws IstexException En cas d'erreur de comptage.
+	 */
+	private static SlicePlanner plan(String query, List<Prefix> roots, int parallelism, boolean sorted, Set<String> done, boolean collapsible) throws IstexException {
+		SlicePlanner planner;
+		long total = 0;
+		int target;
+
+		count(query, roots, parallelism);
+		for (Prefix root : roots) {
+			total += root.count;
+		}
+		target = computeTarget(total, parallelism);
+		if (collapsible && (total <= target)) {
+			roots = Collections.singletonList(new Prefix("", (int) total));
+		} else if (sorted) {
+			// le tri est stable, les prfixes de mme taille restent dans l'ordre
+			Collections.sort(roots = new ArrayList<>(roots), new Comparator<Prefix>() {
+
+
+
+				/**
+				 * {@inheritDoc}
+				 */
+				@Override public int compare(Prefix prefix1, Prefix prefix2) {
+					return Integer.compare(prefix2.count, prefix1.count);
+				}
+
+
+
+			});
+		}
+		planner = new SlicePlanner(query, roots, target, (int) total, done);
+		planner.probeCount = roots.size();
+		return planner;
+	}
+
+
+
+	/**
+	 * Cre un dcoupeur limit  la part indique des prfixes de deux caractres. Les {@value #CELLS} prfixes de deux caractres sont numrots dans l'ordre, et la part de numro
+	 * <code>shardIndex</code> contient ceux dont le numro modulo <code>shardCount</code> vaut <code>shardIndex</code>. La rpartition ne dpend que de ces deux valeurs, et les parts d'un mme
+	 * nombre de parts sont disjointes et couvrent tous les documents.<br>
+	 * Les prfixes de la part sont compts immdiatement, pour connaitre le nombre total de documents de la part. Ces comptages sont rutiliss par le dcoupage.
+	 * @param query Requte.
+	 * @param parallelism Nombre d'excutions parallles de tranches de requtes.
+	 * @param shardIndex Numro de la part (de 0  <code>shardCount - 1</code>).
+	 * @param shardCount Nombre de parts (de 1  {@value #CELLS}).
+	 * @param sorted Indicateur de classement des prfixes de la part par nombre de documents dcroissant.
+	 * @param done Prfixes dj traits lors d'une excution prcdente.
+	 * @return Le dcoupeur.
+	 * @throws IstexException En cas d'erreur de comptage.
+	 */
+	public static SlicePlanner shard(String query, int parallelism, int shardIndex, int shardCount, boolean sorted, Set<String> done) throws IstexException {
+		List<Prefix> roots = new ArrayList<>();
+		SlicePlanner planner;
+
+		if ((shardCount < 1) || (shardCount > CELLS) || (shardIndex < 0) || (shardIndex >= shardCount)) {
+			throw new IllegalArgumentException("La part est invalide: " + shardIndex + "/" + shardCount);
+		}
+		for (int i = shardIndex; i < CELLS; i += shardCount) {
+			roots.add(new Prefix("" + CHARS.charAt(i / CHARS.length()) + CHARS.charAt(i % CHARS.length()), -1));
+		}
+		planner = plan(query, roots, parallelism, sorted, done, false);
+		LOGGER.log(Level.INFO, "Pour la requte \"" + query + "\", la part " + shardIndex + "/" + shardCount + " contient " + planner.total + " documents.");
+		return planner;
+	}
+
+
+
+	/**
+	 * Dcoupe la tranche indique en tranches plus petites, de taille voisine de celle indique. Une tranche regroupant plusieurs prfixes est dcoupe en sparant ses prfixes, une tranche ne
+	 * contenant qu'un prfixe est dcoupe en remplaant ce prfixe par ses prolongements. Les nouvelles tranches sont ensuite regroupes ou dcoupes comme par {@link #next()}.<br>
+	 * Cette mthode fait des requtes de comptage. Elle n'utilise pas l'tat de ce dcoupeur, et peut tre appele de faon concurrente.
+	 * @param slice Tranche  dcouper.
+	 * @param size Taille vise pour les nouvelles tranches (doit tre strictement positive).
+	 * @return Les nouvelles tranches, dans l'ordre, ou <code>null</code> si la tranche n'est pas dcoupable (un seul prfixe de longueur maximale).
+	 * @throws IstexException En cas d'erreur de comptage.
+	 */
+	public final List<Slice> split(Slice slice, int size) throws IstexException {
+		List<Prefix> roots = new ArrayList<>();
+		List<Slice> slices = new ArrayList<>();
+		SlicePlanner planner;
+		Slice piece;
+
+		if (slice.prefixes.length > 1) {
+			for (String prefix : slice.prefixes) {
+				roots.add(new Prefix(prefix, -1));
+			}
+		} else if (slice.prefixes[0].length() < MAX_DEPTH) {
+			roots.addAll(new Prefix(slice.prefixes[0], slice.count).children());
+		} else {
+			return null;
+		}
+		planner = new SlicePlanner(query, roots, size, -1, done);
+		while ((piece = planner.next()) != null) {
+			slices.add(piece);
+		}
+		return slices;
+	}
+
+
+
+	/**
+	 * Cre un dcoupeur pour la recherche complte. Les 30 prfixes d'un caractre sont compts immdiatement, pour connaitre le nombre total de documents. Ces comptages sont rutiliss par le
+	 * dcoupage.
+	 * @param query Requte.
+	 * @param parallelism Nombre d'excutions parallles de tranches de requtes.
+	 * @param sorted Indicateur de classement des prfixes d'un caractre par nombre de documents dcroissant.
+	 * @param done Prfixes dj traits lors d'une excution prcdente.
+	 * @return Le dcoupeur.
+	 * @throws IstexException En cas d'erreur de comptage.
+	 */
+	public static SlicePlanner whole(String query, int parallelism, boolean sorted, Set<String> done) throws IstexException {
+		return plan(query, new Prefix("", -1).children(), parallelism, sorted, done, true);
+	}
+
+
+
+	/**
+	 * Prfixes dj traits lors d'une excution prcdente.
+	 */
+	private final Set<String> done;
+
+
+
+	/**
+	 * Prfixes de fin d'ARK restant  traiter, dans l'ordre.
+	 */
+	private final Deque<Prefix> pending = new ArrayDeque<>();
+
+
+
+	/**
+	 * Nombre de requtes de comptage effectues.
+	 */
+	private int probeCount = 0;
+
+
+
+	/**
+	 * Requte.
+	 */
+	private final String query;
+
+
+
+	/**
+	 * Taille vise pour les tranches.
+	 */
+	private final int target;
+
+
+
+	/**
+	 * Nombre total de documents des prfixes  dcouper, ou -1 si il n'est pas connu.
+	 */
+	private final int total;
+
+
+
+	/**
+	 * Nombre de prfixes de deux caractres, qui sont les units de rpartition du mode rparti.
+	 */
+	static final int CELLS = 900;
+
+
+
+	/**
+	 * Caractres possibles dans la fin de l'ARK ISTEX.
+	 */
+	static final String CHARS = "0123456789BCDFGHJKLMNPQRSTVWXZ";
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+	/**
+	 * Longueur maximale des prfixes. Au del, un prfixe est utilis tel quel quelle que soit sa taille.
+	 */
+	static final int MAX_DEPTH = 4;
+
+
+
+	/**
+	 * Taille maximale vise pour une tranche, pour limiter le cot d'une nouvelle tentative en cas d'erreur.
+	 */
+	static final int MAX_SLICE_SIZE = 100000;
+
+
+
+	/**
+	 * Taille minimale vise pour une tranche, pour que le cot des requtes de comptage et de dbut de parcours reste ngligeable.
+	 */
+	static final int MIN_SLICE_SIZE = 1000;
+
+
+
+	/**
+	 * Nombre de tranches vis par excution parallle, pour que les excutions se terminent  peu prs en mme temps.
+	 */
+	private static final int SLICES_PER_WORKER = 4;
+
+
+
+	/**
+	 * Rapport entre la taille d'un prfixe et la taille vise au del duquel le prfixe est remplac par ses prolongements.
+	 */
+	private static final int SPLIT_RATIO = 2;
+
+
+
+	/**
+	 * La classe {@link Prefix} reprsente un prfixe de fin d'ARK ISTEX et le nombre de documents correspondant.
+	 * @author Ludovic WALLE
+	 */
+	private static class Prefix {
+
+
+
+		/**
+		 * @param value Valeur du prfixe.
+		 * @param count Nombre de documents, ou -1 si il n'est pas connu.
+		 */
+		public Prefix(String value, int count) {
+			this.value = value;
+			this.count = count;
+		}
+
+
+
+		/**
+		 * Retourne les prolongements d'un caractre de ce prfixe, dans l'ordre, avec un nombre de documents inconnu.
+		 * @return Les prolongements d'un caractre de ce prfixe.
+		 */
+		public List<Prefix> children() {
+			List<Prefix> children = new ArrayList<>(CHARS.length());
+
+			for (int i = 0; i < CHARS.length(); i++) {
+				children.add(new Prefix(value + CHARS.charAt(i), -1));
+			}
+			return children;
+		}
+
+
+
+		/**
+		 * Retourne la requte restreinte aux documents de ce prfixe.
+		 * @param query Requte.
+		 * @return La requte restreinte aux documents de ce prfixe.
+		 */
+		public String query(String query) {
+			return Slice.query(query, new String[] {value});
+		}
+
+
+
+		/**
+		 * Nombre de documents, ou -1 si il n'est pas connu.
+		 */
+		public int count;
+
+
+
+		/**
+		 * Valeur du prfixe.
+		 */
+		public final String value;
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link Slice} reprsente une tranche: un ensemble de prfixes de fin d'ARK ISTEX et la requte correspondante.
+	 * @author Ludovic WALLE
+	 */
+	static class Slice {
+
+
+
+		/**
+		 * @param query Requte globale.
+		 * @param prefixes Prfixes de la tranche.
+		 * @param count Nombre de documents attendus.
+		 */
+		public Slice(String query, String[] prefixes, int count) {
+			this.prefixes = prefixes;
+			this.count = count;
+			this.query = query(query, prefixes);
+		}
+
+
+
+		/**
+		 * Retourne la cl de la tranche, qui identifie les prfixes qu'elle contient.
+		 * @return La cl de la tranche.
+		 */
+		public String getKey() {
+			return String.join(",", prefixes);
+		}
+
+
+
+		/**
+		 * Retourne la requte globale restreinte aux documents des prfixes indiqus.
+		 * @param query Requte globale.
+		 * @param prefixes Prfixes.
+		 * @return La requte restreinte.
+		 */
+		static String query(@SuppressWarnings("hiding") String query, @SuppressWarnings("hiding") String[] prefixes) {
+			StringBuilder builder = new StringBuilder();
+
+			if ((prefixes.length == 1) && prefixes[0].isEmpty()) {
+				return query;
+			}
+			for (String prefix : prefixes) {
+				builder.append((builder.length() == 0) ? "(" : " OR ").append("arkIstex:ark\\:\\/67375\\/???-").append(prefix).append("*");
+			}
+			return builder.append(") AND (").append(query).append(")").toString();
+		}
+
+
+
+		/**
+		 * Nombre de documents attendus.
+		 */
+		public final int count;
+
+
+
+		/**
+		 * Prfixes de la tranche.
+		 */
+		public final String[] prefixes;
+
+
+
+		/**
+		 * Requte de la tranche.
+		 */
+		public final String query;
+
+
+
+	}
+
+
+
+}
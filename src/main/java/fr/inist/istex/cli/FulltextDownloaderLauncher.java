@@ -0,0 +1,65 @@
+package fr.inist.istex.cli;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.apache.logging.log4j.*;
+
+import fr.inist.istex.*;
+import fr.inist.istex.FulltextDownloader.*;
+import toolbox.parallel.*;
+
+
+
+/**
+ * La classe {@link FulltextDownloaderLauncher} lance en ligne de commande un tlchargement en masse de textes intgraux (voir {@link FulltextDownloader}):
+ * <ul>
+ * <li><code>FulltextDownloaderLauncher &lt;token ou -&gt; &lt;formats spars par des virgules&gt; &lt;paralllisme&gt; &lt;fichier des identifiants&gt; &lt;rpertoire ou fichier .zip&gt;</code>
+ * </ul>
+ * Le fichier des identifiants contient un identifiant ISTEX par ligne. Les tlchargements abandonns sont signals dans le log.
+ * @author Ludovic WALLE
+ */
+public class FulltextDownloaderLauncher {
+
+
+
+	/**
+	 * Point d'entre en ligne de commande.
+	 * @param args Arguments (voir {@link FulltextDownloaderLauncher}).
+	 * @throws IOException En cas d'erreur de lecture ou d'criture.
+	 */
+	public static void main(String[] args) throws IOException {
+		List<String> ids;
+		FulltextDownloader downloader;
+
+		if (args.length != 5) {
+			LOGGER.log(Level.ERROR, "Utilisation: FulltextDownloaderLauncher <token ou -> <formats spars par des virgules> <paralllisme> <fichier des identifiants> <rpertoire ou fichier .zip>");
+			return;
+		}
+		ids = new ArrayList<>();
+		for (String line : Files.readAllLines(Paths.get(args[3]), StandardCharsets.UTF_8)) {
+			if (!(line = line.trim()).isEmpty()) {
+				ids.add(line);
+			}
+		}
+		try (Sink sink = args[4].endsWith(".zip") ? new ZipSink(new FileOutputStream(args[4])) : new DirectorySink(new File(args[4]))) {
+			downloader = new FulltextDownloader(args[0].equals("-") ? null : args[0], ids, Arrays.asList(args[1].split(",")), sink, Integer.parseInt(args[2]));
+			downloader.download();
+		}
+		for (FailedMission<Download> failed : downloader.getFailedDownloads()) {
+			LOGGER.log(Level.WARN, "Tlchargement abandonn: " + failed);
+		}
+	}
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+}
@@ -0,0 +1,58 @@
+package fr.inist.istex.cli;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.apache.logging.log4j.*;
+
+import fr.inist.istex.*;
+
+
+
+/**
+ * La classe {@link IstexShardsLauncher} lance en ligne de commande l'enregistrement d'une part d'une recherche rpartie, ou la fusion des parts (voir {@link IstexShards}):
+ * <ul>
+ * <li><code>IstexShardsLauncher harvest &lt;requte&gt; &lt;donnes&gt; &lt;part&gt; &lt;nombre de parts&gt; &lt;paralllisme&gt; &lt;fichier&gt;</code> enregistre les rsultats d'une part.
+ * <li><code>IstexShardsLauncher merge &lt;fichier fusionn&gt; &lt;fichier de part&gt;...</code> fusionne les rsultats des parts.
+ * </ul>
+ * @author Ludovic WALLE
+ */
+public class IstexShardsLauncher {
+
+
+
+	/**
+	 * Point d'entre en ligne de commande.
+	 * @param args Arguments (voir {@link IstexShardsLauncher}).
+	 * @throws IOException En cas d'erreur de lecture ou d'criture.
+	 */
+	public static void main(String[] args) throws IOException {
+		List<File> inputs = new ArrayList<>();
+
+		if ((args.length == 7) && args[0].equals("harvest")) {
+			try (Writer output = new OutputStreamWriter(new FileOutputStream(args[6]), StandardCharsets.UTF_8)) {
+				IstexShards.write(new IstexSlicedIterator(args[1], args[2].isEmpty() ? null : args[2], null, Integer.parseInt(args[5]), new IstexSlicedIterator.Settings().setShard(Integer.parseInt(args[3]), Integer.parseInt(args[4]))), output);
+			}
+		} else if ((args.length >= 3) && args[0].equals("merge")) {
+			for (int i = 2; i < args.length; i++) {
+				inputs.add(new File(args[i]));
+			}
+			try (Writer output = new OutputStreamWriter(new FileOutputStream(args[1]), StandardCharsets.UTF_8)) {
+				IstexShards.merge(inputs, output);
+			}
+		} else {
+			LOGGER.log(Level.ERROR, "Utilisation: IstexShardsLauncher harvest <requte> <donnes> <part> <nombre de parts> <paralllisme> <fichier>, ou IstexShardsLauncher merge <fichier fusionn> <fichier de part>...");
+		}
+	}
+
+
+
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = LogManager.getLogger();
+
+
+
+}
@@ -0,0 +1,9 @@
+package fr.inist.istex.cli;
+
+
+
+/**
+ * Ce package regroupe les points d'entre en ligne de commande des outils de {@link fr.inist.istex}, qui restent ainsi utilisables comme bibliothque sans sortie sur la console ni arrt de la JVM.
+ * Les erreurs et les comptes rendus sont signals dans le log.
+ * @author Ludovic WALLE
+ */
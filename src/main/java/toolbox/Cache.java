@@ -0,0 +1,337 @@
+package toolbox;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+
+
+/**
+ * La classe {@link Cache} implmente un cache en mmoire de valeurs coteuses  calculer, utilisable de faon concurrente.<br>
+ * Les valeurs sont conserves pendant une dure limite (voir {@link #Cache(int, long)}), au del de laquelle elles sont recalcules lors de l'accs suivant. Le nombre de valeurs conserves est
+ * born: lorsqu'il est atteint, la valeur utilise le moins rcemment est carte.<br>
+ * Si plusieurs threads demandent simultanment une mme valeur absente du cache, elle n'est calcule qu'une seule fois, par le premier d'entre eux, et les autres attendent le rsultat de ce
+ * calcul. Un calcul qui choue n'est pas conserv: son exception est transmise  tous les threads qui attendaient son rsultat, et l'accs suivant relance le calcul.<br>
+ * Le calcul d'une valeur se fait hors de tout verrou, de sorte qu'un calcul lent ne bloque que les threads qui attendent la mme valeur.<br>
+ * Les accs sont comptabiliss (voir {@link #getHitCount()}, {@link #getMissCount()}, {@link #getLoadCount()}, {@link #getEvictionCount()}).
+ * @author Ludovic WALLE
+ * @param <K> Type des cls.
+ * @param <V> Type des valeurs.
+ */
+public class Cache<K, V> {
+
+
+
+	/**
+	 * @param maxSize Nombre maximal de valeurs conserves (doit tre strictement positif).
+	 * @param timeToLive Dure de conservation des valeurs, en millisecondes (doit tre strictement positive).
+	 */
+	public Cache(int maxSize, long timeToLive) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Le nombre maximal de valeurs conserves doit tre strictement positif: " + maxSize);
+		}
+		if (timeToLive <= 0) {
+			throw new IllegalArgumentException("La dure de conservation des valeurs doit tre strictement positive: " + timeToLive);
+		}
+		this.maxSize = maxSize;
+		this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+	}
+
+
+
+	/**
+	 * Retourne la valeur associe  la cl indique, en la calculant par la fonction indique si elle n'est pas dans le cache ou si elle y est prime.<br>
+	 * Cette mthode est bloquante pendant le calcul de la valeur, par ce thread ou par un autre.
+	 * @param key Cl (ne doit pas tre <code>null</code>).
+	 * @param loader Fonction de calcul de la valeur (ne doit pas tre <code>null</code>). Si elle retourne <code>null</code>, la valeur n'est pas conserve.
+	 * @return La valeur associe  la cl indique.
+	 */
+	public final V get(final K key, final Function<? super K, ? extends V> loader) {
+		Entry<V> entry;
+		FutureTask<V> flight;
+		boolean owner = false;
+		boolean interrupted = false;
+
+		if ((key == null) || (loader == null)) {
+			throw new NullPointerException();
+		}
+		synchronized (lock) {
+			if ((entry = entries.get(key)) != null) {
+				if ((entry.expiration - System.nanoTime()) > 0) {
+					hitCount.increment();
+					return entry.value;
+				}
+				entries.remove(key);
+			}
+			missCount.increment();
+			if ((flight = flights.get(key)) == null) {
+				flight = new FutureTask<>(new Callable<V>() {
+
+
+
+					/**
+					 * {@inheritDoc}
+					 */
+					@Override public V call() {
+						return loader.apply(key);
+					}
+
+
+
+				});
+				flights.put(key, flight);
+				owner = true;
+			}
+		}
+		if (owner) {
+			loadCount.increment();
+			flight.run();
+			synchronized (lock) {
+				flights.remove(key);
+				if (!flight.isCancelled()) {
+					try {
+						put(key, flight.get());
+					} catch (ExecutionException | InterruptedException exception) {
+						// le calcul a chou, il n'est pas conserv, l'exception est transmise ci dessous
+					}
+				}
+			}
+		}
+		try {
+			for (;;) {
+				try {
+					return flight.get();
+				} catch (InterruptedException exception) {
+					// l'attente reprend, le calcul n'appartient pas  ce thread
+					interrupted = true;
+				} catch (ExecutionException exception) {
+					if (exception.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) exception.getCause();
+					} else if (exception.getCause() instanceof Error) {
+						throw (Error) exception.getCause();
+					} else {
+						throw new RuntimeException(exception.getCause());
+					}
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Retourne le nombre de valeurs cartes du cache parce que le nombre maximal de valeurs conserves tait atteint.
+	 * @return Le nombre de valeurs cartes du cache.
+	 */
+	public final long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre d'accs pour lesquels la valeur tait dans le cache et n'tait pas prime.
+	 * @return Le nombre d'accs pour lesquels la valeur tait dans le cache.
+	 */
+	public final long getHitCount() {
+		return hitCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre de calculs de valeurs effectus, russis ou non. Il est infrieur au nombre d'accs pour lesquels la valeur n'tait pas dans le cache si des accs simultans ont attendu le
+	 * mme calcul.
+	 * @return Le nombre de calculs de valeurs effectus.
+	 */
+	public final long getLoadCount() {
+		return loadCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre d'accs pour lesquels la valeur n'tait pas dans le cache ou tait prime.
+	 * @return Le nombre d'accs pour lesquels la valeur n'tait pas dans le cache.
+	 */
+	public final long getMissCount() {
+		return missCount.sum();
+	}
+
+
+
+	/**
+	 * Retire la valeur associe  la cl indique du cache, si elle y est. Un calcul en cours pour cette cl n'est pas interrompu.
+	 * @param key Cl.
+	 */
+	public final void invalidate(K key) {
+		synchronized (lock) {
+			entries.remove(key);
+		}
+	}
+
+
+
+	/**
+	 * Retire toutes les valeurs du cache. Les calculs en cours ne sont pas interrompus.
+	 */
+	public final void invalidateAll() {
+		synchronized (lock) {
+			entries.clear();
+		}
+	}
+
+
+
+	/**
+	 * Conserve la valeur indique, en cartant si ncessaire la valeur utilise le moins rcemment.<br>
+	 * Cette mthode doit tre appele en possession du verrou {@link #lock}.
+	 * @param key Cl.
+	 * @param value Valeur, non conserve si elle est <code>null</code>.
+	 */
+	private void put(K key, V value) {
+		Iterator<Map.Entry<K, Entry<V>>> iterator;
+
+		if (value != null) {
+			entries.put(key, new Entry<>(value, System.nanoTime() + timeToLive));
+			for (iterator = entries.entrySet().iterator(); entries.size() > maxSize;) {
+				iterator.next();
+				iterator.remove();
+				evictionCount.increment();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Retourne le nombre de valeurs dans le cache, y compris celles qui sont primes mais n'ont pas encore t accdes.
+	 * @return Le nombre de valeurs dans le cache.
+	 */
+	public final int size() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public String toString() {
+		long hits = hitCount.sum();
+		long misses = missCount.sum();
+
+		return String.format("%d valeurs, %d accs trouvs, %d accs manqus (%.1f%% trouvs), %d calculs, %d valeurs cartes", size(), hits, misses, ((hits + misses) == 0) ? 0.0 : (hits * 100.0) / (hits + misses), loadCount.sum(), evictionCount.sum());
+	}
+
+
+
+	/**
+	 * Valeurs conserves, dans l'ordre de leur dernire utilisation, de la plus ancienne  la plus rcente.
+	 */
+	private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+
+
+	/**
+	 * Nombre de valeurs cartes du cache.
+	 */
+	private final LongAdder evictionCount = new LongAdder();
+
+
+
+	/**
+	 * Calculs en cours, indexs par leur cl.
+	 */
+	private final Map<K, FutureTask<V>> flights = new HashMap<>();
+
+
+
+	/**
+	 * Nombre d'accs pour lesquels la valeur tait dans le cache.
+	 */
+	private final LongAdder hitCount = new LongAdder();
+
+
+
+	/**
+	 * Nombre de calculs de valeurs effectus.
+	 */
+	private final LongAdder loadCount = new LongAdder();
+
+
+
+	/**
+	 * Verrou pour les valeurs conserves et les calculs en cours.
+	 */
+	private final Object lock = new Object();
+
+
+
+	/**
+	 * Nombre maximal de valeurs conserves.
+	 */
+	private final int maxSize;
+
+
+
+	/**
+	 * Nombre d'accs pour lesquels la valeur n'tait pas dans le cache.
+	 */
+	private final LongAdder missCount = new LongAdder();
+
+
+
+	/**
+	 * Dure de conservation des valeurs, en nanosecondes.
+	 */
+	private final long timeToLive;
+
+
+
+	/**
+	 * La classe {@link Entry} associe une valeur conserve et sa date de premption.
+	 * @author Ludovic WALLE
+	 * @param <V> Type des valeurs.
+	 */
+	private static class Entry<V> {
+
+
+
+		/**
+		 * @param value Valeur.
+		 * @param expiration Date de premption, au sens de {@link System#nanoTime()}.
+		 */
+		public Entry(V value, long expiration) {
+			this.value = value;
+			this.expiration = expiration;
+		}
+
+
+
+		/**
+		 * Date de premption, au sens de {@link System#nanoTime()}.
+		 */
+		public final long expiration;
+
+
+
+		/**
+		 * Valeur.
+		 */
+		public final V value;
+
+
+
+	}
+
+
+
+}
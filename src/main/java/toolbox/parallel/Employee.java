@@ -1,11 +1,13 @@
 package toolbox.parallel;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 
 
 /**
- * La classe {@link Employee} reprsente un employ gnrique.
+ * La classe {@link Employee} reprsente un employ gnrique.<br>
+ * Les verrous sont propres  chaque employ, de sorte que des employs d'entreprises diffrentes ne se gnent pas.
  * @author Ludovic WALLE
  * @param <M> Missions.
  */
@@ -57,6 +59,15 @@ abstract class Employee<M extends Mission> extends Thread {
 
 
 
+	/**
+	 * Mthode ventuellement surcharge dans les classes drives du package, appele chaque fois que des exceptions ont t rapportes, pour rveiller les threads en attente qui doivent en tenir
+	 * compte.<br>
+	 * Par dfaut, cette mthode ne fait rien.
+	 */
+	void exceptionsReported() {}
+
+
+
 	/**
 	 * Retourne l'entreprise  laquelle l'employ doit rapporter les exceptions rencontres, ou <code>null</code> si elle n'est pas connue.
 	 * @return L'entreprise  laquelle l'employ doit rapporter les exceptions rencontres, ou <code>null</code> si elle n'est pas connue.
@@ -74,9 +85,7 @@ abstract class Employee<M extends Mission> extends Thread {
 	 * @return Retourne les exceptions rencontres par l'employ.
 	 */
 	public final Throwable[] getExceptions() {
-		synchronized (exceptions) {
-			return exceptions.toArray(new Throwable[exceptions.size()]);
-		}
+		return exceptions.toArray(new Throwable[0]);
 	}
 
 
@@ -119,11 +128,8 @@ abstract class Employee<M extends Mission> extends Thread {
 		if (enterprise != null) {
 			enterprise.collectExceptions(exceptions);
 		}
-		synchronized (exceptions) {
-			for (Throwable exception : exceptions) {
-				this.exceptions.add(exception);
-			}
-		}
+		this.exceptions.addAll(Arrays.asList(exceptions));
+		exceptionsReported();
 	}
 
 
@@ -138,14 +144,14 @@ abstract class Employee<M extends Mission> extends Thread {
 	/**
 	 * Verrou pour l'entreprise.
 	 */
-	private final Object enterpriseLock = "";
+	private final Object enterpriseLock = new Object();
 
 
 
 	/**
-	 * Exceptions rencontres.
+	 * Exceptions rencontres. Elles sont rares, et lues bien plus souvent qu'crites.
 	 */
-	private final Vector<Throwable> exceptions = new Vector<>();
+	private final List<Throwable> exceptions = new CopyOnWriteArrayList<>();
 
 
 
@@ -1,6 +1,12 @@
 package toolbox.parallel;
 
+import java.lang.management.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import javax.management.*;
 
 
 
@@ -11,7 +17,17 @@ import java.util.*;
  * Le traitement se lance par {@link #start()} pour une excution asynchrone, ou par {@link #run()} pour une excution synchrone. Il se termine lorsque tous les objets on t traits ou par un appel 
  * {@link #forbidForeverNewMissionsStart()}. Il peut tre suspendu par un appel  {@link #postponeNewMissionsStart()} et repris par un appel  {@link #allowNewMissionsStart()}. Le nombre de threads
  * peut tre ajust dynamiquement en cours de traitement par un appel  {@link #setWishedWorkersCount(int)}.<br>
- * L'entreprise s'arrte dfinitivement ds qu'une exception est collecte.
+ * L'entreprise s'arrte dfinitivement ds qu'une exception est collecte. Une mission qui choue peut toutefois tre retente par l'ouvrier (voir
+ * {@link Worker#delegateGetRetryDelay(Mission, int, Throwable)}), puis, si elle choue dfinitivement, tre abandonne sans arrter l'entreprise, dans la limite d'un nombre de missions abandonnes
+ * (voir {@link #setMaxFailedMissions(int)}). Les missions abandonnes sont conserves (voir {@link #getFailedMissions()}), et le reste du traitement n'est pas perdu. Par dfaut, aucune mission
+ * n'est retente ni abandonne: le premier chec arrte l'entreprise.<br>
+ * Par dfaut, chaque ouvrier travaille dans son propre thread. Si un {@link ExecutorService} est indiqu (voir {@link #Enterprise(String, int, Missionner, Worker, ExecutorService)}), les ouvriers
+ * travaillent pour lui, un lot de missions  la fois, de sorte que plusieurs entreprises peuvent partager un nombre limit de threads. L'entreprise et son distributeur gardent leurs propres threads,
+ * qui attendent la plupart du temps: si ils dpendaient d'un {@link ExecutorService} satur par des ouvriers en attente de missions, ils ne pourraient plus en distribuer.<br>
+ * Les mesures de fonctionnement des ouvriers sont disponibles individuellement (voir {@link #getWorkerMetrics()}) et cumules (voir {@link #getMetrics()}), et peuvent tre publies par JMX (voir
+ * {@link #registerMBean()}).<br>
+ * Tous les verrous sont propres  l'entreprise, de sorte que des entreprises fonctionnant simultanment ne se gnent pas. Les fins de missions, signales par les ouvriers  chaque mission, ne
+ * prennent aucun verrou.
  * @author Ludovic WALLE
  * @param <M> Type des missions.
  **/
@@ -37,6 +53,20 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * @param stemWorker Ouvrier (ne doit pas tre <code>null</code>).
 	 */
 	public Enterprise(String name, int wishedWorkerCount, Missionner<M> missionner, Worker<M> stemWorker) {
+		this(name, wishedWorkerCount, missionner, stemWorker, null);
+	}
+
+
+
+	/**
+	 * @param name Nom de l'entreprise.
+	 * @param wishedWorkerCount Nombre d'ouvriers souhaits (doit tre positif ou nul).
+	 * @param missionner Distributeur de missions (ne doit pas tre <code>null</code>).
+	 * @param stemWorker Ouvrier (ne doit pas tre <code>null</code>).
+	 * @param executor {@link ExecutorService} pour lequel travaillent les ouvriers, ventuellement partag avec d'autres entreprises, ou <code>null</code> pour que chaque ouvrier travaille dans son
+	 *            propre thread. Il n'est pas arrt par l'entreprise.
+	 */
+	public Enterprise(String name, int wishedWorkerCount, Missionner<M> missionner, Worker<M> stemWorker, ExecutorService executor) {
 		super(name);
 		if (wishedWorkerCount <= 0) {
 			throw new IllegalArgumentException("Le nombre d'ouvriers souhait doit tre strictement positif: " + wishedWorkerCount);
@@ -49,6 +79,8 @@ public class Enterprise<M extends Mission> extends Thread {
 		this.wishedWorkerCount = wishedWorkerCount;
 		this.missionner = missionner;
 		this.stemWorker = stemWorker;
+		this.executor = executor;
+		newMissionsChanged = newMissionsLock.newCondition();
 		setDaemon(true);
 	}
 
@@ -58,19 +90,21 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * Autorise le dmarrage de nouvelles missions.
 	 */
 	public final void allowNewMissionsStart() {
-		synchronized (newMissionsLock) {
+		newMissionsLock.lock();
+		try {
 			switch (newMissions) {
 			case POSTPONNED:
 				newMissions = NewMissions.ALLOWED;
 				startTime = System.currentTimeMillis();
+				newMissionsChanged.signalAll();
 				//$FALL-THROUGH$
 			case ALLOWED:
 			case FORBIDDEN:
 			}
+		} finally {
+			newMissionsLock.unlock();
 		}
-		synchronized (enterpriseLock) {
-			enterpriseLock.notifyAll();
-		}
+		signal();
 	}
 
 
@@ -85,14 +119,9 @@ public class Enterprise<M extends Mission> extends Thread {
 		if (count < 0) {
 			throw new IllegalArgumentException("Le nombre de rsultats d'une mission doit tre positif ou nul: " + count);
 		}
-		synchronized (doneLock) {
-			lastDone = mission;
-			doneCount++;
-			producedCount += count;
-		}
-		synchronized (enterpriseLock) {
-			enterpriseLock.notifyAll();
-		}
+		lastDone = mission;
+		doneCount.increment();
+		producedCount.add(count);
 	}
 
 
@@ -102,14 +131,24 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * @param exceptions Exceptions.
 	 */
 	protected final void collectExceptions(@SuppressWarnings("hiding") Throwable... exceptions) {
-		synchronized (exceptions) {
-			for (Throwable exception : exceptions) {
-				this.exceptions.add(exception);
-			}
-		}
-		synchronized (enterpriseLock) {
-			enterpriseLock.notifyAll();
-		}
+		this.exceptions.addAll(Arrays.asList(exceptions));
+		signal();
+	}
+
+
+
+	/**
+	 * Enregistre l'abandon de la mission indique, et indique si il est tolr, c'est  dire si le nombre de missions abandonnes ne dpasse pas le nombre maximal (voir
+	 * {@link #setMaxFailedMissions(int)}). Si il ne l'est pas, l'ouvrier doit rapporter l'exception, ce qui arrtera l'entreprise.<br>
+	 * Cette mthode sera appele par les ouvriers  chaque fois qu'ils abandonnent une mission.
+	 * @param mission Mission.
+	 * @param attempts Nombre de tentatives.
+	 * @param exception Exception de la dernire tentative.
+	 * @return <code>true</code> si l'abandon est tolr, <code>false</code> sinon.
+	 */
+	protected final boolean collectFailed(M mission, int attempts, Throwable exception) {
+		failedMissions.add(new FailedMission<>(mission, attempts, exception));
+		return failedMissions.size() <= maxFailedMissions;
 	}
 
 
@@ -120,13 +159,19 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * @param worker Ouvrier qui a fini de travailler.
 	 */
 	protected final void collectFinished(Worker<M> worker) {
-		synchronized (workersLock) {
-			activeWorkers.remove(worker);
-			dismissedWorkers.remove(worker);
-		}
-		synchronized (enterpriseLock) {
-			enterpriseLock.notifyAll();
-		}
+		activeWorkers.remove(worker);
+		dismissedWorkers.remove(worker);
+		signal();
+	}
+
+
+
+	/**
+	 * Signale qu'une mission ayant chou va tre retente.<br>
+	 * Cette mthode sera appele par les ouvriers avant chaque nouvelle tentative.
+	 */
+	protected final void collectRetry() {
+		retryCount.increment();
 	}
 
 
@@ -136,8 +181,23 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * Cette mthode sera appele par les ouvriers quand ils commencent  travailler.
 	 */
 	protected final void collectStarted() {
-		synchronized (enterpriseLock) {
-			enterpriseLock.notifyAll();
+		signal();
+	}
+
+
+
+	/**
+	 * Ferme l'entreprise sans attendre la fin des missions en cours: le dmarrage de nouvelle mission est dfinitivement interdit (voir {@link #forbidForeverNewMissionsStart()}), et les ouvriers
+	 * sont interrompus, y compris pendant une mission.<br>
+	 * Cette mthode est non bloquante.
+	 */
+	public final void closeDownNow() {
+		forbidForeverNewMissionsStart();
+		for (Worker<M> worker : activeWorkers) {
+			worker.interrupt();
+		}
+		for (Worker<M> worker : dismissedWorkers) {
+			worker.interrupt();
 		}
 	}
 
@@ -147,7 +207,8 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * Interdit dfinitivement le dmarrage de nouvelle mission.
 	 */
 	public final void forbidForeverNewMissionsStart() {
-		synchronized (newMissionsLock) {
+		newMissionsLock.lock();
+		try {
 			switch (newMissions) {
 			case ALLOWED:
 				previouslyElapsedTime += System.currentTimeMillis() - startTime;
@@ -155,10 +216,14 @@ public class Enterprise<M extends Mission> extends Thread {
 			case POSTPONNED:
 				missionner.stopDispensing();
 				newMissions = NewMissions.FORBIDDEN;
+				newMissionsChanged.signalAll();
 				//$FALL-THROUGH$
 			case FORBIDDEN:
 			}
+		} finally {
+			newMissionsLock.unlock();
 		}
+		signal();
 	}
 
 
@@ -191,7 +256,17 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * @return Le nombre de missions termines.
 	 */
 	public final int getDoneCount() {
-		return doneCount;
+		return doneCount.intValue();
+	}
+
+
+
+	/**
+	 * Retourne l'{@link ExecutorService} pour lequel travaillent les ouvriers, ou <code>null</code> si chaque ouvrier travaille dans son propre thread.
+	 * @return L'{@link ExecutorService} pour lequel travaillent les ouvriers, ou <code>null</code> si chaque ouvrier travaille dans son propre thread.
+	 */
+	public final ExecutorService getExecutor() {
+		return executor;
 	}
 
 
@@ -215,9 +290,7 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * @return Retourne les exceptions rencontres par l'entreprise.
 	 */
 	public final Throwable[] getExceptions() {
-		synchronized (exceptions) {
-			return exceptions.toArray(new Throwable[exceptions.size()]);
-		}
+		return exceptions.toArray(new Throwable[0]);
 	}
 
 
@@ -236,19 +309,38 @@ public class Enterprise<M extends Mission> extends Thread {
 
 
 
+	/**
+	 * Retourne le nombre de missions abandonnes.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Le nombre de missions abandonnes.
+	 */
+	public final int getFailedCount() {
+		return failedMissions.size();
+	}
+
+
+
+	/**
+	 * Retourne les missions abandonnes, dans l'ordre de leur abandon, y compris celle dont l'abandon a ventuellement arrt l'entreprise.<br>
+	 * Si aucune mission n'a t abandonne, la mthode retourne une liste vide, jamais <code>null</code>.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Les missions abandonnes.
+	 */
+	public final List<FailedMission<M>> getFailedMissions() {
+		return new ArrayList<>(failedMissions);
+	}
+
+
+
 	/**
 	 * Retourne la premire exception rencontre par l'entreprise, ou <code>null</code> si il n'y en a pas.<br>
 	 * Cette mthode est non bloquante.
 	 * @return La premire exception rencontre par l'entreprise, ou <code>null</code> si il n'y en a pas.
 	 */
 	public final Throwable getFirstException() {
-		synchronized (exceptions) {
-			if (exceptions.isEmpty()) {
-				return null;
-			} else {
-				return exceptions.firstElement();
-			}
-		}
+		Iterator<Throwable> iterator = exceptions.iterator();
+
+		return iterator.hasNext() ? iterator.next() : null;
 	}
 
 
@@ -264,6 +356,26 @@ public class Enterprise<M extends Mission> extends Thread {
 
 
 
+	/**
+	 * Retourne le nombre maximal de missions pouvant tre abandonnes sans arrter l'entreprise.
+	 * @return Le nombre maximal de missions pouvant tre abandonnes sans arrter l'entreprise.
+	 */
+	public final int getMaxFailedMissions() {
+		return maxFailedMissions;
+	}
+
+
+
+	/**
+	 * Retourne les mesures de fonctionnement cumules de tous les ouvriers de l'entreprise, y compris ceux qui ont fini de travailler.
+	 * @return Les mesures de fonctionnement cumules de tous les ouvriers de l'entreprise.
+	 */
+	public final Metrics getMetrics() {
+		return metrics;
+	}
+
+
+
 	/**
 	 * Retourne la mission suivante, ou <code>null</code> si il n'y en a plus.<br>
 	 * Cette mthode sera appele par les ouvriers.<br>
@@ -273,16 +385,28 @@ public class Enterprise<M extends Mission> extends Thread {
 	public final M getNext() {
 		M next = null;
 
-		synchronized (newMissionsLock) {
-			while (newMissions == NewMissions.POSTPONNED) {
-				try {
-					newMissionsLock.wait();
-				} catch (InterruptedException exception) {
-					collectExceptions(exception);
-				}
-			}
+		if (waitForNewMissionsAllowed() && ((next = missionner.getNext()) != null) && (startTime == -1)) {
+			startTime = System.currentTimeMillis();
+		}
+		return next;
+	}
+
+
+
+	/**
+	 * Retourne un lot de missions suivantes, ou une liste vide si il n'y en a plus (voir {@link Missionner#getNext(int)}).<br>
+	 * Cette mthode sera appele par les ouvriers traitant leurs missions par lots.<br>
+	 * Cette mthode est bloquante, et attend qu'une mission soit disponible, ou qu'il n'y en ait plus  distribuer.
+	 * @param max Nombre maximal de missions du lot (doit tre strictement positif).
+	 * @return Les missions suivantes, ou une liste vide si il n'y en a plus.
+	 */
+	public final List<M> getNext(int max) {
+		List<M> next;
+
+		if (!waitForNewMissionsAllowed()) {
+			return Collections.emptyList();
 		}
-		if (((next = missionner.getNext()) != null) && (startTime == -1)) {
+		if (!(next = missionner.getNext(max)).isEmpty() && (startTime == -1)) {
 			startTime = System.currentTimeMillis();
 		}
 		return next;
@@ -296,7 +420,47 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * @return Le nombre de rsultats des missions termines.
 	 */
 	public final int getProducedCount() {
-		return producedCount;
+		return producedCount.intValue();
+	}
+
+
+
+	/**
+	 * Retourne le nombre de nouvelles tentatives de missions ayant chou.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Le nombre de nouvelles tentatives de missions ayant chou.
+	 */
+	public final long getRetryCount() {
+		return retryCount.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre d'ouvriers souhait.
+	 * @return Le nombre d'ouvriers souhait.
+	 */
+	public final int getWishedWorkerCount() {
+		return wishedWorkerCount;
+	}
+
+
+
+	/**
+	 * Retourne un instantan des mesures de fonctionnement de chacun des ouvriers actifs ou licencis, index par leur nom.<br>
+	 * Cette mthode est non bloquante.
+	 * @return Un instantan des mesures de fonctionnement de chacun des ouvriers.
+	 */
+	public final Map<String, Metrics.Snapshot> getWorkerMetrics() {
+		Map<String, Metrics.Snapshot> snapshots = new TreeMap<>();
+
+		for (Worker<M> worker : activeWorkers) {
+			snapshots.put(worker.getName(), worker.getMetrics().snapshot());
+		}
+		for (Worker<M> worker : dismissedWorkers) {
+			snapshots.put(worker.getName(), worker.getMetrics().snapshot());
+		}
+		return snapshots;
 	}
 
 
@@ -307,9 +471,7 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * @return Le nombre d'ouvriers (actifs ou licencis).
 	 */
 	public final int getWorkerCount() {
-		synchronized (workersLock) {
-			return activeWorkers.size() + dismissedWorkers.size();
-		}
+		return activeWorkers.size() + dismissedWorkers.size();
 	}
 
 
@@ -340,7 +502,8 @@ public class Enterprise<M extends Mission> extends Thread {
 	 * Interdit temporairement le dmarrage de nouvelle mission.
 	 */
 	public final void postponeNewMissionsStart() {
-		synchronized (newMissionsLock) {
+		newMissionsLock.lock();
+		try {
 			switch (newMissions) {
 			case ALLOWED:
 				previouslyElapsedTime += System.currentTimeMillis() - startTime;
@@ -349,54 +512,70 @@ public class Enterprise<M extends Mission> extends Thread {
 			case POSTPONNED:
 			case FORBIDDEN:
 			}
+		} finally {
+			newMissionsLock.unlock();
 		}
 	}
 
 
 
+	/**
+	 * Publie l'tat et les mesures de fonctionnement de l'entreprise par JMX, sur le serveur de la plateforme (voir {@link EnterpriseMXBean}), jusqu' sa fermeture.<br>
+	 * Le nom de publication comprend le nom de l'entreprise et l'identifiant de son thread, de sorte que plusieurs entreprises de mme nom peuvent tre publies simultanment.
+	 * @return Le nom de publication.
+	 * @throws JMException Si la publication a chou.
+	 */
+	public final ObjectName registerMBean() throws JMException {
+		ObjectName name = new ObjectName("toolbox.parallel:type=Enterprise,name=" + ObjectName.quote(getName()) + ",id=" + getId());
+
+		if (!mbeanName.compareAndSet(null, name)) {
+			return mbeanName.get();
+		}
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new EnterpriseMonitor(this), name);
+		if (closedDown) {
+			unregisterMBean();
+		}
+		return name;
+	}
+
+
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override public void run() {
 		Worker<M> worker;
-		Vector<Worker<M>> remainingWorkers;
-		boolean wait;
+		List<Worker<M>> remainingWorkers;
 
 		try {
 			missionner.start();
 			allowNewMissionsStart();
 			while ((newMissions != NewMissions.FORBIDDEN) && missionner.hasNext() && !hasExceptions()) {
-				synchronized (workersLock) {
-					wait = false;
-					if (wishedWorkerCount > (activeWorkers.size() + dismissedWorkers.size())) {
-						worker = stemWorker.newOne();
-						activeWorkers.add(worker);
+				// seul ce thread embauche et licencie, les ouvriers ne font que se retirer lorsqu'ils ont fini
+				if (wishedWorkerCount > (activeWorkers.size() + dismissedWorkers.size())) {
+					worker = stemWorker.newOne();
+					activeWorkers.add(worker);
+					if (executor == null) {
 						worker.start();
-					} else if (wishedWorkerCount < activeWorkers.size()) {
-						worker = activeWorkers.lastElement();
-						activeWorkers.remove(worker);
-						dismissedWorkers.add(worker);
-						worker.dismiss();
 					} else {
-						wait = true;
+						worker.startOn(executor);
 					}
-				}
-				if (wait) {
+				} else if ((wishedWorkerCount < activeWorkers.size()) && ((worker = activeWorkers.peekLast()) != null)) {
+					dismissedWorkers.add(worker);
+					activeWorkers.remove(worker);
+					worker.dismiss();
+				} else {
 					try {
-						synchronized (enterpriseLock) {
-							enterpriseLock.wait();
-						}
-					} catch (Exception exception) {
+						events.acquire();
+						events.drainPermits();
+					} catch (InterruptedException exception) {
 						collectExceptions(exception);
 					}
 				}
 			}
 			forbidForeverNewMissionsStart();
-			remainingWorkers = new Vector<>();
-			synchronized (workersLock) {
-				remainingWorkers.addAll(activeWorkers);
-				remainingWorkers.addAll(dismissedWorkers);
-			}
+			remainingWorkers = new ArrayList<>(activeWorkers);
+			remainingWorkers.addAll(dismissedWorkers);
 			if (hasExceptions()) {
 				for (Worker<M> remainingWorker : remainingWorkers) {
 					remainingWorker.interrupt();
@@ -404,15 +583,29 @@ public class Enterprise<M extends Mission> extends Thread {
 				missionner.interrupt();
 			}
 			for (Worker<M> remainingWorker : remainingWorkers) {
-				remainingWorker.join();
+				remainingWorker.awaitFinished();
 			}
 			closedDown = true;
-			synchronized (enterpriseLock) {
-				enterpriseLock.notifyAll();
-			}
 		} catch (Throwable exception) {
 			collectExceptions(exception);
+		} finally {
+			unregisterMBean();
+		}
+	}
+
+
+
+	/**
+	 * Rgle le nombre maximal de missions pouvant tre abandonnes sans arrter l'entreprise. L'abandon de la mission suivante arrte l'entreprise, comme n'importe quelle autre exception.<br>
+	 * Par dfaut, il est de 0.
+	 * @param maxFailedMissions Nombre maximal de missions pouvant tre abandonnes sans arrter l'entreprise (doit tre positif ou nul, {@link Integer#MAX_VALUE} pour ne jamais arrter
+	 *            l'entreprise  cause de missions abandonnes).
+	 */
+	public final void setMaxFailedMissions(int maxFailedMissions) {
+		if (maxFailedMissions < 0) {
+			throw new IllegalArgumentException("Le nombre maximal de missions abandonnes doit tre positif ou nul: " + maxFailedMissions);
 		}
+		this.maxFailedMissions = maxFailedMissions;
 	}
 
 
@@ -426,56 +619,116 @@ public class Enterprise<M extends Mission> extends Thread {
 			throw new IllegalArgumentException("Le nombre d'ouvriers souhait doit tre strictement positif: " + wishedWorkerCount);
 		}
 		this.wishedWorkerCount = wishedWorkerCount;
+		signal();
 	}
 
 
 
 	/**
-	 * Ouvriers non licencis.
+	 * Signale au thread de l'entreprise qu'un vnement pouvant modifier l'effectif ou provoquer la fermeture s'est produit.<br>
+	 * Cette mthode est non bloquante.
+	 */
+	private void signal() {
+		events.release();
+	}
+
+
+
+	/**
+	 * Retire la publication par JMX de l'entreprise, si elle a t publie.
 	 */
-	private final Vector<Worker<M>> activeWorkers = new Vector<>();
+	private void unregisterMBean() {
+		ObjectName name;
+
+		if ((name = mbeanName.getAndSet(null)) != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException exception) {
+				// la publication n'est qu'une aide au suivi, son retrait ne doit pas faire chouer l'entreprise
+			}
+		}
+	}
+
+
+
+	/**
+	 * Attend que le dmarrage de nouvelles missions ne soit plus report.<br>
+	 * Cette mthode ne prend de verrou que si le dmarrage de nouvelles missions est report.
+	 * @return <code>true</code> si l'attente s'est termine normalement, <code>false</code> si elle a t interrompue.
+	 */
+	private boolean waitForNewMissionsAllowed() {
+		if (newMissions == NewMissions.POSTPONNED) {
+			newMissionsLock.lock();
+			try {
+				while (newMissions == NewMissions.POSTPONNED) {
+					newMissionsChanged.await();
+				}
+			} catch (InterruptedException exception) {
+				collectExceptions(exception);
+				return false;
+			} finally {
+				newMissionsLock.unlock();
+			}
+		}
+		return true;
+	}
+
+
+
+	/**
+	 * Ouvriers non licencis, dans l'ordre d'embauche.
+	 */
+	private final Deque<Worker<M>> activeWorkers = new ConcurrentLinkedDeque<>();
 
 
 
 	/**
 	 * Indique si l'entreprise a ferm.
 	 */
-	private boolean closedDown = false;
+	private volatile boolean closedDown = false;
 
 
 
 	/**
 	 * Ouvriers licencis finissant leur dernire mission.
 	 */
-	private final Vector<Worker<M>> dismissedWorkers = new Vector<>();
+	private final Set<Worker<M>> dismissedWorkers = Collections.newSetFromMap(new ConcurrentHashMap<Worker<M>, Boolean>());
 
 
 
 	/**
 	 * Nombre de missions termines.
 	 */
-	private volatile int doneCount = 0;
+	private final LongAdder doneCount = new LongAdder();
+
+
+
+	/**
+	 * Evnements signals au thread de l'entreprise et pas encore pris en compte (voir {@link #signal()}). Les permis s'accumulent, de sorte qu'un vnement signal avant que le thread ne se mette en
+	 * attente n'est pas perdu.
+	 */
+	private final Semaphore events = new Semaphore(0);
 
 
 
 	/**
-	 * Verrou pour les missions termines.
+	 * {@link ExecutorService} pour lequel travaillent les ouvriers, ou <code>null</code> si chaque ouvrier travaille dans son propre thread.
 	 */
-	private final Object doneLock = "doneLock";
+	private final ExecutorService executor;
 
 
 
 	/**
-	 * Verrou pour les employs.
+	 * Exceptions rencontres. Elles sont rares, et lues bien plus souvent qu'crites.
 	 */
-	private final Object enterpriseLock = "enterpriseLock";
+	private final List<Throwable> exceptions = new CopyOnWriteArrayList<>();
 
 
 
 	/**
-	 * Exceptions rencontres.
+	 * Missions abandonnes. Elles sont rares, et lues bien plus souvent qu'crites.
 	 */
-	private final Vector<Throwable> exceptions = new Vector<>();
+	private final List<FailedMission<M>> failedMissions = new CopyOnWriteArrayList<>();
 
 
 
@@ -486,6 +739,27 @@ public class Enterprise<M extends Mission> extends Thread {
 
 
 
+	/**
+	 * Nombre maximal de missions pouvant tre abandonnes sans arrter l'entreprise.
+	 */
+	private volatile int maxFailedMissions = 0;
+
+
+
+	/**
+	 * Nom de publication par JMX, ou <code>null</code> si l'entreprise n'est pas publie.
+	 */
+	private final AtomicReference<ObjectName> mbeanName = new AtomicReference<>();
+
+
+
+	/**
+	 * Mesures de fonctionnement cumules de tous les ouvriers.
+	 */
+	private final Metrics metrics = new Metrics();
+
+
+
 	/**
 	 * Distributeur de missions.
 	 */
@@ -500,10 +774,17 @@ public class Enterprise<M extends Mission> extends Thread {
 
 
 
+	/**
+	 * Condition signale quand l'autorisation de dmarrage de nouvelles missions cesse d'tre reporte.
+	 */
+	private final Condition newMissionsChanged;
+
+
+
 	/**
 	 * Verrou pour l'autorisation de dmarrage de nouvelles missions.
 	 */
-	private final Object newMissionsLock = "newMissionsLock";
+	private final Lock newMissionsLock = new ReentrantLock();
 
 
 
@@ -517,7 +798,14 @@ public class Enterprise<M extends Mission> extends Thread {
 	/**
 	 * Nombre de rsulats de missions.
 	 */
-	private volatile int producedCount = 0;
+	private final LongAdder producedCount = new LongAdder();
+
+
+
+	/**
+	 * Nombre de nouvelles tentatives de missions ayant chou.
+	 */
+	private final LongAdder retryCount = new LongAdder();
 
 
 
@@ -542,13 +830,6 @@ public class Enterprise<M extends Mission> extends Thread {
 
 
 
-	/**
-	 * Verrou pour les ouvriers actifs et licencis.
-	 */
-	private final Object workersLock = "workersLock";
-
-
-
 	/**
 	 * La classe {@link NewMissions} recense les tats possibles pour le dmarrage de nouvelles taches.
 	 * @author Ludovic WALLE
@@ -0,0 +1,128 @@
+package toolbox.parallel;
+
+import java.util.*;
+
+
+
+/**
+ * L'interface {@link EnterpriseMXBean} dcrit l'tat et les mesures de fonctionnement d'une {@link Enterprise} publis par JMX (voir {@link Enterprise#registerMBean()}).<br>
+ * Le nombre d'ouvriers souhait est modifiable, ce qui permet de l'ajuster  la main en cours de traitement.
+ * @author Ludovic WALLE
+ */
+public interface EnterpriseMXBean {
+
+
+
+	/**
+	 * Retourne le nombre d'ouvriers actifs (voir {@link Enterprise#getActiveWorkerCount()}).
+	 * @return Le nombre d'ouvriers actifs.
+	 */
+	public int getActiveWorkerCount();
+
+
+
+	/**
+	 * Retourne le nombre d'ouvriers licencis finissant leur dernire mission (voir {@link Enterprise#getDismissedWorkerCount()}).
+	 * @return Le nombre d'ouvriers licencis finissant leur dernire mission.
+	 */
+	public int getDismissedWorkerCount();
+
+
+
+	/**
+	 * Retourne le nombre de missions termines (voir {@link Enterprise#getDoneCount()}).
+	 * @return Le nombre de missions termines.
+	 */
+	public int getDoneCount();
+
+
+
+	/**
+	 * Retourne le temps de traitement coul en millisecondes (voir {@link Enterprise#getElapsedTime()}).
+	 * @return Le temps de traitement coul en millisecondes.
+	 */
+	public long getElapsedTime();
+
+
+
+	/**
+	 * Retourne le nombre attendu de rsultats, sans attendre qu'il soit calcul (voir {@link Enterprise#getExpectedCount(boolean)}).
+	 * @return Le nombre attendu de rsultats.
+	 */
+	public int getExpectedCount();
+
+
+
+	/**
+	 * Retourne le nombre de missions abandonnes (voir {@link Enterprise#getFailedCount()}).
+	 * @return Le nombre de missions abandonnes.
+	 */
+	public int getFailedCount();
+
+
+
+	/**
+	 * Retourne un instantan des mesures de fonctionnement cumules de tous les ouvriers (voir {@link Enterprise#getMetrics()}).
+	 * @return Un instantan des mesures de fonctionnement cumules de tous les ouvriers.
+	 */
+	public Metrics.Snapshot getMetrics();
+
+
+
+	/**
+	 * Retourne le nom de l'entreprise.
+	 * @return Le nom de l'entreprise.
+	 */
+	public String getName();
+
+
+
+	/**
+	 * Retourne le nombre de rsultats des missions termines (voir {@link Enterprise#getProducedCount()}).
+	 * @return Le nombre de rsultats des missions termines.
+	 */
+	public int getProducedCount();
+
+
+
+	/**
+	 * Retourne le nombre de nouvelles tentatives de missions ayant chou (voir {@link Enterprise#getRetryCount()}).
+	 * @return Le nombre de nouvelles tentatives de missions ayant chou.
+	 */
+	public long getRetryCount();
+
+
+
+	/**
+	 * Retourne le nombre d'ouvriers souhait (voir {@link Enterprise#getWishedWorkerCount()}).
+	 * @return Le nombre d'ouvriers souhait.
+	 */
+	public int getWishedWorkerCount();
+
+
+
+	/**
+	 * Retourne un instantan des mesures de fonctionnement de chacun des ouvriers, index par leur nom (voir {@link Enterprise#getWorkerMetrics()}).
+	 * @return Un instantan des mesures de fonctionnement de chacun des ouvriers.
+	 */
+	public Map<String, Metrics.Snapshot> getWorkerMetrics();
+
+
+
+	/**
+	 * Teste si l'entreprise a ferm (voir {@link Enterprise#hasClosedDown()}).
+	 * @return <code>true</code> si l'entreprise a ferm, <code>false</code> sinon.
+	 */
+	public boolean isClosedDown();
+
+
+
+	/**
+	 * Ajuste le nombre d'ouvriers souhait (voir {@link Enterprise#setWishedWorkersCount(int)}).
+	 * @param wishedWorkerCount Nombre d'ouvriers souhait (doit tre strictement positif).
+	 */
+	public void setWishedWorkerCount(int wishedWorkerCount);
+
+
+
+}
@@ -0,0 +1,157 @@
+package toolbox.parallel;
+
+import java.util.*;
+
+
+
+/**
+ * La classe {@link EnterpriseMonitor} publie par JMX l'tat et les mesures de fonctionnement d'une {@link Enterprise}, en dlguant  ses mthodes.
+ * @author Ludovic WALLE
+ */
+class EnterpriseMonitor implements EnterpriseMXBean {
+
+
+
+	/**
+	 * @param enterprise Entreprise.
+	 */
+	public EnterpriseMonitor(Enterprise<?> enterprise) {
+		this.enterprise = enterprise;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int getActiveWorkerCount() {
+		return enterprise.getActiveWorkerCount();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int getDismissedWorkerCount() {
+		return enterprise.getDismissedWorkerCount();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int getDoneCount() {
+		return enterprise.getDoneCount();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public long getElapsedTime() {
+		return enterprise.getElapsedTime();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int getExpectedCount() {
+		return enterprise.getExpectedCount(false);
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int getFailedCount() {
+		return enterprise.getFailedCount();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public Metrics.Snapshot getMetrics() {
+		return enterprise.getMetrics().snapshot();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public String getName() {
+		return enterprise.getName();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int getProducedCount() {
+		return enterprise.getProducedCount();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public long getRetryCount() {
+		return enterprise.getRetryCount();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public int getWishedWorkerCount() {
+		return enterprise.getWishedWorkerCount();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public Map<String, Metrics.Snapshot> getWorkerMetrics() {
+		return enterprise.getWorkerMetrics();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public boolean isClosedDown() {
+		return enterprise.hasClosedDown();
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public void setWishedWorkerCount(int wishedWorkerCount) {
+		enterprise.setWishedWorkersCount(wishedWorkerCount);
+	}
+
+
+
+	/**
+	 * Entreprise.
+	 */
+	private final Enterprise<?> enterprise;
+
+
+
+}
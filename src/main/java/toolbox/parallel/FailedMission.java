@@ -0,0 +1,88 @@
+package toolbox.parallel;
+
+
+
+/**
+ * La classe {@link FailedMission} dcrit une mission abandonne par un ouvrier aprs une ou plusieurs tentatives infructueuses (voir {@link Worker#delegateGetRetryDelay(Mission, int, Throwable)}).
+ * Les missions abandonnes sont conserves par l'entreprise (voir {@link Enterprise#getFailedMissions()}), pour pouvoir tre examines ou refaites ultrieurement.
+ * @author Ludovic WALLE
+ * @param <M> Type des missions.
+ */
+public class FailedMission<M extends Mission> {
+
+
+
+	/**
+	 * @param mission Mission.
+	 * @param attempts Nombre de tentatives.
+	 * @param exception Exception de la dernire tentative.
+	 */
+	FailedMission(M mission, int attempts, Throwable exception) {
+		this.mission = mission;
+		this.attempts = attempts;
+		this.exception = exception;
+	}
+
+
+
+	/**
+	 * Retourne le nombre de tentatives.
+	 * @return Le nombre de tentatives.
+	 */
+	public final int getAttempts() {
+		return attempts;
+	}
+
+
+
+	/**
+	 * Retourne l'exception de la dernire tentative.
+	 * @return L'exception de la dernire tentative.
+	 */
+	public final Throwable getException() {
+		return exception;
+	}
+
+
+
+	/**
+	 * Retourne la mission.
+	 * @return La mission.
+	 */
+	public final M getMission() {
+		return mission;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public String toString() {
+		return mission + " (" + attempts + " tentative" + ((attempts > 1) ? "s" : "") + "): " + exception;
+	}
+
+
+
+	/**
+	 * Nombre de tentatives.
+	 */
+	private final int attempts;
+
+
+
+	/**
+	 * Exception de la dernire tentative.
+	 */
+	private final Throwable exception;
+
+
+
+	/**
+	 * Mission.
+	 */
+	private final M mission;
+
+
+
+}
@@ -0,0 +1,201 @@
+package toolbox.parallel;
+
+/**
+ * La classe {@link Foreman} ajuste dynamiquement le nombre d'ouvriers d'une {@link Enterprise} (voir {@link Enterprise#setWishedWorkersCount(int)}) pour maximiser son dbit, sans qu'il soit
+ * ncessaire de le rgler  la main pour chaque traitement.<br>
+ * Le contremaitre mesure priodiquement l'avancement du traitement (voir {@link #getProgress()}) pendant le temps de traitement de l'entreprise (voir {@link Enterprise#getElapsedTime()}), et en
+ * dduit le dbit de la priode coule. Il procde par ttonnements: le nombre d'ouvriers est modifi d'un ouvrier  chaque priode, dans le mme sens tant que le dbit progresse, et en sens inverse
+ * sinon. Un dbit stable conduit  rduire le nombre d'ouvriers, inutiles.<br>
+ * Les signes de saturation du service sollicit par les ouvriers sont prioritaires: si des checs transitoires sont apparus pendant la priode (voir {@link #getFailureCount()}), ou si le temps de
+ * rponse moyen (voir {@link #getResponseCount()} et {@link #getResponseTime()}) dpasse {@value #LATENCY_TOLERANCE} fois le plus faible temps de rponse moyen observ, le nombre d'ouvriers est
+ * rduit d'un quart, puis les ttonnements reprennent  la hausse. Par dfaut, ces signes ne sont pas disponibles, les classes drives doivent redfinir les mthodes correspondantes pour les
+ * fournir.<br>
+ * Le contremaitre s'arrte lorsque l'entreprise a ferm ou a rencontr une exception.
+ * @author Ludovic WALLE
+ */
+public class Foreman extends Thread {
+
+
+
+	/**
+	 * @param enterprise Entreprise (ne doit pas tre <code>null</code>).
+	 * @param minWorkerCount Nombre minimal d'ouvriers (doit tre strictement positif).
+	 * @param maxWorkerCount Nombre maximal d'ouvriers (doit tre suprieur ou gal au nombre minimal).
+	 * @param period Priode de mesure et d'ajustement, en millisecondes (doit tre strictement positive).
+	 */
+	public Foreman(Enterprise<?> enterprise, int minWorkerCount, int maxWorkerCount, long period) {
+		super("Foreman");
+		if (enterprise == null) {
+			throw new NullPointerException();
+		}
+		if ((minWorkerCount <= 0) || (maxWorkerCount < minWorkerCount)) {
+			throw new IllegalArgumentException("Les nombres minimal et maximal d'ouvriers sont invalides: " + minWorkerCount + ", " + maxWorkerCount);
+		}
+		if (period <= 0) {
+			throw new IllegalArgumentException("La priode doit tre strictement positive: " + period);
+		}
+		this.enterprise = enterprise;
+		this.minWorkerCount = minWorkerCount;
+		this.maxWorkerCount = maxWorkerCount;
+		this.period = period;
+		setDaemon(true);
+	}
+
+
+
+	/**
+	 * Retourne le nombre cumul d'checs transitoires du service sollicit par les ouvriers.<br>
+	 * Par dfaut, cette mthode retourne 0.
+	 * @return Le nombre cumul d'checs transitoires.
+	 */
+	@SuppressWarnings("static-method") protected long getFailureCount() {
+		return 0;
+	}
+
+
+
+	/**
+	 * Retourne l'avancement cumul du traitement, dans une unit quelconque, pourvu qu'elle progresse rgulirement pendant le traitement.<br>
+	 * Par dfaut, cette mthode retourne le nombre de rsultats des missions termines (voir {@link Enterprise#getProducedCount()}), ce qui ne convient que si les missions sont courtes par rapport 
+	 * la priode.
+	 * @return L'avancement cumul du traitement.
+	 */
+	protected long getProgress() {
+		return enterprise.getProducedCount();
+	}
+
+
+
+	/**
+	 * Retourne le nombre cumul de rponses du service sollicit par les ouvriers.<br>
+	 * Par dfaut, cette mthode retourne 0.
+	 * @return Le nombre cumul de rponses.
+	 */
+	@SuppressWarnings("static-method") protected long getResponseCount() {
+		return 0;
+	}
+
+
+
+	/**
+	 * Retourne le temps de rponse cumul du service sollicit par les ouvriers, en millisecondes.<br>
+	 * Par dfaut, cette mthode retourne 0.
+	 * @return Le temps de rponse cumul, en millisecondes.
+	 */
+	@SuppressWarnings("static-method") protected long getResponseTime() {
+		return 0;
+	}
+
+
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override public void run() {
+		long elapsed = enterprise.getElapsedTime();
+		long progress = getProgress();
+		long failures = getFailureCount();
+		long responses = getResponseCount();
+		long responseTime = getResponseTime();
+		long previousElapsed;
+		long previousProgress;
+		long previousFailures;
+		long previousResponses;
+		long previousResponseTime;
+		double throughput;
+		double previousThroughput = -1;
+		double latency;
+		double minLatency = Double.MAX_VALUE;
+		int workerCount = enterprise.getWishedWorkerCount();
+		int direction = 1;
+
+		try {
+			while (!enterprise.hasClosedDown() && !enterprise.hasExceptions()) {
+				Thread.sleep(period);
+				previousElapsed = elapsed;
+				previousProgress = progress;
+				previousFailures = failures;
+				previousResponses = responses;
+				previousResponseTime = responseTime;
+				elapsed = enterprise.getElapsedTime();
+				progress = getProgress();
+				failures = getFailureCount();
+				responses = getResponseCount();
+				responseTime = getResponseTime();
+				if (elapsed == previousElapsed) {
+					// traitement suspendu ou pas encore commenc
+					continue;
+				}
+				throughput = ((progress - previousProgress) * 1000.0) / (elapsed - previousElapsed);
+				if (responses > previousResponses) {
+					latency = (double) (responseTime - previousResponseTime) / (responses - previousResponses);
+					minLatency = Math.min(minLatency, latency);
+				} else {
+					latency = -1;
+				}
+				if ((failures > previousFailures) || (latency > (minLatency * LATENCY_TOLERANCE))) {
+					workerCount -= Math.max(1, workerCount / 4);
+					direction = 1;
+					previousThroughput = -1;
+				} else {
+					if ((previousThroughput >= 0) && (throughput <= (previousThroughput * (1 + NOISE)))) {
+						direction = (throughput < (previousThroughput * (1 - NOISE))) ? -direction : -1;
+					}
+					workerCount += direction;
+					previousThroughput = throughput;
+				}
+				workerCount = Math.max(minWorkerCount, Math.min(maxWorkerCount, workerCount));
+				if (workerCount != enterprise.getWishedWorkerCount()) {
+					enterprise.setWishedWorkersCount(workerCount);
+				}
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+
+	/**
+	 * Entreprise.
+	 */
+	private final Enterprise<?> enterprise;
+
+
+
+	/**
+	 * Nombre maximal d'ouvriers.
+	 */
+	private final int maxWorkerCount;
+
+
+
+	/**
+	 * Nombre minimal d'ouvriers.
+	 */
+	private final int minWorkerCount;
+
+
+
+	/**
+	 * Priode de mesure et d'ajustement, en millisecondes.
+	 */
+	private final long period;
+
+
+
+	/**
+	 * Rapport maximal entre le temps de rponse moyen d'une priode et le plus faible temps de rponse moyen observ, au del duquel le service est considr comme satur.
+	 */
+	public static final double LATENCY_TOLERANCE = 2;
+
+
+
+	/**
+	 * Variation relative du dbit en de de laquelle le dbit est considr comme stable.
+	 */
+	private static final double NOISE = 0.05;
+
+
+
+}
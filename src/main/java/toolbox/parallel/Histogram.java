@@ -0,0 +1,219 @@
+package toolbox.parallel;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+
+
+/**
+ * La classe {@link Histogram} implmente un histogramme de dures (ou de toute autre valeur entire positive), utilisable de faon concurrente.<br>
+ * Les valeurs sont rparties dans des intervalles  chelle log-linaire: chaque puissance de deux est dcoupe en {@value #SUB_BUCKETS} intervalles de mme largeur, de sorte que l'erreur relative
+ * sur une valeur restitue est infrieure  1/{@value #SUB_BUCKETS}, quel que soit son ordre de grandeur. Les valeurs infrieures  {@value #SUB_BUCKETS} sont exactes.<br>
+ * L'enregistrement d'une valeur ne fait aucune allocation et ne prend aucun verrou: il se limite  quelques incrments atomiques. La lecture n'est pas atomique: des valeurs enregistres pendant
+ * une lecture peuvent n'tre que partiellement prises en compte.
+ * @author Ludovic WALLE
+ */
+public class Histogram {
+
+
+
+	/**	 */
+	public Histogram() {}
+
+
+
+	/**
+	 * Retourne le nombre de valeurs enregistres.
+	 * @return Le nombre de valeurs enregistres.
+	 */
+	public final long getCount() {
+		return count.sum();
+	}
+
+
+
+	/**
+	 * Retourne la plus grande valeur enregistre, ou 0 si aucune valeur n'a t enregistre.
+	 * @return La plus grande valeur enregistre.
+	 */
+	public final long getMax() {
+		return max.get();
+	}
+
+
+
+	/**
+	 * Retourne la moyenne des valeurs enregistres, ou 0 si aucune valeur n'a t enregistre.
+	 * @return La moyenne des valeurs enregistres.
+	 */
+	public final double getMean() {
+		long count = this.count.sum();
+
+		return (count == 0) ? 0 : (double) total.sum() / count;
+	}
+
+
+
+	/**
+	 * Retourne la somme des valeurs enregistres.
+	 * @return La somme des valeurs enregistres.
+	 */
+	public final long getTotal() {
+		return total.sum();
+	}
+
+
+
+	/**
+	 * Retourne la valeur en dessous de laquelle se trouve le pourcentage indiqu des valeurs enregistres, ou 0 si aucune valeur n'a t enregistre. La valeur retourne est la borne suprieure de
+	 * l'intervalle qui la contient, sans dpasser la plus grande valeur enregistre.
+	 * @param percentile Pourcentage (de 0  100).
+	 * @return La valeur correspondant au pourcentage indiqu.
+	 */
+	public final long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long rank;
+
+		if ((percentile < 0) || (percentile > 100)) {
+			throw new IllegalArgumentException("Le pourcentage doit tre compris entre 0 et 100: " + percentile);
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		rank = Math.max(1, (long) Math.ceil((percentile * total) / 100));
+		for (int i = 0; i < BUCKETS; i++) {
+			if ((rank -= counts.get(i)) <= 0) {
+				return Math.min(getUpperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+
+
+	/**
+	 * Enregistre la valeur indique. Une valeur ngative est enregistre comme 0.<br>
+	 * Cette mthode ne fait aucune allocation et n'est pas bloquante.
+	 * @param value Valeur.
+	 */
+	public final void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(getIndex(value));
+		count.increment();
+		total.add(value);
+		max.accumulate(value);
+	}
+
+
+
+	/**
+	 * Retourne le numro de l'intervalle contenant la valeur indique.
+	 * @param value Valeur (positive ou nulle).
+	 * @return Le numro de l'intervalle contenant la valeur indique.
+	 */
+	private static int getIndex(long value) {
+		int exponent;
+
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		} else {
+			exponent = 63 - Long.numberOfLeadingZeros(value);
+			return ((exponent - SUB_BUCKET_BITS) + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		}
+	}
+
+
+
+	/**
+	 * Retourne la plus grande valeur de l'intervalle indiqu.
+	 * @param index Numro de l'intervalle.
+	 * @return La plus grande valeur de l'intervalle indiqu.
+	 */
+	private static long getUpperBound(int index) {
+		int shift;
+
+		if (index < SUB_BUCKETS) {
+			return index;
+		} else {
+			shift = (index / SUB_BUCKETS) - 1;
+			return (((long) (SUB_BUCKETS + (index % SUB_BUCKETS)) << shift) + (1L << shift)) - 1;
+		}
+	}
+
+
+
+	/**
+	 * Nombre de valeurs enregistres.
+	 */
+	private final LongAdder count = new LongAdder();
+
+
+
+	/**
+	 * Nombres de valeurs enregistres par intervalle.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+
+
+	/**
+	 * Plus grande valeur enregistre.
+	 */
+	private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+
+
+	/**
+	 * Somme des valeurs enregistres.
+	 */
+	private final LongAdder total = new LongAdder();
+
+
+
+	/**
+	 * Nombre de bits de dcoupage de chaque puissance de deux.
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+
+
+
+	/**
+	 * Nombre d'intervalles par puissance de deux.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+
+
+	/**
+	 * Nombre d'intervalles, suffisant pour toutes les valeurs positives d'un <code>long</code>.
+	 */
+	private static final int BUCKETS = ((63 - SUB_BUCKET_BITS) + 1) * SUB_BUCKETS;
+
+
+
+	/**
+	 * Oprateur de calcul du maximum.
+	 */
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+
+
+
+	};
+
+
+
+}
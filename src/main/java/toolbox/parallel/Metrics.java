@@ -0,0 +1,392 @@
+package toolbox.parallel;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+
+
+/**
+ * La classe {@link Metrics} regroupe les mesures de fonctionnement d'un ouvrier, ou de l'ensemble des ouvriers d'une entreprise:
+ * <ul>
+ * <li>la dure de chaque mission (voir {@link Worker#delegateDo(Mission)}),
+ * <li>l'attente de chaque obtention de missions auprs de l'entreprise (voir {@link Enterprise#getNext(int)}),
+ * <li>le temps d'inactivit, qui comprend ces attentes et, si les ouvriers travaillent pour un {@link ExecutorService}, l'attente de leurs taches dans sa file,
+ * <li>le nombre de missions termines par seconde, sur une fentre glissante de {@value #WINDOW} secondes.
+ * </ul>
+ * Un temps d'inactivit important signale un traitement limit par la distribution des missions ou par le nombre de threads, une dure des missions croissante avec le nombre d'ouvriers un
+ * traitement limit par une ressource qu'ils partagent (rseau, service distant ou processeur).<br>
+ * L'enregistrement des mesures ne fait aucune allocation et ne prend aucun verrou. Les mesures peuvent tre lues en cours de traitement, de prfrence par {@link #snapshot()}.
+ * @author Ludovic WALLE
+ */
+public class Metrics {
+
+
+
+	/**	 */
+	public Metrics() {}
+
+
+
+	/**
+	 * Retourne le temps d'inactivit cumul, en nanosecondes.
+	 * @return Le temps d'inactivit cumul, en nanosecondes.
+	 */
+	public final long getIdleTime() {
+		return idleTime.sum();
+	}
+
+
+
+	/**
+	 * Retourne le nombre de missions termines par seconde, sur les {@value #WINDOW} dernires secondes compltes.
+	 * @return Le nombre de missions termines par seconde.
+	 */
+	public final double getMissionRate() {
+		long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		long second;
+		long count = 0;
+
+		for (int i = 0; i <= WINDOW; i++) {
+			second = seconds.get(i);
+			if ((second < now) && (second >= (now - WINDOW))) {
+				count += counts.get(i);
+			}
+		}
+		return (double) count / WINDOW;
+	}
+
+
+
+	/**
+	 * Retourne l'histogramme des dures des missions, en nanosecondes.
+	 * @return L'histogramme des dures des missions, en nanosecondes.
+	 */
+	public final Histogram getMissionTime() {
+		return missionTime;
+	}
+
+
+
+	/**
+	 * Retourne l'histogramme des attentes lors de l'obtention de missions, en nanosecondes.
+	 * @return L'histogramme des attentes lors de l'obtention de missions, en nanosecondes.
+	 */
+	public final Histogram getWaitTime() {
+		return waitTime;
+	}
+
+
+
+	/**
+	 * Enregistre un temps d'inactivit autre qu'une attente de missions.
+	 * @param time Temps d'inactivit, en nanosecondes.
+	 */
+	final void recordIdle(long time) {
+		idleTime.add(time);
+	}
+
+
+
+	/**
+	 * Enregistre la fin d'une mission.
+	 * @param time Dure de la mission, en nanosecondes.
+	 */
+	final void recordMission(long time) {
+		long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		int slot = (int) (now % (WINDOW + 1));
+		long second;
+
+		missionTime.record(time);
+		if (((second = seconds.get(slot)) != now) && seconds.compareAndSet(slot, second, now)) {
+			// la case correspondait  une seconde passe, hors de la fentre
+			counts.set(slot, 0);
+		}
+		counts.incrementAndGet(slot);
+	}
+
+
+
+	/**
+	 * Enregistre une attente lors de l'obtention de missions.
+	 * @param time Dure de l'attente, en nanosecondes.
+	 */
+	final void recordWait(long time) {
+		waitTime.record(time);
+		idleTime.add(time);
+	}
+
+
+
+	/**
+	 * Retourne un instantan des mesures.
+	 * @return Un instantan des mesures.
+	 */
+	public final Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+
+
+	/**
+	 * Nombres de missions termines par seconde, dans des cases rutilises circulairement.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(WINDOW + 1);
+
+
+
+	/**
+	 * Temps d'inactivit cumul, en nanosecondes.
+	 */
+	private final LongAdder idleTime = new LongAdder();
+
+
+
+	/**
+	 * Dures des missions, en nanosecondes.
+	 */
+	private final Histogram missionTime = new Histogram();
+
+
+
+	/**
+	 * Secondes correspondant aux cases de {@link #counts}.
+	 */
+	private final AtomicLongArray seconds = new AtomicLongArray(WINDOW + 1);
+
+
+
+	/**
+	 * Attentes lors de l'obtention de missions, en nanosecondes.
+	 */
+	private final Histogram waitTime = new Histogram();
+
+
+
+	/**
+	 * Dure de la fentre glissante de mesure du nombre de missions termines par seconde, en secondes. Une case supplmentaire est utilise pour la seconde en cours.
+	 */
+	public static final int WINDOW = 10;
+
+
+
+	/**
+	 * La classe {@link Snapshot} reprsente un instantan des mesures, exprimes en millisecondes. Elle est utilisable telle quelle par JMX (voir {@link EnterpriseMXBean}).
+	 * @author Ludovic WALLE
+	 */
+	public static class Snapshot {
+
+
+
+		/**
+		 * @param metrics Mesures.
+		 */
+		private Snapshot(Metrics metrics) {
+			missionCount = metrics.missionTime.getCount();
+			missionMean = toMillis(metrics.missionTime.getMean());
+			missionMedian = toMillis(metrics.missionTime.getValueAtPercentile(50));
+			mission99 = toMillis(metrics.missionTime.getValueAtPercentile(99));
+			missionMax = toMillis(metrics.missionTime.getMax());
+			missionRate = metrics.getMissionRate();
+			busyTime = toMillis(metrics.missionTime.getTotal());
+			idleTime = toMillis(metrics.idleTime.sum());
+			waitMean = toMillis(metrics.waitTime.getMean());
+			wait99 = toMillis(metrics.waitTime.getValueAtPercentile(99));
+		}
+
+
+
+		/**
+		 * Retourne le temps cumul pass  effectuer des missions, en millisecondes.
+		 * @return Le temps cumul pass  effectuer des missions, en millisecondes.
+		 */
+		public final double getBusyTime() {
+			return busyTime;
+		}
+
+
+
+		/**
+		 * Retourne le temps d'inactivit cumul, en millisecondes.
+		 * @return Le temps d'inactivit cumul, en millisecondes.
+		 */
+		public final double getIdleTime() {
+			return idleTime;
+		}
+
+
+
+		/**
+		 * Retourne la dure en dessous de laquelle se trouvent 99% des missions, en millisecondes.
+		 * @return La dure en dessous de laquelle se trouvent 99% des missions, en millisecondes.
+		 */
+		public final double getMission99() {
+			return mission99;
+		}
+
+
+
+		/**
+		 * Retourne le nombre de missions termines.
+		 * @return Le nombre de missions termines.
+		 */
+		public final long getMissionCount() {
+			return missionCount;
+		}
+
+
+
+		/**
+		 * Retourne la dure maximale des missions, en millisecondes.
+		 * @return La dure maximale des missions, en millisecondes.
+		 */
+		public final double getMissionMax() {
+			return missionMax;
+		}
+
+
+
+		/**
+		 * Retourne la dure moyenne des missions, en millisecondes.
+		 * @return La dure moyenne des missions, en millisecondes.
+		 */
+		public final double getMissionMean() {
+			return missionMean;
+		}
+
+
+
+		/**
+		 * Retourne la dure mdiane des missions, en millisecondes.
+		 * @return La dure mdiane des missions, en millisecondes.
+		 */
+		public final double getMissionMedian() {
+			return missionMedian;
+		}
+
+
+
+		/**
+		 * Retourne le nombre de missions termines par seconde, sur les {@value Metrics#WINDOW} dernires secondes compltes.
+		 * @return Le nombre de missions termines par seconde.
+		 */
+		public final double getMissionRate() {
+			return missionRate;
+		}
+
+
+
+		/**
+		 * Retourne l'attente en dessous de laquelle se trouvent 99% des obtentions de missions, en millisecondes.
+		 * @return L'attente en dessous de laquelle se trouvent 99% des obtentions de missions, en millisecondes.
+		 */
+		public final double getWait99() {
+			return wait99;
+		}
+
+
+
+		/**
+		 * Retourne l'attente moyenne lors de l'obtention de missions, en millisecondes.
+		 * @return L'attente moyenne lors de l'obtention de missions, en millisecondes.
+		 */
+		public final double getWaitMean() {
+			return waitMean;
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public String toString() {
+			return String.format("%d missions (%.1f/s), dure moyenne %.1f ms, mdiane %.1f ms, 99%% %.1f ms, max %.1f ms, attente moyenne %.1f ms, 99%% %.1f ms, occup %.0f ms, inactif %.0f ms", missionCount, missionRate, missionMean, missionMedian, mission99, missionMax, waitMean, wait99, busyTime, idleTime);
+		}
+
+
+
+		/**
+		 * Convertit des nanosecondes en millisecondes.
+		 * @param nanos Dure en nanosecondes.
+		 * @return La dure en millisecondes.
+		 */
+		private static double toMillis(double nanos) {
+			return nanos / 1e6;
+		}
+
+
+
+		/**
+		 * Temps cumul pass  effectuer des missions, en millisecondes.
+		 */
+		private final double busyTime;
+
+
+
+		/**
+		 * Temps d'inactivit cumul, en millisecondes.
+		 */
+		private final double idleTime;
+
+
+
+		/**
+		 * Dure en dessous de laquelle se trouvent 99% des missions, en millisecondes.
+		 */
+		private final double mission99;
+
+
+
+		/**
+		 * Nombre de missions termines.
+		 */
+		private final long missionCount;
+
+
+
+		/**
+		 * Dure maximale des missions, en millisecondes.
+		 */
+		private final double missionMax;
+
+
+
+		/**
+		 * Dure moyenne des missions, en millisecondes.
+		 */
+		private final double missionMean;
+
+
+
+		/**
+		 * Dure mdiane des missions, en millisecondes.
+		 */
+		private final double missionMedian;
+
+
+
+		/**
+		 * Nombre de missions termines par seconde.
+		 */
+		private final double missionRate;
+
+
+
+		/**
+		 * Attente en dessous de laquelle se trouvent 99% des obtentions de missions, en millisecondes.
+		 */
+		private final double wait99;
+
+
+
+		/**
+		 * Attente moyenne lors de l'obtention de missions, en millisecondes.
+		 */
+		private final double waitMean;
+
+
+
+	}
+
+
+
+}
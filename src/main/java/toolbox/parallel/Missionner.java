@@ -1,9 +1,17 @@
 package toolbox.parallel;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+
+
 /**
  * La classe {@link Missionner} est la classe anctre de tous les distributeurs de missions.<br>
- * Les distributeurs fonctionnent de faon asynchrone, dans un {@link Thread} spar. Ils prparent une nouvelle mission ds que la prcdente a t attribue, au lieu d'attendre qu'on leur en demande
- * une pour le faire.<br>
+ * Les distributeurs fonctionnent de faon asynchrone, dans un {@link Thread} spar. Ils prparent  l'avance un nombre configurable de missions (voir {@link #Missionner(String, int)}), ranges
+ * dans une file borne, au lieu d'attendre qu'on leur en demande une pour le faire. La prparation des missions se fait ainsi en mme temps que leur excution, et une prparation ponctuellement
+ * lente ne bloque pas les ouvriers tant que la file n'est pas vide. Les missions sont distribues dans l'ordre de leur prparation, une par une (voir {@link #getNext()}) ou par lots (voir
+ * {@link #getNext(int)}).<br>
  * Un distributeur peut tre utilis comme itrateur.<br>
  * <br>
  * Les mthodes appeles par la mthode {@link #run()} sont, dans l'ordre:
@@ -13,7 +21,8 @@ package toolbox.parallel;
  * <li>{@link #delegateFinalize()}, une seule fois.
  * </ul>
  * Aucune de ces mthodes n'est appele de faon concurrente, et n'a besoin d'tre synchronise.<br>
- * Il est prfrable de faire les initialisations lentes dans la mthode {@link #delegateInitialize()}, excute de faon asynchrone, plutt que dans le constructeur, excut de faon synchrone.
+ * Il est prfrable de faire les initialisations lentes dans la mthode {@link #delegateInitialize()}, excute de faon asynchrone, plutt que dans le constructeur, excut de faon synchrone.<br>
+ * Les verrous sont propres  chaque distributeur.
  * @author Ludovic WALLE
  * @param <M> Missions.
  */
@@ -32,8 +41,24 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 	 * @param name Nom du distributeur de missions.
 	 */
 	protected Missionner(String name) {
+		this(name, 1);
+	}
+
+
+
+	/**
+	 * @param name Nom du distributeur de missions.
+	 * @param prefetch Nombre maximal de missions prpares  l'avance (doit tre strictement positif). Avec 1, une nouvelle mission est prpare ds que la prcdente a t attribue.
+	 */
+	protected Missionner(String name, int prefetch) {
 		super(name);
+		if (prefetch <= 0) {
+			throw new IllegalArgumentException("Le nombre de missions prpares  l'avance doit tre strictement positif: " + prefetch);
+		}
 		setDaemon(true);
+		this.prefetch = prefetch;
+		available = nextLock.newCondition();
+		space = nextLock.newCondition();
 	}
 
 
@@ -63,6 +88,16 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 
 
 
+	/**
+	 * Mthode ventuellement surcharge dans les classes drives, appele lorsque la distribution de missions est arrte (voir {@link #stopDispensing()}), dans le thread qui l'arrte.<br>
+	 * On peut y rveiller une prparation de mission en attente dans {@link #delegateGetNext()}, qui peut alors retourner <code>null</code>. Elle est excute de faon concurrente avec
+	 * {@link #delegateGetNext()}.<br>
+	 * Par dfaut, cette mthode ne fait rien.
+	 */
+	protected void delegateStopDispensing() {}
+
+
+
 	/**
 	 * Retourne le nombre attendu de rsultats (positif ou nul), ou {@link #NOT_COMPUTABLE} si il n'est pas calculable, ou {@link #NOT_AVAILABLE} si le calcul est en cours, ou {@link #NOT_COMPUTED} si
 	 * ni {@link #start()} ni {@link #run()} n'ont t appeles au pralable (le calcul n'a pas t lanc).
@@ -72,14 +107,10 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 	 */
 	public final int getExpectedCount(boolean waitUntilComputed) {
 		if (waitUntilComputed) {
-			synchronized (expectedCountLock) {
-				while (((expectedCount == NOT_AVAILABLE) || (expectedCount == NOT_COMPUTED)) && !hasExceptions()) {
-					try {
-						expectedCountLock.wait();
-					} catch (InterruptedException exception) {
-						reportExceptions(exception);
-					}
-				}
+			try {
+				expectedCountComputed.await();
+			} catch (InterruptedException exception) {
+				reportExceptions(exception);
 			}
 		}
 		return expectedCount;
@@ -93,21 +124,62 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 	 * @return La mission suivante, ou <code>null</code> si il n'y en a plus.
 	 */
 	public final M getNext() {
-		@SuppressWarnings("hiding") M next = null;
+		M next = null;
+
+		nextLock.lock();
+		try {
+			waitForNext();
+			if (!hasExceptions() && ((next = prefetched.poll()) != null)) {
+				space.signal();
+			}
+			return next;
+		} finally {
+			nextLock.unlock();
+		}
+	}
+
 
-		synchronized (nextLock) {
+
+	/**
+	 * Distribue un lot de missions suivantes, dans l'ordre de leur prparation. Le lot contient au plus le nombre de missions indiqu, et au moins une si il en reste  distribuer: seules les missions
+	 * dj prpares sont ajoutes  la premire, sans attendre les autres.<br>
+	 * Cette mthode est bloquante tant qu'il n'y a pas de mission disponible et qu'on ne sait pas si il n'y en a plus  distribuer.
+	 * @param max Nombre maximal de missions du lot (doit tre strictement positif).
+	 * @return Les missions suivantes, ou une liste vide si il n'y en a plus.
+	 */
+	public final List<M> getNext(int max) {
+		List<M> next = new ArrayList<>(Math.min(max, prefetch));
+
+		if (max <= 0) {
+			throw new IllegalArgumentException("Le nombre maximal de missions d'un lot doit tre strictement positif: " + max);
+		}
+		nextLock.lock();
+		try {
 			waitForNext();
 			if (!hasExceptions()) {
-				next = this.next;
-				this.next = null;
+				while ((next.size() < max) && !prefetched.isEmpty()) {
+					next.add(prefetched.poll());
+				}
+				space.signal();
 			}
-			nextLock.notifyAll();
 			return next;
+		} finally {
+			nextLock.unlock();
 		}
 	}
 
 
 
+	/**
+	 * Retourne le nombre maximal de missions prpares  l'avance.
+	 * @return Le nombre maximal de missions prpares  l'avance.
+	 */
+	public final int getPrefetch() {
+		return prefetch;
+	}
+
+
+
 	/**
 	 * Teste si des missions peuvent encore tre distribues.<br>
 	 * Cette mthode est bloquante tant qu'il n'y a pas de mission disponible et qu'on ne sait pas si il n'y en a plus  distribuer.<br>
@@ -116,9 +188,12 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 	 * @return <code>true</code> si des missions peuvent encore tre distribues, <code>false</code> sinon.
 	 */
 	public final boolean hasNext() {
-		synchronized (nextLock) {
+		nextLock.lock();
+		try {
 			waitForNext();
-			return next != null;
+			return !prefetched.isEmpty();
+		} finally {
+			nextLock.unlock();
 		}
 	}
 
@@ -128,41 +203,66 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 	 * {@inheritDoc}
 	 */
 	@Override public final void run() {
-		@SuppressWarnings("hiding") M next = null;
+		M next = null;
 		ExpectedCounter expectedCounterThread = null;
 
 		try {
 			delegateInitialize();
 			(expectedCounterThread = new ExpectedCounter()).start();
-			synchronized (nextLock) {
-				while (!finished && !hasExceptions() && ((next = delegateGetNext()) != null)) {
-					while (!finished && !hasExceptions() && (this.next != null)) {
+			while (!finished && !hasExceptions() && ((next = delegateGetNext()) != null)) {
+				nextLock.lock();
+				try {
+					while (!finished && !hasExceptions() && (prefetched.size() >= prefetch)) {
 						try {
-							nextLock.wait();
+							space.await();
 						} catch (Exception exception) {
 							reportExceptions(exception);
 						}
 					}
 					if (!finished && !hasExceptions()) {
-						this.next = next;
-						nextLock.notifyAll();
+						prefetched.add(next);
+						// hasNext() ne retire rien, tous les threads en attente doivent tre rveills
+						available.signalAll();
 					}
+				} finally {
+					nextLock.unlock();
 				}
 			}
 			expectedCounterThread.interrupt();
-			finished = true;
+			finish();
 			delegateFinalize();
 		} catch (Throwable exception) {
 			reportExceptions(exception);
 		} finally {
-			synchronized (expectedCountLock) {
-				expectedCountLock.notifyAll();
+			// les attentes en cours ne doivent pas se prolonger si le distributeur s'est arrt sur une exception
+			finish();
+			if ((expectedCount == NOT_COMPUTED) || hasExceptions()) {
+				expectedCountComputed.countDown();
 			}
 		}
 	}
 
 
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override void exceptionsReported() {
+		wakeUp();
+	}
+
+
+
+	/**
+	 * Signale qu'il n'y a plus de mission  prparer. Les missions dj prpares restent  distribuer.
+	 */
+	private void finish() {
+		finished = true;
+		wakeUp();
+	}
+
+
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -174,10 +274,17 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 
 
 	/**
-	 * Arrte la distribution de missions, mme si il en reste.
+	 * Arrte la distribution de missions, mme si il en reste. Les missions dj prpares ne sont pas distribues (voir {@link #delegateStopDispensing()}).
 	 */
 	public final void stopDispensing() {
-		finished = true;
+		nextLock.lock();
+		try {
+			prefetched.clear();
+		} finally {
+			nextLock.unlock();
+		}
+		finish();
+		delegateStopDispensing();
 	}
 
 
@@ -187,22 +294,42 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 	 * Cette mthode est bloquante.
 	 */
 	private void waitForNext() {
-		synchronized (nextLock) {
-			if (!started) {
-				start();
-			}
-			while (!finished && !hasExceptions() && (this.next == null)) {
-				try {
-					nextLock.wait();
-				} catch (InterruptedException exception) {
-					reportExceptions(exception);
-				}
+		if (!started) {
+			start();
+		}
+		while (!finished && !hasExceptions() && prefetched.isEmpty()) {
+			try {
+				available.await();
+			} catch (InterruptedException exception) {
+				reportExceptions(exception);
 			}
 		}
 	}
 
 
 
+	/**
+	 * Rveille les threads en attente de la mission suivante, pour qu'ils tiennent compte de l'arrt de la distribution ou des exceptions rencontres.
+	 */
+	private void wakeUp() {
+		nextLock.lock();
+		try {
+			available.signalAll();
+			space.signalAll();
+		} finally {
+			nextLock.unlock();
+		}
+	}
+
+
+
+	/**
+	 * Condition signale quand une mission est prpare, ou quand la distribution s'arrte.
+	 */
+	private final Condition available;
+
+
+
 	/**
 	 * Nombre de rsultats attendus.
 	 */
@@ -211,9 +338,9 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 
 
 	/**
-	 * Verrou pour le nombre de rsultats attendus.
+	 * Verrou ouvert lorsque le calcul du nombre de rsultats attendus est termin ou a chou.
 	 */
-	private final Object expectedCountLock = "expectedCountLock";
+	private final CountDownLatch expectedCountComputed = new CountDownLatch(1);
 
 
 
@@ -225,16 +352,30 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 
 
 	/**
-	 * Mission suivante  distribuer, ou <code>null</code> si il n'y en a pas de disponible.
+	 * Verrou pour les missions prpares.
+	 */
+	private final Lock nextLock = new ReentrantLock();
+
+
+
+	/**
+	 * Nombre maximal de missions prpares  l'avance.
+	 */
+	private final int prefetch;
+
+
+
+	/**
+	 * Missions prpares, dans l'ordre de leur prparation.
 	 */
-	private volatile M next = null;
+	private final Deque<M> prefetched = new ArrayDeque<>();
 
 
 
 	/**
-	 * Verrou pour la mission suivante  distribuer.
+	 * Condition signale quand une mission prpare est distribue, ou quand la distribution s'arrte.
 	 */
-	private final Object nextLock = "nextLock";
+	private final Condition space;
 
 
 
@@ -288,26 +429,18 @@ public abstract class Missionner<M extends Mission> extends Employee<M> {
 
 			try {
 				if (expectedCount == NOT_COMPUTED) {
-					synchronized (expectedCountLock) {
-						if (expectedCount == NOT_COMPUTED) {
-							expectedCount = NOT_AVAILABLE;
-						}
-					}
+					expectedCount = NOT_AVAILABLE;
 					count = delegateComputeExpectedCount();
 					if ((count < 0) && (count != NOT_COMPUTABLE)) {
 						reportExceptions(new Exception("La valeur renvoye par la mthode delegateComputeExpectedCount est invalide: " + count));
 					} else {
-						synchronized (expectedCountLock) {
-							expectedCount = count;
-						}
+						expectedCount = count;
 					}
 				}
 			} catch (Throwable exception) {
 				reportExceptions(exception);
 			} finally {
-				synchronized (expectedCountLock) {
-					expectedCountLock.notifyAll();
-				}
+				expectedCountComputed.countDown();
 			}
 		}
 	}
@@ -1,9 +1,21 @@
 package toolbox.parallel;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
 
 
 /**
- * La classe {@link Worker} implmente un ouvrier effectuant des missions.
+ * La classe {@link Worker} implmente un ouvrier effectuant des missions.<br>
+ * L'ouvrier obtient ses missions par lots (voir {@link #Worker(int)}), ce qui rpartit le cot de leur distribution lorsqu'elles sont courtes. Par dfaut, les lots ne contiennent qu'une mission.<br>
+ * L'ouvrier travaille dans son propre thread, sauf si l'entreprise lui fournit un {@link ExecutorService} (voir {@link Enterprise#Enterprise(String, int, Missionner, Worker, ExecutorService)}). Il
+ * n'est alors pas dmarr comme thread: chaque lot de missions est une tache soumise  l'{@link ExecutorService}, qui soumet  son tour la tache du lot suivant. Les threads de l'
+ * {@link ExecutorService} passent ainsi d'une entreprise  l'autre entre deux lots.<br>
+ * Une mission qui choue peut tre retente, selon une politique propre  chaque mission (voir {@link #delegateGetRetryDelay(Mission, int, Throwable)}). Une mission qui choue dfinitivement est
+ * abandonne, et l'ouvrier passe  la suivante si l'entreprise le tolre (voir {@link Enterprise#setMaxFailedMissions(int)}). Sinon, l'exception arrte l'entreprise. Pour un
+ * {@link ExecutorService}, l'attente avant une nouvelle tentative n'occupe pas de thread: la tache qui reprend le lot est soumise une fois l'attente coule.<br>
+ * La dure des missions et les attentes de l'ouvrier sont mesures (voir {@link #getMetrics()}), et cumules avec celles des autres ouvriers de l'entreprise (voir {@link Enterprise#getMetrics()}).
  * @author Ludovic WALLE
  * @param <M> Type des missions.
  */
@@ -13,22 +25,48 @@ public abstract class Worker<M extends Mission> extends Employee<M> {
 
 	/**	 */
 	protected Worker() {
+		this(1);
+	}
+
+
+
+	/**
+	 * @param batchSize Nombre maximal de missions obtenues  la fois (doit tre strictement positif).
+	 */
+	protected Worker(int batchSize) {
 		super(getNewWorkerName());
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Le nombre maximal de missions obtenues  la fois doit tre strictement positif: " + batchSize);
+		}
+		this.batchSize = batchSize;
 	}
 
 
 
 	/**
-	 * @param other Autre ouvrier (ne doit pas tre <code>null</code>).
+	 * @param other Autre ouvrier (ne doit pas tre <code>null</code>), dont le nombre maximal de missions obtenues  la fois est repris.
 	 */
 	protected Worker(Worker<M> other) {
 		super(getNewWorkerName(), other);
+		this.batchSize = other.batchSize;
 	}
 
 
 
 	/**
-	 * Effectue la mission indique. L'entreprise sera interrompue si cette mthode gnre une exception.
+	 * Attend que l'ouvrier ait fini de travailler, qu'il travaille dans son propre thread ou pour un {@link ExecutorService}.<br>
+	 * Cette mthode est bloquante.
+	 * @throws InterruptedException Si l'attente est interrompue.
+	 */
+	final void awaitFinished() throws InterruptedException {
+		finished.await();
+	}
+
+
+
+	/**
+	 * Effectue la mission indique. Si cette mthode gnre une exception, la mission peut tre retente (voir {@link #delegateGetRetryDelay(Mission, int, Throwable)}) ou abandonne, sinon
+	 * l'entreprise sera interrompue. Une mission retente doit donc pouvoir tre refaite aprs un chec partiel.
 	 * @param mission Mission.
 	 * @return Le nombre de rsultats  comptabiliser.
 	 * @throws Throwable Pour que la mthode puisse gnrer des exceptions.
@@ -38,7 +76,25 @@ public abstract class Worker<M extends Mission> extends Employee<M> {
 
 
 	/**
-	 * Licencie l'ouvrier, qui s'arrtera ds qu'il aura fini sa mission en cours.
+	 * Retourne l'attente avant une nouvelle tentative de la mission indique, qui vient d'chouer, en millisecondes, ou -1 pour l'abandonner.<br>
+	 * Cette mthode est destine  tre surcharge pour retenter les missions dont l'chec peut tre transitoire. Elle n'est pas appele pour les interruptions ni pour les {@link Error}, qui
+	 * arrtent toujours l'entreprise.<br>
+	 * Par dfaut, cette mthode retourne -1: les missions ne sont jamais retentes.
+	 * @param mission Mission qui vient d'chouer.
+	 * @param attempt Numro de la tentative qui vient d'chouer ( partir de 1).
+	 * @param exception Exception gnre par la tentative.
+	 * @return L'attente avant une nouvelle tentative, en millisecondes, ou -1 pour abandonner la mission.
+	 * @throws Throwable Pour que la mthode puisse gnrer des exceptions.<br>
+	 *             L'entreprise sera interrompue si cette mthode gnre une exception.
+	 */
+	@SuppressWarnings("static-method") protected long delegateGetRetryDelay(M mission, int attempt, Throwable exception) throws Throwable {
+		return -1;
+	}
+
+
+
+	/**
+	 * Licencie l'ouvrier, qui s'arrtera ds qu'il aura fini son lot de missions en cours.
 	 */
 	protected final void dismiss() {
 		dismissed = true;
@@ -46,6 +102,30 @@ public abstract class Worker<M extends Mission> extends Employee<M> {
 
 
 
+	/**
+	 * Retourne les mesures de fonctionnement de l'ouvrier.
+	 * @return Les mesures de fonctionnement de l'ouvrier.
+	 */
+	public final Metrics getMetrics() {
+		return metrics;
+	}
+
+
+
+	/**
+	 * {@inheritDoc} Si l'ouvrier travaille pour un {@link ExecutorService}, sa tache en cours est annule, et interrompue si elle a commenc.
+	 */
+	@Override public void interrupt() {
+		Future<?> task;
+
+		if ((task = this.task) != null) {
+			task.cancel(true);
+		}
+		super.interrupt();
+	}
+
+
+
 	/**
 	 * Cre un nouvel ouvrier semblable  celui ci.<br>
 	 * Cette mthode est utilise par {@link Enterprise} pour embaucher de nouveaux ouvriers (crer de nouvelles instances).<br>
@@ -107,18 +187,247 @@ public abstract class Worker<M extends Mission> extends Employee<M> {
 	 * {@inheritDoc}
 	 */
 	@Override public final void run() {
-		M object;
+		List<M> objects;
 
 		try {
 			delegateInitialize();
 			reportStarted();
-			while (!dismissed && ((object = getEnterprise().getNext()) != null)) {
-				reportDone(object, delegateDo(object));
+			while (!dismissed && !(objects = fetch()).isEmpty()) {
+				for (M object : objects) {
+					perform(object);
+				}
 			}
 			delegateFinalize();
 			reportFinished();
 		} catch (Throwable exception) {
 			reportExceptions(exception);
+		} finally {
+			finished.countDown();
+		}
+	}
+
+
+
+	/**
+	 * Fait travailler l'ouvrier pour l'{@link ExecutorService} indiqu, au lieu de le dmarrer comme thread.<br>
+	 * Cette mthode est non bloquante.
+	 * @param executor {@link ExecutorService}.
+	 */
+	final void startOn(@SuppressWarnings("hiding") ExecutorService executor) {
+		this.executor = executor;
+		submit(true, 0);
+	}
+
+
+
+	/**
+	 * Effectue une tentative de la mission indique. Si la mission est finie ou abandonne, sa dure est mesure depuis le dbut de sa premire tentative, et sa fin ou son abandon est signal.
+	 * @param object Mission.
+	 * @param attempt Numro de la tentative ( partir de 1).
+	 * @param start Date de dbut de la premire tentative, en nanosecondes.
+	 * @return L'attente avant une nouvelle tentative, en millisecondes, ou -1 si la mission est finie ou abandonne.
+	 * @throws Throwable Si la mission a gnr une exception qui doit arrter l'entreprise.
+	 */
+	private long attempt(M object, int attempt, long start) throws Throwable {
+		int count = 0;
+		long time;
+		long delay;
+		boolean failed = false;
+
+		try {
+			count = delegateDo(object);
+		} catch (InterruptedException | Error exception) {
+			throw exception;
+		} catch (Throwable exception) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw exception;
+			} else if ((delay = delegateGetRetryDelay(object, attempt, exception)) >= 0) {
+				getEnterprise().collectRetry();
+				return delay;
+			} else if (getEnterprise().collectFailed(object, attempt, exception)) {
+				failed = true;
+			} else {
+				throw exception;
+			}
+		}
+		time = System.nanoTime() - start;
+		metrics.recordMission(time);
+		getEnterprise().getMetrics().recordMission(time);
+		if (!failed) {
+			reportDone(object, count);
+		}
+		return -1;
+	}
+
+
+
+	/**
+	 * Soumet la tache indique  l'{@link ExecutorService}. Si elle est refuse, l'ouvrier a fini de travailler, sauf si elle a dj t annule.
+	 * @param next Tache.
+	 * @param claimed Indicateur de prise en charge de la tache.
+	 */
+	private void execute(FutureTask<Void> next, AtomicBoolean claimed) {
+		submitted = System.nanoTime();
+		try {
+			executor.execute(next);
+		} catch (RejectedExecutionException exception) {
+			if (claimed.compareAndSet(false, true)) {
+				reportExceptions(exception);
+				finished.countDown();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Obtient le lot de missions suivant auprs de l'entreprise, en mesurant l'attente.
+	 * @return Les missions suivantes, ou une liste vide si il n'y en a plus.
+	 */
+	private List<M> fetch() {
+		long start = System.nanoTime();
+		List<M> objects;
+		long time;
+
+		objects = getEnterprise().getNext(batchSize);
+		time = System.nanoTime() - start;
+		metrics.recordWait(time);
+		getEnterprise().getMetrics().recordWait(time);
+		return objects;
+	}
+
+
+
+	/**
+	 * Effectue la mission indique, dans le thread de l'ouvrier, en la retentant ventuellement aprs une attente.
+	 * @param object Mission.
+	 * @throws Throwable Si la mission a gnr une exception qui doit arrter l'entreprise.
+	 */
+	private void perform(M object) throws Throwable {
+		long start = System.nanoTime();
+		long delay;
+
+		for (int attempt = 1; (delay = attempt(object, attempt, start)) >= 0; attempt++) {
+			Thread.sleep(delay);
+		}
+	}
+
+
+
+	/**
+	 * Enregistre un temps d'inactivit autre qu'une attente de missions.
+	 * @param time Temps d'inactivit, en nanosecondes.
+	 */
+	private void recordIdle(long time) {
+		metrics.recordIdle(time);
+		getEnterprise().getMetrics().recordIdle(time);
+	}
+
+
+
+	/**
+	 * Effectue un lot de missions, pour un {@link ExecutorService}, puis soumet la tache du lot suivant ou termine.<br>
+	 * Si une mission doit tre retente, la tache s'arrte, et la tache qui reprend le lot  cette mission est soumise aprs l'attente.
+	 * @param first Indicateur de premier lot, prcd des initialisations.
+	 */
+	private void step(boolean first) {
+		M object;
+		long delay;
+
+		try {
+			recordIdle(System.nanoTime() - submitted);
+			if (first) {
+				delegateInitialize();
+				reportStarted();
+			}
+			if (pending.isEmpty() && !dismissed) {
+				pending.addAll(fetch());
+			}
+			if (!pending.isEmpty()) {
+				while ((object = pending.peek()) != null) {
+					if (attempts == 0) {
+						started = System.nanoTime();
+					}
+					if ((delay = attempt(object, ++attempts, started)) >= 0) {
+						submit(false, delay);
+						return;
+					}
+					pending.poll();
+					attempts = 0;
+				}
+				submit(false, 0);
+				return;
+			}
+			delegateFinalize();
+			reportFinished();
+		} catch (Throwable exception) {
+			reportExceptions(exception);
+		}
+		finished.countDown();
+	}
+
+
+
+	/**
+	 * Soumet la tache du lot de missions suivant  l'{@link ExecutorService}, ventuellement aprs une attente. L'attente se fait sans occuper de thread de l'{@link ExecutorService}: la tache
+	 * lui est soumise par {@link #SCHEDULER} une fois l'attente coule.
+	 * @param first Indicateur de premier lot, prcd des initialisations.
+	 * @param delay Attente avant la soumission, en millisecondes.
+	 */
+	private void submit(final boolean first, long delay) {
+		final AtomicBoolean claimed = new AtomicBoolean();
+		final FutureTask<Void> next;
+
+		next = new FutureTask<Void>(new Runnable() {
+
+
+
+			/**
+			 * {@inheritDoc}
+			 */
+			@Override public void run() {
+				if (claimed.compareAndSet(false, true)) {
+					step(first);
+				}
+			}
+
+
+
+		}, null) {
+
+
+
+			/**
+			 * {@inheritDoc} Une tache annule avant que son lot n'ait commenc ne soumettra pas la suivante, l'ouvrier a donc fini de travailler. Une tache annule pendant son lot se termine
+			 * normalement: c'est alors {@link Worker#step(boolean)} qui signale la fin du travail ou soumet la tache suivante.
+			 */
+			@Override protected void done() {
+				if (isCancelled() && claimed.compareAndSet(false, true)) {
+					finished.countDown();
+				}
+			}
+
+
+
+		};
+		task = next;
+		if (delay > 0) {
+			SCHEDULER.schedule(new Runnable() {
+
+
+
+				/**
+				 * {@inheritDoc}
+				 */
+				@Override public void run() {
+					execute(next, claimed);
+				}
+
+
+
+			}, delay, TimeUnit.MILLISECONDS);
+		} else {
+			execute(next, claimed);
 		}
 	}
 
@@ -129,31 +438,108 @@ public abstract class Worker<M extends Mission> extends Employee<M> {
 	 * @return Le nom  attribuer  l'ouvrier embauch.
 	 */
 	private static String getNewWorkerName() {
-		synchronized (newWorkerIdLock) {
-			return String.format("Worker%04d", newWorkerId++);
-		}
+		return String.format("Worker%04d", newWorkerId.getAndIncrement());
 	}
 
 
 
 	/**
-	 * Indication d'ouvrier licenci aprs la fin de la mission en cours.
+	 * Nombre de tentatives dj faites de la premire des missions du lot en cours, pour un {@link ExecutorService}.
+	 */
+	private int attempts = 0;
+
+
+
+	/**
+	 * Nombre maximal de missions obtenues  la fois.
+	 */
+	private final int batchSize;
+
+
+
+	/**
+	 * Indication d'ouvrier licenci aprs la fin du lot de missions en cours.
 	 */
 	private volatile boolean dismissed = false;
 
 
 
+	/**
+	 * {@link ExecutorService} pour lequel l'ouvrier travaille, ou <code>null</code> si il travaille dans son propre thread.
+	 */
+	private volatile ExecutorService executor = null;
+
+
+
+	/**
+	 * Verrou ouvert lorsque l'ouvrier a fini de travailler.
+	 */
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+
+
+	/**
+	 * Mesures de fonctionnement de l'ouvrier.
+	 */
+	private final Metrics metrics = new Metrics();
+
+
+
+	/**
+	 * Missions du lot en cours pas encore finies ni abandonnes, pour un {@link ExecutorService}. Elles ne sont accdes que par la tache en cours.
+	 */
+	private final Deque<M> pending = new ArrayDeque<>();
+
+
+
+	/**
+	 * Date de dbut de la premire tentative de la premire des missions du lot en cours, pour un {@link ExecutorService}, en nanosecondes.
+	 */
+	private long started;
+
+
+
+	/**
+	 * Date de soumission de la dernire tache  l'{@link ExecutorService}, en nanosecondes.
+	 */
+	private volatile long submitted;
+
+
+
+	/**
+	 * Tache en cours ou en attente pour l'{@link ExecutorService}, ou <code>null</code> si l'ouvrier travaille dans son propre thread.
+	 */
+	private volatile Future<?> task = null;
+
+
+
 	/**
 	 * Numro  attribuer au prochain ouvrier embauch.
 	 */
-	private static volatile int newWorkerId = 0;
+	private static final AtomicInteger newWorkerId = new AtomicInteger();
 
 
 
 	/**
-	 * Verrou du numro  attribuer au prochain ouvrier embauch.
+	 * Planificateur des soumissions diffres de taches aux {@link ExecutorService}, commun  tous les ouvriers. Son thread ne fait que soumettre les taches.
 	 */
-	private static final Object newWorkerIdLock = "newWorkerId";
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "WorkerScheduler");
+
+			thread.setDaemon(true);
+			return thread;
+		}
+
+
+
+	});
 
 
 
@@ -10,6 +10,7 @@ package toolbox.parallel;
  * <li>{@link Worker} est un type d'employ dont le rle est d'effectuer les tches qui lui sont attribues. Il ne doit y en avoir qu'un.
  * <li>{@link Missionner} est un type d'employ dont le rle est de distribuer les tches aux ouvriers.
  * <li>{@link Enterprise} fait fonctionner le tout.
+ * <li>{@link Metrics} et {@link Histogram} mesurent le fonctionnement des ouvriers, publi par JMX par {@link EnterpriseMXBean}.
  * </ul>
  * Le nombre d'ouvriers est limit, souvent infrieur au nombre de tches  effectuer, mais ils travaillent en parallle, chacun sur sa tche.<br>
  * L'entreprise ferme lorsque toutes les tches ont t effectues. Il est possible de suspendre temporairement l'entreprise, de la fermer volontairement, d'embaucher et de dbaucher
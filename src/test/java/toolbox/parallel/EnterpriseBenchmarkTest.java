@@ -0,0 +1,248 @@
+package toolbox.parallel;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+
+
+/**
+ * La classe {@link EnterpriseBenchmarkTest} mesure la contention entre plusieurs entreprises fonctionnant simultanment dans la mme JVM.<br>
+ * Chaque entreprise distribue un grand nombre de missions trs courtes, de sorte que le temps mesur est essentiellement celui de la distribution des missions et de la comptabilisation de leurs fins.
+ * Le dbit global avec plusieurs entreprises est compar au dbit d'une entreprise seule: si les entreprises partageaient des verrous, il ne progresserait pas avec leur nombre.<br>
+ * Les tests se contentent de faire fonctionner simultanment quelques entreprises, et vrifient que toutes leurs missions sont comptabilises. Les mesures se font en ligne de commande:
+ * <ul>
+ * <li><code>EnterpriseBenchmarkTest [&lt;nombre d'entreprises&gt; [&lt;nombre d'ouvriers par entreprise&gt; [&lt;nombre de missions par entreprise&gt; [&lt;nombre de missions prpares 
+ * l'avance&gt; [&lt;taille des lots de missions&gt; [&lt;nombre de threads partags&gt;]]]]]]</code>
+ * </ul>
+ * Si un nombre de threads partags strictement positif est indiqu, les ouvriers de toutes les entreprises travaillent pour un mme {@link ExecutorService} de cette taille, au lieu de travailler
+ * chacun dans son propre thread.
+ * @author Ludovic WALLE
+ */
+public class EnterpriseBenchmarkTest {
+
+
+
+	/**
+	 * Vrifie la comptabilisation des missions d'entreprises simultanes dont les ouvriers travaillent pour un mme {@link ExecutorService}.
+	 * @throws InterruptedException Si l'attente des entreprises est interrompue.
+	 */
+	@Test public void testExecutor() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		try {
+			run(4, 4, 20000, 16, 8, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+
+	/**
+	 * Vrifie la comptabilisation des missions d'entreprises simultanes dont les ouvriers travaillent chacun dans son propre thread.
+	 * @throws InterruptedException Si l'attente des entreprises est interrompue.
+	 */
+	@Test public void testThreads() throws InterruptedException {
+		run(4, 4, 20000, 1, 1, null);
+	}
+
+
+
+	/**
+	 * Point d'entre en ligne de commande.
+	 * @param args Arguments (voir {@link EnterpriseBenchmarkTest}).
+	 * @throws InterruptedException Si l'attente des entreprises est interrompue.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int enterpriseCount = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+		int workerCount = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		int missionCount = (args.length > 2) ? Integer.parseInt(args[2]) : 200000;
+		int prefetch = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+		int batchSize = (args.length > 4) ? Integer.parseInt(args[4]) : 1;
+		int threadCount = (args.length > 5) ? Integer.parseInt(args[5]) : 0;
+		ExecutorService executor = (threadCount > 0) ? Executors.newFixedThreadPool(threadCount) : null;
+		double single;
+		double multiple;
+
+		try {
+			// chauffement, pour que les mesures ne comptent pas la compilation
+			run(1, workerCount, missionCount, prefetch, batchSize, executor);
+			single = run(1, workerCount, missionCount, prefetch, batchSize, executor);
+			multiple = run(enterpriseCount, workerCount, missionCount, prefetch, batchSize, executor);
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+		System.out.println(String.format("1 entreprise: %.0f missions/s", single));
+		System.out.println(String.format("%d entreprises: %.0f missions/s (x%.2f)", enterpriseCount, multiple, multiple / single));
+	}
+
+
+
+	/**
+	 * Fait fonctionner simultanment le nombre d'entreprises indiqu, vrifie que toutes leurs missions ont t comptabilises, et retourne le dbit global.
+	 * @param enterpriseCount Nombre d'entreprises.
+	 * @param workerCount Nombre d'ouvriers par entreprise.
+	 * @param missionCount Nombre de missions par entreprise.
+	 * @param prefetch Nombre de missions prpares  l'avance.
+	 * @param batchSize Taille des lots de missions.
+	 * @param executor {@link ExecutorService} partag par les ouvriers de toutes les entreprises, ou <code>null</code> pour que chaque ouvrier travaille dans son propre thread.
+	 * @return Le nombre de missions effectues par seconde, toutes entreprises confondues.
+	 * @throws InterruptedException Si l'attente des entreprises est interrompue.
+	 */
+	private static double run(int enterpriseCount, int workerCount, int missionCount, int prefetch, int batchSize, ExecutorService executor) throws InterruptedException {
+		List<Enterprise<CountMission>> enterprises = new ArrayList<>();
+		long start;
+		long done = 0;
+		long elapsed;
+
+		for (int i = 0; i < enterpriseCount; i++) {
+			enterprises.add(new Enterprise<>("Enterprise" + i, workerCount, new CountMissionner(missionCount, prefetch), new CountWorker(batchSize), executor));
+		}
+		start = System.nanoTime();
+		for (Enterprise<CountMission> enterprise : enterprises) {
+			enterprise.start();
+		}
+		for (Enterprise<CountMission> enterprise : enterprises) {
+			enterprise.join();
+			if (enterprise.hasExceptions()) {
+				throw new RuntimeException(enterprise.getFirstException());
+			}
+			assertEquals(missionCount, enterprise.getDoneCount());
+			assertEquals(missionCount / 2, enterprise.getProducedCount());
+			done += enterprise.getDoneCount();
+		}
+		elapsed = Math.max(1, System.nanoTime() - start);
+		return (done * 1e9) / elapsed;
+	}
+
+
+
+	/**
+	 * La classe {@link CountMission} implmente une mission vide.
+	 * @author Ludovic WALLE
+	 */
+	private static class CountMission implements Mission {
+
+
+
+		/**
+		 * @param index Numro de la mission.
+		 */
+		public CountMission(int index) {
+			this.index = index;
+		}
+
+
+
+		/**
+		 * Numro de la mission.
+		 */
+		private final int index;
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link CountMissionner} distribue le nombre de missions indiqu.
+	 * @author Ludovic WALLE
+	 */
+	private static class CountMissionner extends Missionner<CountMission> {
+
+
+
+		/**
+		 * @param missionCount Nombre de missions.
+		 * @param prefetch Nombre de missions prpares  l'avance.
+		 */
+		public CountMissionner(int missionCount, int prefetch) {
+			super("Missionner", prefetch);
+			this.missionCount = missionCount;
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override protected CountMission delegateGetNext() {
+			return (next < missionCount) ? new CountMission(next++) : null;
+		}
+
+
+
+		/**
+		 * Nombre de missions.
+		 */
+		private final int missionCount;
+
+
+
+		/**
+		 * Numro de la prochaine mission.
+		 */
+		private int next = 0;
+
+
+
+	}
+
+
+
+	/**
+	 * La classe {@link CountWorker} effectue les missions sans autre traitement que de les comptabiliser.
+	 * @author Ludovic WALLE
+	 */
+	private static class CountWorker extends Worker<CountMission> {
+
+
+
+		/**
+		 * @param batchSize Taille des lots de missions.
+		 */
+		public CountWorker(int batchSize) {
+			super(batchSize);
+		}
+
+
+
+		/**
+		 * @param other Autre ouvrier.
+		 */
+		public CountWorker(CountWorker other) {
+			super(other);
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override protected int delegateDo(CountMission mission) {
+			return mission.index & 1;
+		}
+
+
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override protected CountWorker newOne() {
+			return new CountWorker(this);
+		}
+
+
+
+	}
+
+
+
+}